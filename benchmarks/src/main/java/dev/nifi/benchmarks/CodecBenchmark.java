@@ -0,0 +1,165 @@
+package dev.nifi.benchmarks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
+
+import dev.nifi.utils.Codecs;
+import dev.nifi.xml.Criteria;
+import dev.nifi.yml.TemplateYML;
+
+/**
+ * Cost of (de)serializing a single element with a freshly built mapper (how every processor's
+ * advanced rules and every template used to be handled) vs the shared codecs.
+ *
+ * Run with: java -cp target/benchmarks.jar:../nifi-toolkit-api-1.10.0-SNAPSHOT.jar org.openjdk.jmh.Main
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	// Annotation data of an UpdateAttribute processor with two rules
+	private static final String CRITERIA_XML = "<criteria>"
+			+ "<flowFilePolicy>USE_CLONE</flowFilePolicy>"
+			+ "<rules><id>2b5bbe2e-1c5d-4d5e-9f5b-6e0d3c7e0f61</id><name>Test double rule</name>"
+			+ "<conditions><id>0c6c1a4e-6f0e-4d25-a3f6-2f0d1b8f0f10</id><expression>${asdf2:equals(\"true\")}</expression></conditions>"
+			+ "<conditions><id>7d2c2c1c-9a5e-4f3b-8f0e-1c2d3e4f5a6b</id><expression>${asdf:equals(\"true\")}</expression></conditions>"
+			+ "<actions><id>e1f2a3b4-c5d6-4e7f-8091-a2b3c4d5e6f7</id><attribute>newValue</attribute><value>asdf!</value></actions>"
+			+ "</rules>"
+			+ "<rules><id>9f8e7d6c-5b4a-4392-8170-6f5e4d3c2b1a</id><name>Simple test</name>"
+			+ "<conditions><id>1a2b3c4d-5e6f-4708-9a1b-2c3d4e5f6a7b</id><expression>${asdf2:equals(\"false\")}</expression></conditions>"
+			+ "<actions><id>a7b6c5d4-e3f2-4a1b-9c8d-7e6f5a4b3c2d</id><attribute>otherValue</attribute><value>asdf@</value></actions>"
+			+ "</rules>"
+			+ "</criteria>";
+
+	// Small template with one controller, a couple of processors and a connection
+	private static final String TEMPLATE_YAML = "name: root\n"
+			+ "dependencies:\n"
+			+ "  org.apache.nifi:\n"
+			+ "    nifi-http-context-map-nar:\n"
+			+ "      1.10.0:\n"
+			+ "        StandardHttpContextMap: org.apache.nifi.http.StandardHttpContextMap\n"
+			+ "    nifi-standard-nar:\n"
+			+ "      1.10.0:\n"
+			+ "        LogAttribute: org.apache.nifi.processors.standard.LogAttribute\n"
+			+ "    nifi-update-attribute-nar:\n"
+			+ "      1.10.0:\n"
+			+ "        UpdateAttribute: org.apache.nifi.processors.attributes.UpdateAttribute\n"
+			+ "controllers:\n"
+			+ "- name: StandardHttpContextMap\n"
+			+ "  id: 13cd1a2f-016d-1000-0000-000000000000\n"
+			+ "  properties:\n"
+			+ "    Maximum Outstanding Requests: 500\n"
+			+ "components:\n"
+			+ "- name: UpdateAttribute\n"
+			+ "  id: 5469f8d8-a039-38e6-821a-68b0ce21a1a9\n"
+			+ "  position: 3128,1125\n"
+			+ "  comment: This is a comment about how UpdateAttribute works.\n"
+			+ "  properties:\n"
+			+ "    Store State: Store state locally\n"
+			+ "    newAttribute: ${uuid}\n"
+			+ "  styles:\n"
+			+ "    background-color: '#e02020'\n"
+			+ "  advanced:\n"
+			+ "    policy: USE_CLONE\n"
+			+ "    rules:\n"
+			+ "    - name: Simple test\n"
+			+ "      conditions:\n"
+			+ "      - ${asdf2:equals(\"false\")}\n"
+			+ "      actions:\n"
+			+ "        otherValue: asdf@\n"
+			+ "- name: LogAttribute\n"
+			+ "  id: 78e2ba79-a996-3df8-f272-857ae51fa010\n"
+			+ "  position: 3779,1841\n"
+			+ "  inputs:\n"
+			+ "  - source: 5469f8d8-a039-38e6-821a-68b0ce21a1a9\n"
+			+ "    from:\n"
+			+ "    - success\n";
+
+	private Criteria criteria;
+	private TemplateYML template;
+
+	@Setup
+	public void setup() throws IOException {
+		criteria = Codecs.CRITERIA_READER.readValue(CRITERIA_XML);
+		template = Codecs.TEMPLATE_READER.readValue(TEMPLATE_YAML);
+	}
+
+	@Benchmark
+	public Criteria criteriaReadNewMapper() throws IOException {
+		return new XmlMapper().readValue(CRITERIA_XML, Criteria.class);
+	}
+
+	@Benchmark
+	public Criteria criteriaReadShared() throws IOException {
+		return Codecs.CRITERIA_READER.readValue(CRITERIA_XML);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Criteria criteriaReadSharedConcurrent() throws IOException {
+		return Codecs.CRITERIA_READER.readValue(CRITERIA_XML);
+	}
+
+	@Benchmark
+	public String criteriaWriteNewMapper() throws IOException {
+		return new XmlMapper().writeValueAsString(criteria);
+	}
+
+	@Benchmark
+	public String criteriaWriteShared() throws IOException {
+		return Codecs.CRITERIA_WRITER.writeValueAsString(criteria);
+	}
+
+	@Benchmark
+	public TemplateYML templateReadNewMapper() throws IOException {
+		return new ObjectMapper(new YAMLFactory()).readValue(TEMPLATE_YAML, TemplateYML.class);
+	}
+
+	@Benchmark
+	public TemplateYML templateReadShared() throws IOException {
+		return Codecs.TEMPLATE_READER.readValue(TEMPLATE_YAML);
+	}
+
+	@Benchmark
+	public String templateWriteNewMapper() throws IOException {
+		YAMLFactory f = new YAMLFactory();
+		f.enable(YAMLGenerator.Feature.MINIMIZE_QUOTES);
+		f.disable(YAMLGenerator.Feature.WRITE_DOC_START_MARKER);
+		ObjectMapper mapper = new ObjectMapper(f);
+		mapper.setSerializationInclusion(Include.NON_EMPTY);
+
+		StringWriter writer = new StringWriter();
+		mapper.writer().writeValue(writer, template);
+		return writer.toString();
+	}
+
+	@Benchmark
+	public String templateWriteShared() throws IOException {
+		StringWriter writer = new StringWriter();
+		Codecs.TEMPLATE_WRITER.writeValue(writer, template);
+		return writer.toString();
+	}
+}
@@ -0,0 +1,164 @@
+package dev.nifi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.nifi.utils.ObjectTracker;
+import dev.nifi.yml.HelperYML.ReservedComponents;
+
+/**
+ * Port lookups by (group, name, type) with 100k tracked objects: the ObjectTracker index vs the
+ * name -> set of objects scan (a new list per lookup) it used to do.
+ *
+ * Run with: java -cp target/benchmarks.jar:../nifi-toolkit-api-1.10.0-SNAPSHOT.jar org.openjdk.jmh.Main ObjectTracker -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectTrackerBenchmark {
+
+	private static final int GROUPS = 1000;
+
+	@Param("100000")
+	private int objects;
+
+	private final ObjectTracker tracker = new ObjectTracker();
+	private final ScanIndex scan = new ScanIndex();
+
+	// Lookups (group, name, type) spread over everything tracked
+	private String[][] searches;
+
+	@Setup
+	public void setup() {
+		List<String[]> tracked = new ArrayList<>();
+		for (int i = 0; i < objects; i++) {
+			// Every name is used by an input and an output port, like ports passing through a process group
+			String group = "group-" + (i % GROUPS);
+			String name = "port-" + (i / (2 * GROUPS));
+			String type = (i / GROUPS) % 2 == 0 ? ReservedComponents.INPUT_PORT.name() : ReservedComponents.OUTPUT_PORT.name();
+			String id = UUID.randomUUID().toString();
+
+			tracker.track(group, name, type, id);
+			scan.track(group, name, type, id);
+			tracked.add(new String[] { group, name, type });
+		}
+
+		searches = new String[1024][];
+		for (int i = 0; i < searches.length; i++) {
+			searches[i] = tracked.get(ThreadLocalRandom.current().nextInt(tracked.size()));
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	private String[] next(Cursor cursor) {
+		return searches[cursor.next++ & (searches.length - 1)];
+	}
+
+	@Benchmark
+	public String trackerLookup(Cursor cursor) {
+		String[] search = next(cursor);
+		return tracker.getIdForObject(search[0], search[1], search[2]);
+	}
+
+	@Benchmark
+	public String scanLookup(Cursor cursor) {
+		String[] search = next(cursor);
+		return scan.getIdForObject(search[0], search[1], search[2]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String trackerLookupConcurrent(Cursor cursor) {
+		String[] search = next(cursor);
+		return tracker.getIdForObject(search[0], search[1], search[2]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String scanLookupConcurrent(Cursor cursor) {
+		String[] search = next(cursor);
+		return scan.getIdForObject(search[0], search[1], search[2]);
+	}
+
+	/*
+	 * The previous ObjectTracker name index: GroupId -> Name -> TrackedObjects filtered by type on every lookup
+	 */
+	private static final class ScanIndex {
+
+		private final Map<String, Map<String, Set<TrackedObject>>> groupedNameMap = new ConcurrentHashMap<>();
+
+		String getIdForObject(String groupId, String name, String type) {
+			Map<String, Set<TrackedObject>> namedObjects = groupedNameMap.get(groupId);
+			if (namedObjects != null) {
+				Set<TrackedObject> objectsWithName = namedObjects.get(name);
+				if (objectsWithName != null) {
+					List<TrackedObject> matches = new ArrayList<TrackedObject>();
+					for (TrackedObject obj : objectsWithName) {
+						if (type.equals(obj.type)) {
+							matches.add(obj);
+						}
+					}
+					if (!matches.isEmpty()) {
+						if (matches.size() > 1) {
+							throw new IllegalStateException("Found more than one tracked object for search: " + groupId + " " + name + " " + type);
+						}
+						return matches.get(0).id;
+					}
+				}
+			}
+			return null;
+		}
+
+		void track(String groupId, String name, String type, String id) {
+			groupedNameMap.computeIfAbsent(groupId, k -> new ConcurrentHashMap<>())
+					.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet())
+					.add(new TrackedObject(type, id));
+		}
+	}
+
+	private static final class TrackedObject {
+		final String type;
+		final String id;
+
+		TrackedObject(String type, String id) {
+			this.type = type;
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof TrackedObject) && ((TrackedObject) o).id.equals(this.id);
+		}
+
+		@Override
+		public int hashCode() {
+			return id.hashCode();
+		}
+	}
+}
@@ -24,12 +24,30 @@ public class Main {
         importYaml.setArgName("directory");
         importYaml.setOptionalArg(true);
         
+        Option sync = new Option("s", "Sync all YAML files from specified directory (Default: '.') into NiFi workspace, only changing what differs.");
+        sync.setLongOpt("sync");
+        sync.setArgs(1);
+        sync.setArgName("directory");
+        sync.setOptionalArg(true);
+        
         Option export = new Option("x", "Export NiFi workspace to yaml and save all yaml files to directory (Default: '.').");
         export.setLongOpt("export");
         export.setArgs(1);
         export.setArgName("directory");
         export.setOptionalArg(true);
         
+        Option flowExport = new Option("xf", "Export NiFi workspace like --export, but with a single flow request per process group.");
+        flowExport.setLongOpt("export-flow");
+        flowExport.setArgs(1);
+        flowExport.setArgName("directory");
+        flowExport.setOptionalArg(true);
+        
+        Option offlineExport = new Option("xo", "Export a flow.xml.gz/flow.json.gz from disk without connecting to NiFi and save all yaml files to directory (Default: '.').");
+        offlineExport.setLongOpt("export-offline");
+        offlineExport.setArgs(2);
+        offlineExport.setArgName("file> <directory");
+        offlineExport.setOptionalArg(true);
+        
         Option clean = new Option("clean", "Clean the workspace of all content.");
         
         Option start = new Option("start", "Start all processors in workspace.");
@@ -41,9 +59,72 @@ public class Main {
         // Options
         Option verbose = new Option("v", "verbose", false, "Enables verbose output.");
         
+        Option parallelism = new Option("p", "Maximum number of concurrent requests made against NiFi (Default: 4 per core).");
+        parallelism.setLongOpt("parallelism");
+        parallelism.setArgs(1);
+        parallelism.setArgName("count");
+        
+        Option incremental = new Option("incremental", "Only re-export process groups that changed since the last export into the directory.");
+        
+        Option dedupe = new Option("dedupe", "Share a single parameterized template between structurally identical process groups on export.");
+        
+        Option components = new Option("components", "Import component by component instead of uploading a single compiled NiFi template.");
+        
+        Option dryRun = new Option("dryrun", "Print the import plan, calls per endpoint and an estimated duration without changing anything.");
+        dryRun.setLongOpt("dry-run");
+        
+        Option latency = new Option("latency", "Milliseconds per call used to estimate a dry run (Default: 50).");
+        latency.setArgs(1);
+        latency.setArgName("ms");
+        
+        Option resume = new Option("resume", "Continue a component by component import that failed part way, without clearing the workspace first.");
+        
+        // Transport options
+        Option connections = new Option("connections", "Connections kept open to NiFi, as well as the most requests made at once (Default: 4 per core).");
+        connections.setArgs(1);
+        connections.setArgName("count");
+        
+        Option keepAlive = new Option("keepalive", "Seconds an idle connection to NiFi is kept open (Default: 300).");
+        keepAlive.setArgs(1);
+        keepAlive.setArgName("seconds");
+        
+        Option connectTimeout = new Option("connecttimeout", "Seconds to wait for a connection to NiFi (Default: 10).");
+        connectTimeout.setLongOpt("connect-timeout");
+        connectTimeout.setArgs(1);
+        connectTimeout.setArgName("seconds");
+        
+        Option timeout = new Option("timeout", "Seconds to wait for NiFi to read a request or send a response (Default: 60).");
+        timeout.setArgs(1);
+        timeout.setArgName("seconds");
+        
+        Option noGzip = new Option("nogzip", "Don't ask NiFi for gzip compressed responses.");
+        noGzip.setLongOpt("no-gzip");
+        
+        Option fixedConcurrency = new Option("fixedconcurrency", "Don't adapt the number of requests in flight to NiFi's latency, always allow --connections.");
+        fixedConcurrency.setLongOpt("fixed-concurrency");
+        
+        Option retries = new Option("retries", "Most retries of a request that failed with a temporary error or revision conflict (Default: 3).");
+        retries.setArgs(1);
+        retries.setArgName("count");
+        
+        Option retryBudget = new Option("retrybudget", "Retries allowed per request made, across all requests of the command (Default: 0.2).");
+        retryBudget.setLongOpt("retry-budget");
+        retryBudget.setArgs(1);
+        retryBudget.setArgName("ratio");
+        
+        Option metrics = new Option("metrics", "Print calls, bytes and p50/p99/max latency per NiFi endpoint at the end of the command.");
+        
+        Option metricsFile = new Option("metricsfile", "Write the calls per NiFi endpoint to a file, in the Prometheus text format if it ends with .prom (JSON otherwise).");
+        metricsFile.setLongOpt("metrics-file");
+        metricsFile.setArgs(1);
+        metricsFile.setArgName("file");
+        
         // Commands
         options.addOption(export);
+        options.addOption(flowExport);
+        options.addOption(offlineExport);
         options.addOption(importYaml);
+        options.addOption(sync);
         options.addOption(clean);
         options.addOption(start);
         options.addOption(stop);
@@ -51,6 +132,23 @@ public class Main {
         
         // Additional options
         options.addOption(verbose);
+        options.addOption(parallelism);
+        options.addOption(incremental);
+        options.addOption(dedupe);
+        options.addOption(components);
+        options.addOption(dryRun);
+        options.addOption(latency);
+        options.addOption(resume);
+        options.addOption(connections);
+        options.addOption(keepAlive);
+        options.addOption(connectTimeout);
+        options.addOption(timeout);
+        options.addOption(noGzip);
+        options.addOption(fixedConcurrency);
+        options.addOption(retries);
+        options.addOption(retryBudget);
+        options.addOption(metrics);
+        options.addOption(metricsFile);
 
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
@@ -1,16 +1,32 @@
 package dev.nifi.commands;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.UUID;
 
 import org.apache.nifi.api.toolkit.ApiClient;
 
+import dev.nifi.utils.ConcurrencyLimiter;
+import dev.nifi.utils.EndpointMetrics;
+import dev.nifi.utils.RetryBudget;
+import dev.nifi.utils.TransportOptions;
+
 public abstract class BaseCommand implements Runnable {
 
+	// Requests are mostly waiting on the network, so default to a few in flight per core
+	public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors() * 4;
+
 	private static final ApiClient client = new ApiClient();	
 	private static final String clientId = UUID.randomUUID().toString();
 	
 	private static boolean verbose = false;
 	
+	private static TransportOptions transport;
+	
+	// Print the calls per endpoint at the end of a command and/or write them to a file (JSON or .prom)
+	private static boolean printMetrics = false;
+	private static File metricsFile;
+	
 	protected static ApiClient getApiClient() {
 		return client;
 	}
@@ -19,6 +35,58 @@ public abstract class BaseCommand implements Runnable {
 		return clientId;
 	}
 	
+	/**
+	 * @return limiter of the requests in flight against NiFi (null if not limited)
+	 */
+	public static ConcurrencyLimiter getConcurrencyLimiter() {
+		return transport != null ? transport.getLimiter() : null;
+	}
+	
+	/**
+	 * @return retries made/left for requests against NiFi (null if not configured)
+	 */
+	public static RetryBudget getRetryBudget() {
+		return transport != null ? transport.getRetryBudget() : null;
+	}
+	
+	/**
+	 * @return calls, bytes and latencies per NiFi endpoint (null if not configured)
+	 */
+	public static EndpointMetrics getEndpointMetrics() {
+		return transport != null ? transport.getMetrics() : null;
+	}
+	
+	/*
+	 * Print how the request concurrency adapted and how often requests were retried (verbose only),
+	 * then report the calls per endpoint if asked to
+	 */
+	protected static void printTransportMetrics() {
+		ConcurrencyLimiter limiter = getConcurrencyLimiter();
+		if (verbose && limiter != null) {
+			System.out.println("NiFi request concurrency: " + limiter);
+		}
+		RetryBudget budget = getRetryBudget();
+		if (verbose && budget != null) {
+			System.out.println("NiFi request retries: " + budget);
+		}
+		
+		EndpointMetrics metrics = getEndpointMetrics();
+		if (metrics == null) {
+			return;
+		}
+		if (printMetrics) {
+			metrics.print(System.out);
+		}
+		if (metricsFile != null) {
+			try {
+				metrics.write(metricsFile);
+			} catch (IOException e) {
+				// The command itself succeeded, losing its metrics isn't worth failing it for
+				System.err.println("Unable to write NiFi request metrics to " + metricsFile + ": " + e.getMessage());
+			}
+		}
+	}
+	
 	public static boolean isVerbose() {
 		return verbose;
 	}
@@ -27,13 +95,38 @@ public abstract class BaseCommand implements Runnable {
 		BaseCommand.verbose = verbose;
 	}
 	
+	public static boolean isPrintMetrics() {
+		return printMetrics;
+	}
+	
+	public static void setPrintMetrics(boolean printMetrics) {
+		BaseCommand.printMetrics = printMetrics;
+	}
+	
+	public static File getMetricsFile() {
+		return metricsFile;
+	}
+	
+	public static void setMetricsFile(File metricsFile) {
+		BaseCommand.metricsFile = metricsFile;
+	}
+	
 	public static void configureApiClients(String host, String port, boolean secure) {
+		configureApiClients(host, port, secure, new TransportOptions());
+	}
+	
+	/**
+	 * @param transport Connection pool, timeouts and compression of the HTTP client shared by all commands
+	 */
+	public static void configureApiClients(String host, String port, boolean secure, TransportOptions transport) {
 		final String basePath = String.format("%s://%s:%s/nifi-api", secure ? "https" : "http", host, port);
 		
 		// Set API connection properties for all API endpoints
 		ApiClient client = getApiClient();
 		synchronized(client) {
 			client.setBasePath(basePath);
+			transport.apply(client.getHttpClient());
+			BaseCommand.transport = transport;
 			// TODO: Enable flag for debugging
 //			client.setDebugging(debugging)
 		
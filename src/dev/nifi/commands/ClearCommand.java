@@ -47,10 +47,21 @@ public class ClearCommand extends BaseCommand {
 	private final RemoteProcessGroupsApi remoteGroupAPI = new RemoteProcessGroupsApi(getApiClient());
 	private final ControllerServicesApi controllerServiceAPI = new ControllerServicesApi(getApiClient());
 	
-	private final SetStatusCommand disableCommand = new SetStatusCommand(false);
+	private final String processGroupId;
+	private final SetStatusCommand disableCommand;
 	
 	public ClearCommand() {
+		this("root");
+	}
+	
+	/**
+	 * @param processGroupId Process group to remove all content from (the group itself stays)
+	 */
+	public ClearCommand(String processGroupId) {
 		super();
+		
+		this.processGroupId = processGroupId;
+		this.disableCommand = new SetStatusCommand(false, processGroupId);
 	}
 
 	@Override
@@ -60,10 +71,9 @@ public class ClearCommand extends BaseCommand {
 			disableCommand.run();
 			
 			// Then delete everything out of the workspace
-			clear("root");
+			clear(processGroupId);
 		} catch (ApiException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			throw new CommandFailedException("Clearing process group " + processGroupId + " failed", e);
 		}
 	}
 	
@@ -82,16 +92,7 @@ public class ClearCommand extends BaseCommand {
 		
 
 		for (ConnectionEntity conn : connections.getConnections()) {
-			DropRequestEntity dropQueue = flowFileQueuesAPI.createDropRequest(conn.getId());
-			while (dropQueue.getDropRequest().getFinished() != Boolean.TRUE) {
-				try {
-					Thread.sleep(TimeUnit.MILLISECONDS.convert(1, TimeUnit.SECONDS));
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-				dropQueue = flowFileQueuesAPI.getDropRequest(conn.getId(), dropQueue.getDropRequest().getId());
-			}
+			emptyQueue(conn);
 			connectionAPI.deleteConnection(conn.getId(), ""+conn.getRevision().getVersion(), getClientId(), true);
 		}
 
@@ -130,6 +131,22 @@ public class ClearCommand extends BaseCommand {
 		}
 	}
 	
+	/**
+	 * Drop every flowfile queued in the connection (connections can only be deleted when empty)
+	 */
+	void emptyQueue(ConnectionEntity conn) throws ApiException {
+		DropRequestEntity dropQueue = flowFileQueuesAPI.createDropRequest(conn.getId());
+		while (dropQueue.getDropRequest().getFinished() != Boolean.TRUE) {
+			try {
+				Thread.sleep(TimeUnit.MILLISECONDS.convert(1, TimeUnit.SECONDS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ApiException("Interrupted while emptying the queue of connection " + conn.getId());
+			}
+			dropQueue = flowFileQueuesAPI.getDropRequest(conn.getId(), dropQueue.getDropRequest().getId());
+		}
+	}
+	
 	// Tester main method
 	public static void main(String[] args) {
 		BaseCommand.configureApiClients("localhost", "8080", false);
@@ -0,0 +1,28 @@
+package dev.nifi.commands;
+
+import org.apache.nifi.api.toolkit.ApiException;
+
+/**
+ * Thrown out of a command's run() when it couldn't finish, so a failed command isn't mistaken for a
+ * successful one. The message says what failed, the cause is the original error.
+ */
+public class CommandFailedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public CommandFailedException(String message, Throwable cause) {
+		super(message + ": " + describe(cause), cause);
+	}
+
+	/*
+	 * NiFi puts the reason a request was rejected in the response body, the message only has the status
+	 * (or what was being done, see ImportScheduler)
+	 */
+	private static String describe(Throwable cause) {
+		if (cause instanceof ApiException && ((ApiException) cause).getResponseBody() != null) {
+			ApiException e = (ApiException) cause;
+			return e.getMessage() != null ? e.getMessage() + ": " + e.getResponseBody() : e.getResponseBody();
+		}
+		return cause.getMessage() != null ? cause.getMessage() : cause.toString();
+	}
+}
@@ -1,37 +1,47 @@
 package dev.nifi.commands;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import org.apache.nifi.api.toolkit.ApiException;
 import org.apache.nifi.api.toolkit.api.FlowApi;
 import org.apache.nifi.api.toolkit.api.ProcessGroupsApi;
 import org.apache.nifi.api.toolkit.api.RemoteProcessGroupsApi;
-import org.apache.nifi.api.toolkit.model.ConnectionEntity;
-import org.apache.nifi.api.toolkit.model.ConnectionEntity.DestinationTypeEnum;
 import org.apache.nifi.api.toolkit.model.ConnectionsEntity;
 import org.apache.nifi.api.toolkit.model.ControllerServiceEntity;
 import org.apache.nifi.api.toolkit.model.ControllerServicesEntity;
-import org.apache.nifi.api.toolkit.model.FunnelEntity;
 import org.apache.nifi.api.toolkit.model.FunnelsEntity;
 import org.apache.nifi.api.toolkit.model.InputPortsEntity;
-import org.apache.nifi.api.toolkit.model.LabelEntity;
 import org.apache.nifi.api.toolkit.model.LabelsEntity;
 import org.apache.nifi.api.toolkit.model.OutputPortsEntity;
-import org.apache.nifi.api.toolkit.model.PortEntity;
+import org.apache.nifi.api.toolkit.model.FlowDTO;
 import org.apache.nifi.api.toolkit.model.ProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.ProcessGroupFlowEntity;
 import org.apache.nifi.api.toolkit.model.ProcessGroupsEntity;
-import org.apache.nifi.api.toolkit.model.ProcessorEntity;
 import org.apache.nifi.api.toolkit.model.ProcessorsEntity;
 import org.apache.nifi.api.toolkit.model.RemoteProcessGroupEntity;
 import org.apache.nifi.api.toolkit.model.RemoteProcessGroupsEntity;
 
-import dev.nifi.utils.DependencyBuilder;
-import dev.nifi.yml.ControllerYML;
-import dev.nifi.yml.ElementYML;
+import dev.nifi.utils.AsyncApi;
+import dev.nifi.utils.ConcurrentUtils;
+import dev.nifi.utils.ExportManifest;
+import dev.nifi.utils.ProcessGroupContents;
+import dev.nifi.utils.RemoteProcessGroupCache;
+import dev.nifi.utils.TemplateDeduplicator;
+import dev.nifi.utils.TypeDefinitionCache;
+import dev.nifi.yml.ExportSummary;
 import dev.nifi.yml.HelperYML;
 import dev.nifi.yml.TemplateYML;
 
@@ -41,10 +51,42 @@ public class ExportCommand extends BaseCommand {
 	private final FlowApi flowAPI = new FlowApi(getApiClient());
 	private final ProcessGroupsApi processGroupAPI = new ProcessGroupsApi(getApiClient());
 	private final RemoteProcessGroupsApi remoteGroupAPI = new RemoteProcessGroupsApi(getApiClient());
+	private final AsyncApi asyncAPI = new AsyncApi(getApiClient());
 
 	private final String outputDir;
+	private final int parallelism;
+	
+	// Pull each process group with a single flow request rather than one request per component type
+	private boolean useFlowEndpoint = false;
+	
+	// Remote process group details are cached across exports (by id + revision)
+	private int remoteGroupFetchWindow = RemoteProcessGroupCache.DEFAULT_WINDOW;
+	private long remoteGroupCacheTtl = RemoteProcessGroupCache.DEFAULT_TTL;
+	private RemoteProcessGroupCache remoteGroupCache;
+	
+	// Default property values are learned once per processor/controller type (and kept across exports)
+	private TypeDefinitionCache typeCache;
+	
+	// Only re-export process groups that have changed since the last export into the output directory
+	private boolean incremental = false;
+	private ExportManifest manifest;
+	private Map<String, List<ControllerServiceEntity>> controllerServicesByGroup;
+	
+	// Collapse structurally identical process groups into a single parameterized template
+	private boolean deduplicate = false;
+	
+	// Process Group ID -> revision fingerprint, for every process group visited during an export
+	private final Map<String, String> revisions = new ConcurrentHashMap<>();
 	
 	public ExportCommand(String outputDir) {
+		this(outputDir, DEFAULT_PARALLELISM);
+	}
+	
+	/**
+	 * @param outputDir   Directory to write all templates into (Default: '.')
+	 * @param parallelism Maximum number of requests that may be in flight against NiFi at once
+	 */
+	public ExportCommand(String outputDir, int parallelism) {
 		super();
 		
 		if (outputDir == null) {
@@ -53,116 +95,299 @@ public class ExportCommand extends BaseCommand {
 		} else {
 			this.outputDir = outputDir;
 		}
+		
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public boolean isUseFlowEndpoint() {
+		return useFlowEndpoint;
+	}
+
+	public void setUseFlowEndpoint(boolean useFlowEndpoint) {
+		this.useFlowEndpoint = useFlowEndpoint;
+	}
+	
+	public int getRemoteGroupFetchWindow() {
+		return remoteGroupFetchWindow;
+	}
+
+	/**
+	 * @param remoteGroupFetchWindow Maximum number of remote process group detail requests in flight at once
+	 */
+	public void setRemoteGroupFetchWindow(int remoteGroupFetchWindow) {
+		this.remoteGroupFetchWindow = remoteGroupFetchWindow;
+	}
+
+	public long getRemoteGroupCacheTtl() {
+		return remoteGroupCacheTtl;
+	}
+
+	/**
+	 * @param remoteGroupCacheTtl Milliseconds cached remote process group details are reused for (0 to always fetch them)
+	 */
+	public void setRemoteGroupCacheTtl(long remoteGroupCacheTtl) {
+		this.remoteGroupCacheTtl = remoteGroupCacheTtl;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Incremental exports keep a manifest in the output directory and only re-export the 
+	 * process groups whose contents changed since the last export. Implies using the flow endpoint.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	public boolean isDeduplicate() {
+		return deduplicate;
+	}
+
+	/**
+	 * Process groups that only differ in processor/controller property values share a single template,
+	 * the differing values are stored as parameters on each process group. Every template is needed to 
+	 * find duplicates, so this disables skipping unchanged process groups during incremental exports.
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
 	}
 
 	@Override
 	public void run() {
 
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
 		try {
+			// Reuse remote process group details from the last export into this directory
+			remoteGroupCache = new RemoteProcessGroupCache(remoteGroupFetchWindow, remoteGroupCacheTtl);
+			try {
+				remoteGroupCache.load(this.outputDir, getApiClient().getJSON());
+			} catch (IOException | RuntimeException e) {
+				// A bad cache just means everything gets fetched again
+				System.out.println("Ignoring unreadable remote process group cache: " + e.getMessage());
+			}
+			
+			typeCache = new TypeDefinitionCache();
+			try {
+				typeCache.load(this.outputDir);
+			} catch (IOException e) {
+				System.out.println("Ignoring unreadable type definition cache: " + e.getMessage());
+			}
+			
+			revisions.clear();
+			if (incremental && deduplicate) {
+				System.out.println("Re-exporting every process group, de-duplication needs all templates");
+			} else if (incremental) {
+				manifest = ExportManifest.load(this.outputDir);
+				
+				// One request covers the controller services of every process group in the workspace
+				controllerServicesByGroup = groupByParent(flowAPI.getControllerServicesFromGroup("root", false, true).getControllerServices());
+			}
+			
 			// Start from the root and work our way down converting all process groups into templates
-			List<TemplateYML> templates = new ArrayList<TemplateYML>();
+			List<TemplateYML> templates = exportProcessGroup(pool, "root");
+			
+			if (deduplicate) {
+				TemplateDeduplicator deduplicator = new TemplateDeduplicator(templates);
+				templates = deduplicator.deduplicate();
+				System.out.println(String.format("Replaced %d duplicate templates with shared templates", deduplicator.getDuplicates()));
+			}
 			
-			convertToTemplateYML("root", templates);
+			ExportSummary summary = HelperYML.export(this.outputDir, templates);
+			System.out.println(summary);
 			
-			// TODO: Look for structural duplicates in the templates and attempt to extract a common (parameterized) version
+			remoteGroupCache.save(this.outputDir, getApiClient().getJSON());
+			typeCache.save(this.outputDir);
 			
-			HelperYML.export(this.outputDir, templates);
+			if (manifest != null) {
+				// Record what was just written so the next export can skip it if nothing changes
+				for (TemplateYML template : templates) {
+					manifest.update(template.name, revisions.get(template.name), summary.getHash(template.name));
+				}
+				manifest.retainAll(revisions.keySet());
+				manifest.save(this.outputDir);
+				
+				System.out.println(String.format("Exported %d of %d process groups (%d unchanged)", 
+						templates.size(), revisions.size(), revisions.size() - templates.size()));
+			}
 		} catch (ApiException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			throw new CommandFailedException("Export from NiFi failed", e);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			throw new CommandFailedException("Unable to write the export to " + outputDir, e);
+		} catch (UncheckedIOException e) {
+			throw new CommandFailedException("Unable to write the export to " + outputDir, e.getCause());
+		} finally {
+			pool.shutdown();
+			printTransportMetrics();
+			
+			manifest = null;
+			controllerServicesByGroup = null;
+		}
+	}
+	
+	private File templateFile(String templateName) {
+		return new File(this.outputDir, templateName + HelperYML.YAML_EXT);
+	}
+	
+	private static Map<String, List<ControllerServiceEntity>> groupByParent(List<ControllerServiceEntity> controllers) {
+		Map<String, List<ControllerServiceEntity>> grouped = new HashMap<>();
+		for (ControllerServiceEntity controller : controllers) {
+			String parent = controller.getComponent().getParentGroupId();
+			if (!grouped.containsKey(parent)) {
+				grouped.put(parent, new ArrayList<>());
+			}
+			grouped.get(parent).add(controller);
 		}
+		return grouped;
 	}
 	
-	private TemplateYML convertToTemplateYML(String processGroupId, List<TemplateYML> allTemplates) throws ApiException {
+	private List<TemplateYML> exportProcessGroup(ForkJoinPool pool, String processGroupId) throws ApiException {
+		try {
+			return pool.invoke(new ProcessGroupExportTask(processGroupId));
+		} catch (RuntimeException e) {
+			throw ConcurrentUtils.rethrowApiException(e);
+		}
+	}
+	
+	/*
+	 * Remote process groups in the returned contents are only the listed versions, 
+	 * use fetchRemoteProcessGroupDetails before converting into a template.
+	 */
+	private ProcessGroupContents fetchContents(String processGroupId) throws ApiException {
+		if (useFlowEndpoint || incremental) {
+			return fetchContentsFromFlow(processGroupId);
+		}
 		
-		// Pull all of the information we need to construct the template
-		ProcessorsEntity root = processGroupAPI.getProcessors(processGroupId, false);
-		ConnectionsEntity connections = processGroupAPI.getConnections(processGroupId);
-		FunnelsEntity funnels = processGroupAPI.getFunnels(processGroupId);
-		ProcessGroupsEntity pge = processGroupAPI.getProcessGroups(processGroupId);
-		InputPortsEntity ipe = processGroupAPI.getInputPorts(processGroupId);
-		OutputPortsEntity ope = processGroupAPI.getOutputPorts(processGroupId);
-		LabelsEntity lbe = processGroupAPI.getLabels(processGroupId);
-		RemoteProcessGroupsEntity rpge = processGroupAPI.getRemoteProcessGroups(processGroupId);
-		ControllerServicesEntity cse = flowAPI.getControllerServicesFromGroup(processGroupId, false, false);
+		// Pull all of the information we need to construct the template, all requests are issued at once
+		// without holding on to a pool thread each (the first failure cancels the rest). The task only
+		// waits once for all of them, and the pool makes up for that worker while it does.
+		CompletableFuture<ProcessorsEntity> root = asyncAPI.getProcessors(processGroupId, false);
+		CompletableFuture<ConnectionsEntity> connections = asyncAPI.getConnections(processGroupId);
+		CompletableFuture<FunnelsEntity> funnels = asyncAPI.getFunnels(processGroupId);
+		CompletableFuture<ProcessGroupsEntity> pge = asyncAPI.getProcessGroups(processGroupId);
+		CompletableFuture<InputPortsEntity> ipe = asyncAPI.getInputPorts(processGroupId);
+		CompletableFuture<OutputPortsEntity> ope = asyncAPI.getOutputPorts(processGroupId);
+		CompletableFuture<LabelsEntity> lbe = asyncAPI.getLabels(processGroupId);
+		CompletableFuture<RemoteProcessGroupsEntity> rpge = asyncAPI.getRemoteProcessGroups(processGroupId);
+		CompletableFuture<ControllerServicesEntity> cse = asyncAPI.getControllerServicesFromGroup(processGroupId, false, false);
+		AsyncApi.awaitAll(root, connections, funnels, pge, ipe, ope, lbe, rpge, cse);
 		
+		ProcessGroupContents contents = new ProcessGroupContents(processGroupId);
+		contents.processors = root.join().getProcessors();
+		contents.connections = connections.join().getConnections();
+		contents.funnels = funnels.join().getFunnels();
+		contents.processGroups = pge.join().getProcessGroups();
+		contents.inputPorts = ipe.join().getInputPorts();
+		contents.outputPorts = ope.join().getOutputPorts();
+		contents.labels = lbe.join().getLabels();
+		contents.controllerServices = cse.join().getControllerServices();
+		contents.remoteProcessGroups = rpge.join().getRemoteProcessGroups();
 		
-		Map<String, List<ConnectionEntity>> connectionLookup = new HashMap<>();
-		for (ConnectionEntity ce : connections.getConnections()) {
-			// When dealing with a destination that is a remote process group, 
-			// the group id is the correct id, not the regular id
-			String destination = ce.getDestinationType() == DestinationTypeEnum.REMOTE_INPUT_PORT ||
-					ce.getDestinationType() == DestinationTypeEnum.INPUT_PORT 
-					? ce.getDestinationGroupId() : ce.getDestinationId();
-					
-			if (!connectionLookup.containsKey(destination)) {
-				connectionLookup.put(destination, new ArrayList<>());
-			}
-			
-			connectionLookup.get(destination).add(ce);
-		}
+		return contents;
+	}
+	
+	private ProcessGroupContents fetchContentsFromFlow(String processGroupId) throws ApiException {
 		
+		// The flow of a process group has every component in it, only controller services need a separate request
+		ForkJoinTask<ProcessGroupFlowEntity> flowEntity = ConcurrentUtils.fork(() -> flowAPI.getFlow(processGroupId));
+		ForkJoinTask<ControllerServicesEntity> cse = controllerServicesByGroup != null ? null :
+				ConcurrentUtils.fork(() -> flowAPI.getControllerServicesFromGroup(processGroupId, false, false));
 		
-		// Start to convert into YAML
-		TemplateYML rootPG = new TemplateYML();
-		rootPG.name = processGroupId;
-		allTemplates.add(rootPG);
+		ProcessGroupFlowEntity groupFlow = flowEntity.join();
+		FlowDTO flow = groupFlow.getProcessGroupFlow().getFlow();
 		
-		// Generate all of the dependencies needed
-		DependencyBuilder depBuilder = new DependencyBuilder();
-		rootPG.dependencies = depBuilder
-				.addAllProcessorDependencies(root.getProcessors())
-				.addAllControllerDependencies(cse.getControllerServices())
-				.build();
+		ProcessGroupContents contents = new ProcessGroupContents(processGroupId);
+		contents.processors = flow.getProcessors();
+		contents.connections = flow.getConnections();
+		contents.funnels = flow.getFunnels();
+		contents.processGroups = flow.getProcessGroups();
+		contents.inputPorts = flow.getInputPorts();
+		contents.outputPorts = flow.getOutputPorts();
+		contents.labels = flow.getLabels();
+		contents.remoteProcessGroups = flow.getRemoteProcessGroups();
 		
-		for (ControllerServiceEntity controller : cse.getControllerServices()) {
-			ControllerYML c = new ControllerYML(controller, depBuilder.getCanonicalDependencyName(controller.getId()));
-			rootPG.controllers.add(c);
+		if (cse != null) {
+			contents.controllerServices = cse.join().getControllerServices();
+		} else {
+			// Controller services were already pulled for the whole workspace (keyed by real id, not the "root" alias)
+			String realId = groupFlow.getProcessGroupFlow().getId();
+			contents.controllerServices = controllerServicesByGroup.getOrDefault(realId, Collections.emptyList());
 		}
 		
-		for (PortEntity port : ipe.getInputPorts()) {
-			ElementYML p = new ElementYML(port, connectionLookup.get(port.getId()));
-			rootPG.components.add(p);
-		}
-		for (PortEntity port : ope.getOutputPorts()) {
-			ElementYML p = new ElementYML(port, connectionLookup.get(port.getId()));
-			rootPG.components.add(p);
+		return contents;
+	}
+	
+	private List<RemoteProcessGroupEntity> fetchRemoteProcessGroupDetails(List<RemoteProcessGroupEntity> remoteGroups) {
+		// We must refetch the remote process group information using the 
+		// RemoteProcessGroupAPI to get all details on ports (unless this revision was already fetched)
+		List<ForkJoinTask<RemoteProcessGroupEntity>> details = new ArrayList<>();
+		for (RemoteProcessGroupEntity rpg : remoteGroups) {
+			details.add(ConcurrentUtils.fork(() -> remoteGroupCache.get(rpg, () -> remoteGroupAPI.getRemoteProcessGroup(rpg.getId()))));
 		}
 		
-		for (ProcessorEntity pe : root.getProcessors()) {
-			ElementYML p = new ElementYML(pe, depBuilder.getCanonicalDependencyName(pe.getId()), connectionLookup.get(pe.getId()));
-			rootPG.components.add(p);
+		List<RemoteProcessGroupEntity> detailed = new ArrayList<>();
+		for (ForkJoinTask<RemoteProcessGroupEntity> detail : details) {
+			detailed.add(detail.join());
 		}
+		return detailed;
+	}
+	
+	/*
+	 * Converts a single process group into a template, then fans out into all of its
+	 * child process groups. Templates are returned in the same depth first order that a
+	 * serial walk of the workspace would produce. Process groups that are unchanged since
+	 * the last incremental export are left out.
+	 */
+	private class ProcessGroupExportTask extends RecursiveTask<List<TemplateYML>> {
+
+		private static final long serialVersionUID = 1L;
 		
-		for (FunnelEntity f : funnels.getFunnels()) {
-			ElementYML p = new ElementYML(f, connectionLookup.get(f.getId()));
-			rootPG.components.add(p);
-		}
+		private final String processGroupId;
 		
-		for (LabelEntity l : lbe.getLabels()) {
-			ElementYML p = new ElementYML(l);
-			rootPG.components.add(p);
+		public ProcessGroupExportTask(String processGroupId) {
+			this.processGroupId = processGroupId;
 		}
-		
-		for (ProcessGroupEntity pg : pge.getProcessGroups()) {
-			TemplateYML template = convertToTemplateYML(pg.getId(), allTemplates);
+
+		@Override
+		protected List<TemplateYML> compute() {
+			List<TemplateYML> templates = new ArrayList<TemplateYML>();
 			
-			ElementYML p = new ElementYML(pg, template.name, connectionLookup.get(pg.getId()));
-			rootPG.components.add(p);
-		}
-		
-		for (RemoteProcessGroupEntity rpg : rpge.getRemoteProcessGroups()) {
-			// We must refetch the remote process group information using the 
-			// RemoteProcessGroupAPI to get all details on ports
-			rpg = remoteGroupAPI.getRemoteProcessGroup(rpg.getId());
-			ElementYML p = new ElementYML(rpg, connectionLookup.get(rpg.getId()));
-			rootPG.components.add(p);
+			ProcessGroupContents contents;
+			try {
+				contents = fetchContents(processGroupId);
+				
+				// Fingerprints are only needed to compare against the manifest of an incremental export
+				String revision = null;
+				if (manifest != null) {
+					revision = ExportManifest.fingerprint(contents, getApiClient().getJSON());
+					revisions.put(processGroupId, revision);
+				}
+				
+				// Unchanged process groups keep the template already on disk, but their children still need checking
+				if (manifest == null || !manifest.isUnchanged(processGroupId, revision, templateFile(processGroupId))) {
+					contents.remoteProcessGroups = fetchRemoteProcessGroupDetails(contents.remoteProcessGroups);
+					templates.add(new TemplateYML(contents, typeCache));
+				}
+			} catch (ApiException e) {
+				throw new CompletionException(e);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			
+			// Walk all sibling sub trees at the same time
+			List<ProcessGroupExportTask> children = new ArrayList<>();
+			for (ProcessGroupEntity pg : contents.processGroups) {
+				children.add(new ProcessGroupExportTask(pg.getId()));
+			}
+			invokeAll(children);
+			
+			for (ProcessGroupExportTask child : children) {
+				templates.addAll(child.join());
+			}
+			
+			return templates;
 		}
-		
-		return rootPG;
 	}
 	
 	public static void main(String[] args) {
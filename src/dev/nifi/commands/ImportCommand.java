@@ -1,48 +1,108 @@
 package dev.nifi.commands;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.nifi.api.toolkit.ApiException;
 import org.apache.nifi.api.toolkit.api.ProcessGroupsApi;
-import org.apache.nifi.api.toolkit.api.ProcessorsApi;
+import org.apache.nifi.api.toolkit.api.TemplatesApi;
 import org.apache.nifi.api.toolkit.model.BundleDTO;
+import org.apache.nifi.api.toolkit.model.InstantiateTemplateRequestEntity;
 import org.apache.nifi.api.toolkit.model.PositionDTO;
 import org.apache.nifi.api.toolkit.model.ProcessGroupEntity;
-import org.apache.nifi.api.toolkit.model.ProcessorEntity;
-import org.apache.nifi.api.toolkit.model.RelationshipDTO;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.TemplateEntity;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 
+import dev.nifi.utils.ApiCall;
+import dev.nifi.utils.ControllerReferences;
 import dev.nifi.utils.DependencyBuilder;
+import dev.nifi.utils.ImportJournal;
+import dev.nifi.utils.ImportPlan;
+import dev.nifi.utils.ImportPlan.Operation;
+import dev.nifi.utils.ImportScheduler;
 import dev.nifi.utils.ObjectBuilder;
 import dev.nifi.utils.Pair;
+import dev.nifi.utils.RemotePortDiscovery;
+import dev.nifi.utils.TemplateCompiler;
+import dev.nifi.utils.TypeDefinitionCache;
 import dev.nifi.yml.ControllerYML;
 import dev.nifi.yml.ElementYML;
 import dev.nifi.yml.HelperYML;
 import dev.nifi.yml.HelperYML.ReservedComponents;
 import dev.nifi.yml.InputConnectionYML;
+import dev.nifi.yml.RemotePortYML;
 import dev.nifi.yml.TemplateYML;
 
 public class ImportCommand extends BaseCommand {
 
+	// Remote process groups are polled until their remote ports show up (usually a few seconds)
+	private static final int REMOTE_PORT_DETECTION_COST = 10;
+	
+	// Polls expected while detecting remote ports (backoff makes it a handful even for slow targets)
+	private static final int REMOTE_PORT_DETECTION_POLLS = 5;
+	
+	private static final long DEFAULT_CALL_LATENCY = 50;
+	
+	// The metadata label has no id in the templates, it is journaled under this one instead
+	private static final String METADATA_LABEL_ID = "metadata-label";
+
 	private final ProcessGroupsApi processGroupAPI = new ProcessGroupsApi(getApiClient());
-	private final ProcessorsApi processorAPI = new ProcessorsApi(getApiClient());
+	private final TemplatesApi templateAPI = new TemplatesApi(getApiClient());
 	
 	private final String importDir;
 	private final long maximumPollDuration = TimeUnit.NANOSECONDS.convert(30, TimeUnit.SECONDS);
 	private final boolean developerMode;
+	private final int parallelism;
+	
+	// Upload everything as a single NiFi template rather than creating it component by component
+	private boolean compiled = true;
+	
+	// Only print what would be done, without making any calls to NiFi
+	private boolean dryRun = false;
+	
+	// Milliseconds a single call is expected to take (only used to estimate dry runs)
+	private long callLatency = DEFAULT_CALL_LATENCY;
+	
+	// Continue an import that failed part way, skipping everything its journal says was already created
+	private boolean resume = false;
+	
+	private ObjectBuilder builder;
+	private TypeDefinitionCache typeCache;
+	private RemotePortDiscovery discovery;
+	
+	// Ids of the controller services in all templates (property values matching one are references)
+	private Set<String> controllerIds;
 	
-	private ObjectBuilder builder = new ObjectBuilder(getApiClient(), getClientId());
+	// Type coordinates -> First planned processor of a type whose relationships aren't known yet
+	private final Map<String, Operation> firstOfType = new HashMap<>();
 	
 	public ImportCommand(final String importDir, boolean devMode) {
+		this(importDir, devMode, DEFAULT_PARALLELISM);
+	}
+	
+	/**
+	 * @param importDir   Directory to load all templates from (Default: '.')
+	 * @param devMode     Add a metadata label to every imported process group
+	 * @param parallelism Maximum number of import operations (requests) in flight at once
+	 */
+	public ImportCommand(final String importDir, boolean devMode, int parallelism) {
 		super();
 		
 		if (importDir == null) {
@@ -52,6 +112,56 @@ public class ImportCommand extends BaseCommand {
 		}
 		
 		this.developerMode = devMode;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public boolean isCompiled() {
+		return compiled;
+	}
+
+	/**
+	 * Compiled imports turn all templates into a single NiFi template which is uploaded, instantiated
+	 * and removed again (a handful of requests in total). Anything a template can't express, like 
+	 * remote process groups, falls back to the component by component import.
+	 */
+	public void setCompiled(boolean compiled) {
+		this.compiled = compiled;
+	}
+
+	public boolean isDryRun() {
+		return dryRun;
+	}
+
+	/**
+	 * Dry runs plan the import exactly like a real import, then print the plan, the expected number of
+	 * calls per endpoint and an estimate of how long the import would take instead of running it.
+	 */
+	public void setDryRun(boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
+	public long getCallLatency() {
+		return callLatency;
+	}
+
+	/**
+	 * @param callLatency Milliseconds a single call is expected to take when estimating a dry run (Default: 50)
+	 */
+	public void setCallLatency(long callLatency) {
+		this.callLatency = Math.max(0, callLatency);
+	}
+
+	public boolean isResume() {
+		return resume;
+	}
+
+	/**
+	 * Component by component imports journal everything they create in the import directory. Resuming
+	 * restores the ids from that journal and only creates what is missing, rather than having to clear
+	 * the canvas and import everything again.
+	 */
+	public void setResume(boolean resume) {
+		this.resume = resume;
 	}
 
 	@Override
@@ -71,129 +181,358 @@ public class ImportCommand extends BaseCommand {
 				templateDB.put(template.name + HelperYML.YAML_EXT, template); 
 			}
 			
-			// Start with the root template
-			importTemplate("root", templateDB.get("root.yaml"), templateDB);
-		} catch (JsonParseException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (JsonMappingException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			// Relationships of processor types recorded by the export, unused ones are terminated while creating processors
+			typeCache = new TypeDefinitionCache();
+			try {
+				typeCache.load(importDir);
+			} catch (IOException e) {
+				System.out.println("Ignoring unreadable type definition cache: " + e.getMessage());
+			}
+			builder = new ObjectBuilder(getApiClient(), getClientId(), typeCache);
+			discovery = new RemotePortDiscovery(getApiClient(), maximumPollDuration);
+			firstOfType.clear();
+			controllerIds = ControllerReferences.controllerIds(templateDB.values());
+			
+			Path journalFile = Paths.get(importDir, ImportJournal.DEFAULT_FILE_NAME);
+			int restored = 0;
+			if (resume) {
+				restored = ImportJournal.replay(journalFile, builder.getTracker());
+				System.out.println(String.format("Resuming import, %d components were already created", restored));
+			}
+			
+			// Get the real UUID name for "root" (dry runs don't talk to NiFi at all)
+			String rootId = dryRun ? "root" : processGroupAPI.getProcessGroup("root").getId();
+			
+			// A compiled import creates everything at once, so it can't pick up a partial import
+			if (compiled && restored == 0) {
+				boolean done = dryRun 
+						? describeCompiled(templateDB.get("root.yaml"), templateDB) 
+						: importCompiled(rootId, templateDB.get("root.yaml"), templateDB);
+				if (done) {
+					return;
+				}
+			}
+			
+			// Work out everything that has to be created (starting with the root template) and what it depends on
+			ImportPlan plan = new ImportPlan();
+			planProcessGroup(plan, null, null, rootId, templateDB.get("root.yaml"), templateDB);
+			
+			ImportScheduler scheduler = new ImportScheduler(parallelism);
+			if (dryRun) {
+				discovery.close();
+				describePlan(plan, scheduler);
+				return;
+			}
+			
+			try (ImportJournal journal = ImportJournal.open(journalFile, resume)) {
+				builder.getTracker().setJournal(journal);
+				scheduler.run(plan);
+			} catch (ApiException | RuntimeException e) {
+				System.out.println("Import failed, run it again with --resume to continue where it stopped");
+				throw e;
+			} finally {
+				builder.getTracker().setJournal(null);
+				discovery.close();
+			}
+			
+			// Nothing left to resume
+			Files.deleteIfExists(journalFile);
+			
+			System.out.println(String.format("Completed %d import operations (at most %d at once)", 
+					scheduler.getCompleted(), scheduler.getPeakInFlight()));
+			printTransportMetrics();
+		} catch (JsonParseException | JsonMappingException e) {
+			throw new CommandFailedException("Unable to parse the templates in " + importDir, e);
 		} catch (ApiException e) {
-			// TODO Auto-generated catch block
-			System.out.println(e.getResponseBody());
-			e.printStackTrace();
+			throw new CommandFailedException("Import into NiFi failed", e);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			// Reading the templates, writing the journal or the compiled template
+			throw new CommandFailedException("Import from " + importDir + " failed", e);
 		}
 	}
 	
-	private void importTemplate(String processGroupId, TemplateYML template, Map<String, TemplateYML> templateDB) throws ApiException {
-		// Get the real UUID name for "root"
-		if (processGroupId.equals("root")) {
-			ProcessGroupEntity rootPG = processGroupAPI.getProcessGroup(processGroupId);
-			processGroupId = rootPG.getId();
+	/*
+	 * Import everything with a single NiFi template. Returns false (without having created anything)
+	 * if the templates can't be imported this way, so the component by component import can take over.
+	 */
+	private boolean importCompiled(String rootId, TemplateYML root, Map<String, TemplateYML> templateDB) throws IOException {
+		TemplateCompiler compiler = new TemplateCompiler(templateDB, typeCache, developerMode);
+		
+		String reason = compiler.findUnsupported(root);
+		if (reason != null) {
+			System.out.println("Importing component by component, " + reason);
+			return false;
 		}
 		
-		// Setup the process Group id
-		builder.enterProcessGroup(processGroupId);
+		File file = File.createTempFile("templatizer-", ".xml");
 		try {
-			// Canonical type name -> (Type, Bundle)
-			Map<String, Pair<String, BundleDTO>> depLookup = DependencyBuilder.createDependencyLookup(template.dependencies);
-			builder.setDependenciesLookup(depLookup);
-			
-			// Ensure all process groups are populated first
-			createProcessGroups(template, templateDB);
-			
-			// Create all controller services that may be needed to service processor elements
-			createControllerServices(template);
-			
-			// Create all of the canvas elements
-			createElements(template);
-			
-			// Configure any remote process groups
-			configureRemoteProcessGroups(template);
+			// Template names must be unique within NiFi
+			try (OutputStream out = new FileOutputStream(file)) {
+				compiler.compile(root, "NiFi Templatizer import " + getClientId(), out);
+			} catch (XMLStreamException e) {
+				// Nothing was created yet, so the component by component import can still take over
+				System.out.println("Importing component by component, template compilation failed: " + e.getMessage());
+				return false;
+			}
 			
-			// Linkage must run after create elements to ensure all src/dst pairs can be satisfied
-			createLinkage(template);
+			TemplateEntity template;
+			try {
+				template = processGroupAPI.uploadTemplate(rootId, file);
+			} catch (ApiException e) {
+				System.out.println("Importing component by component, template upload failed: " + e.getResponseBody());
+				return false;
+			}
 			
-			// Only create this metadata label if reproducible exports are needed (active development)
-			// Production Install/Deployments should set this to false unless you expect to make modifications in production (don't do it!)
-			if (this.developerMode) {
-				// Create a label on the canvas to store useful data for NiFi Templatizer to store state
-				createMetadataLabel(template);
+			try {
+				PositionDTO origin = compiler.getOrigin();
+				
+				InstantiateTemplateRequestEntity request = new InstantiateTemplateRequestEntity();
+				request.setTemplateId(template.getTemplate().getId());
+				request.setOriginX(origin.getX());
+				request.setOriginY(origin.getY());
+				request.setEncodingVersion(TemplateCompiler.ENCODING_VERSION);
+				
+				processGroupAPI.instantiateTemplate(rootId, request);
+			} catch (ApiException e) {
+				System.out.println("Importing component by component, template instantiation failed: " + e.getResponseBody());
+				return false;
+			} finally {
+				// The canvas doesn't need the template once it is instantiated (or failed to be)
+				try {
+					templateAPI.removeTemplate(template.getTemplate().getId(), null);
+				} catch (ApiException e) {
+					System.out.println("Unable to remove template " + template.getTemplate().getId() + ": " + e.getResponseBody());
+				}
 			}
+			
+			System.out.println("Imported all templates with a single compiled template");
+			return true;
 		} finally {
-			builder.leaveProcessGroup();
+			file.delete();
+		}
+	}
+	
+	/*
+	 * Dry run version of importCompiled, returns false if the templates can't be imported this way
+	 */
+	private boolean describeCompiled(TemplateYML root, Map<String, TemplateYML> templateDB) {
+		TemplateCompiler compiler = new TemplateCompiler(templateDB, typeCache, developerMode);
+		
+		String reason = compiler.findUnsupported(root);
+		if (reason != null) {
+			System.out.println("Dry run would import component by component, " + reason);
+			return false;
 		}
 		
+		Map<String, Integer> calls = new LinkedHashMap<>();
+		calls.put("GET /process-groups/{id}", 1);
+		calls.put("POST /process-groups/{id}/templates/upload", 1);
+		calls.put("POST /process-groups/{id}/template-instance", 1);
+		calls.put("DELETE /templates/{id}", 1);
+		
+		int total = countCalls(calls);
+		System.out.println("Dry run would import all templates with a single compiled template (nothing was changed in NiFi)");
+		printCalls(calls);
+		System.out.println(String.format("Estimated %d calls in %s at %dms per call (one after another)", 
+				total, formatDuration(total * callLatency), callLatency));
+		return true;
 	}
-
-	private void createProcessGroups(TemplateYML template, Map<String, TemplateYML> templateDB) throws ApiException {
+	
+	private void describePlan(ImportPlan plan, ImportScheduler scheduler) {
+		long estimate = scheduler.estimate(plan, TimeUnit.NANOSECONDS.convert(callLatency, TimeUnit.MILLISECONDS));
+		
+		System.out.println(String.format("Dry run planned %d import operations (nothing was changed in NiFi):", plan.size()));
+		for (Operation op : plan.getOperations()) {
+			StringBuilder line = new StringBuilder(String.format("  #%d %s", op.getIndex() + 1, op.getDescription()));
+			if (!op.getDependencies().isEmpty()) {
+				line.append(" (after");
+				for (Operation dependency : op.getDependencies()) {
+					line.append(" #").append(dependency.getIndex() + 1);
+				}
+				line.append(")");
+			}
+			System.out.println(line);
+		}
+		
+		Map<String, Integer> calls = plan.getCallsPerEndpoint();
+		printCalls(calls);
+		
+		System.out.println(String.format("Estimated %d calls in %s at %dms per call with at most %d in flight (longest chain: %d calls)", 
+				countCalls(calls), formatDuration(TimeUnit.MILLISECONDS.convert(estimate, TimeUnit.NANOSECONDS)), callLatency, 
+				parallelism, plan.getLongestChainCalls()));
+	}
+	
+	private static int countCalls(Map<String, Integer> calls) {
+		int total = 0;
+		for (int count : calls.values()) {
+			total += count;
+		}
+		return total;
+	}
+	
+	private static void printCalls(Map<String, Integer> calls) {
+		System.out.println("Calls per endpoint:");
+		for (Map.Entry<String, Integer> call : calls.entrySet()) {
+			System.out.println(String.format("  %-60s %6d", call.getKey(), call.getValue()));
+		}
+	}
+	
+	private static String formatDuration(long millis) {
+		return millis < 1000 ? millis + "ms" : String.format("%.1fs", millis / 1000.0);
+	}
+	
+	/*
+	 * Adds every operation needed to import a template into a process group to the plan, including the
+	 * contents of all child process groups. Nothing is created yet, the operations only run once the
+	 * ones they depend on are done:
+	 *  - Everything in a process group depends on the process group being created
+	 *  - Processors depend on the controller services their properties reference
+	 *  - Connections depend on both of their ends (ports for process groups, detected remote ports for remote process groups)
+	 */
+	private GroupPlan planProcessGroup(ImportPlan plan, GroupPlan parent, ElementYML element, String processGroupId, 
+			TemplateYML template, Map<String, TemplateYML> templateDB) {
+		GroupPlan group = new GroupPlan(parent, template, new ControllerReferences(template, controllerIds));
+		Map<String, Set<String>> usedRelationships = HelperYML.usedRelationships(template);
+		
+		if (parent == null) {
+			// The process group already exists (root)
+			group.entered = plan.add("Enter process group " + processGroupId, 0, () -> {
+				group.builder = builder.enterProcessGroup(processGroupId, group.dependencies, group.references);
+				return null;
+			}).calls("GET /process-groups/{id}", 1);
+		} else {
+			group.entered = plan.add("Create process group " + element.name, 2, () -> {
+				if (parent.builder.isCreated(element.id)) {
+					group.builder = parent.builder.enterProcessGroup(parent.builder.getNewId(element.id), group.dependencies, group.references);
+					return null;
+				}
+				
+				ProcessGroupEntity pg = parent.builder.makeProcessGroup(element, templateDB);
+				group.builder = parent.builder.enterProcessGroup(pg.getId(), group.dependencies, group.references);
+				return pg;
+			}, parent.entered)
+					.calls("POST /process-groups/{id}/process-groups", 1)
+					.calls("PUT /process-groups/{id}", 1);
+		}
+		
+		// Controller services that may be needed to service processor elements (in this group or below)
+		for (ControllerYML controller : template.controllers) {
+			Operation create = plan.add("Create controller service " + controller.name, 1, 
+					unlessCreated(group, controller.id, () -> group.builder.makeControllerService(controller)), group.entered)
+					.calls("POST /process-groups/{id}/controller-services", 1);
+			group.controllers.put(controller.id, create);
+		}
 		
+		// Controller services referencing each other (in this group or above) need the new ids too
+		for (ControllerYML controller : template.controllers) {
+			for (String key : group.references.get(controller.id)) {
+				group.controllers.get(controller.id).dependOn(group.findController((String) controller.properties.get(key)));
+			}
+		}
+		
+		// All of the canvas elements
 		for (ElementYML ele : template.components) {
-			// Only deal with Process Groups
 			if (HelperYML.isProcessGroup(ele.type)) {
 				ReservedComponents type = HelperYML.ReservedComponents.valueOf(ele.getType());
 				
 				switch (type) {
 				case PROCESS_GROUP:
 				{
-					ProcessGroupEntity pg = builder.makeProcessGroup(ele, templateDB);
+					TemplateYML contents = HelperYML.instantiate(ele, templateDB);
+					GroupPlan child = planProcessGroup(plan, group, ele, null, contents, templateDB);
 					
-					// Fill in the contents of the process group we just made
-					importTemplate(pg.getId(), templateDB.get(ele.template), templateDB);
+					group.children.put(ele.id, child);
+					group.created.put(ele.id, child.entered);
 					break;
 				}
 				case REMOTE_PROCESS_GROUP:
 				{
-					builder.makeRemoteProcessGroup(ele);
+					Operation create = plan.add("Create remote process group " + ele.name, 1, () -> {
+						RemoteProcessGroupEntity rpg = group.builder.isCreated(ele.id) ? null : group.builder.makeRemoteProcessGroup(ele);
+						
+						// Polled in the background from now on, so the ports may already be known once configure runs
+						discovery.discover(group.builder.getNewId(ele.id));
+						return rpg;
+					}, group.entered).calls("POST /process-groups/{id}/remote-process-groups", 1);
+					group.created.put(ele.id, create);
+					
+					// Remote ports only show up once the remote process group has contacted its target, until then no worker is used
+					Operation configure = plan.add("Configure remote ports of " + ele.name, REMOTE_PORT_DETECTION_COST, () -> {
+						group.builder.configureRemoteProcessGroupPorts(ele, discovery);
+						return null;
+					}, create).readyWhen(() -> discovery.discover(group.builder.getNewId(ele.id)))
+							.calls("GET /remote-process-groups/{id}", REMOTE_PORT_DETECTION_POLLS);
+					
+					// Only remote ports with non-default settings are updated
+					if (ele.remotePorts != null) {
+						for (RemotePortYML port : ele.remotePorts) {
+							if (!port.isDefault()) {
+								configure.calls(ReservedComponents.INPUT_PORT.isType(port.type) 
+										? "PUT /remote-process-groups/{id}/input-ports/{port-id}" 
+										: "PUT /remote-process-groups/{id}/output-ports/{port-id}", 1);
+							}
+						}
+					}
+					group.remotePorts.put(ele.id, configure);
 					break;
 				}
 				default:
 					// Ignore all non process group types
 				}
-			}
-		}
-		
-	}
-	
-	private void createControllerServices(TemplateYML template) throws ApiException {
-		for (ControllerYML controller : template.controllers) {
-			builder.makeControllerService(controller);
-		}
-	}
-	
-	private void createElements(TemplateYML template) throws ApiException {
-		
-		for (ElementYML ele : template.components) {
-			Pair<String, BundleDTO> dep = builder.lookup(ele.getType());
-			
-			// If we have a non-null dependency, it means it is a processor and not an intrinsic NiFi type
-			if (dep != null) {
-				builder.makeProcessor(ele);
+			} else if (group.dependencies.get(ele.getType()) != null) {
+				// If we have a non-null dependency, it means it is a processor and not an intrinsic NiFi type
+				Set<String> used = usedRelationships.containsKey(ele.id) ? usedRelationships.get(ele.id) : new HashSet<String>();
+				Operation create = plan.add("Create processor " + ele.name, 1, unlessCreated(group, ele.id, () -> group.builder.makeProcessor(ele, used)), group.entered)
+						.calls("POST /process-groups/{id}/processors", 1);
+				
+				// Controller service references are rewritten to the new ids while creating the processor
+				for (String key : group.references.get(ele.id)) {
+					create.dependOn(group.findController(ele.properties.get(key)));
+				}
+				
+				// Let the first processor of an unknown type find out its relationships, the rest can then terminate theirs on create
+				Pair<String, BundleDTO> dep = group.dependencies.get(ele.getType());
+				if (typeCache.getRelationships(dep.t1, dep.t2) == null && !typeCache.hasDynamicRelationships(dep.t1, dep.t2)) {
+					Operation first = firstOfType.putIfAbsent(DependencyBuilder.coordinates(dep.t1, dep.t2), create);
+					create.dependOn(first);
+					
+					// The first one terminates its unused relationships with a second call
+					if (first == null) {
+						create.calls("PUT /processors/{id}", 1);
+					}
+				} else if (typeCache.hasDynamicRelationships(dep.t1, dep.t2)) {
+					create.calls("PUT /processors/{id}", 1);
+				}
+				group.created.put(ele.id, create);
 			} else {
 				ReservedComponents type = ReservedComponents.valueOf(ele.getType().toUpperCase());
 				switch (type) {
 				case FUNNEL:
 				{
-					builder.makeFunnel(ele);
+					group.created.put(ele.id, plan.add("Create funnel " + ele.id, 1, unlessCreated(group, ele.id, () -> group.builder.makeFunnel(ele)), group.entered)
+							.calls("POST /process-groups/{id}/funnels", 1));
 					break;
 				}
 				case INPUT_PORT:
 				{
-					builder.makeInputPort(ele);
+					Operation create = plan.add("Create input port " + ele.name, 1, unlessCreated(group, ele.id, () -> group.builder.makeInputPort(ele)), group.entered)
+							.calls("POST /process-groups/{id}/input-ports", 1);
+					group.created.put(ele.id, create);
+					group.ports.put(GroupPlan.portKey(type, ele.name), create);
 					break;
 				}
 				case LABEL:
 				{
-					builder.makeLabel(ele);
+					group.created.put(ele.id, plan.add("Create label " + ele.id, 1, unlessCreated(group, ele.id, () -> group.builder.makeLabel(ele)), group.entered)
+							.calls("POST /process-groups/{id}/labels", 1));
 					break;
 				}
 				case OUTPUT_PORT:
 				{
-					builder.makeOutputPort(ele);
+					Operation create = plan.add("Create output port " + ele.name, 1, unlessCreated(group, ele.id, () -> group.builder.makeOutputPort(ele)), group.entered)
+							.calls("POST /process-groups/{id}/output-ports", 1);
+					group.created.put(ele.id, create);
+					group.ports.put(GroupPlan.portKey(type, ele.name), create);
 					break;
 				}
 				default:
@@ -201,109 +540,56 @@ public class ImportCommand extends BaseCommand {
 				}
 			}
 		}
-	}
-	
-	private void configureRemoteProcessGroups(TemplateYML template) throws ApiException {
-
-		// TODO: Wait for the remote process to detect the remote ports
-		// TODO: Assign remote port properties once they have been detected
-		for (ElementYML ele : template.components) {
-			if (!ReservedComponents.REMOTE_PROCESS_GROUP.isType(ele.type)) {
-				continue;
-			}
-			
-			builder.configureRemoteProcessGroupPorts(ele, maximumPollDuration);
+		
+		planLinkage(plan, group);
+		
+		// Only create this metadata label if reproducible exports are needed (active development)
+		// Production Install/Deployments should set this to false unless you expect to make modifications in production (don't do it!)
+		if (this.developerMode) {
+			// Create a label on the canvas to store useful data for NiFi Templatizer to store state
+			plan.add("Create metadata label", 1, unlessCreated(group, METADATA_LABEL_ID, () -> {
+				ElementYML label = HelperYML.createMetadataLabel(template);
+				label.id = METADATA_LABEL_ID;
+				return group.builder.makeLabel(label);
+			}), group.entered).calls("POST /process-groups/{id}/labels", 1);
 		}
+		
+		return group;
 	}
 	
-	private void createLinkage(TemplateYML template) throws ApiException {
-		
-		Map<String, Set<String>> usedRelationships = new HashMap<>();
+	private void planLinkage(ImportPlan plan, GroupPlan group) {
 		
 		Map<String, ElementYML> lookup = new HashMap<String, ElementYML>();
-		for (ElementYML element : template.components) {
+		for (ElementYML element : group.template.components) {
 			lookup.put(element.id, element);
 		}
 		
 		// For all components, connect their inputs
-		for (ElementYML destination : template.components) {
-			// Skip over any elements that don't have inputs (no lines connecting to them)
-			if (destination.inputs == null) {
-				continue;
-			}
-
+		for (ElementYML destination : group.template.components) {
 			// Connecting all incoming lines to this element
 			for (InputConnectionYML input : destination.inputs) {
 				ElementYML source = lookup.get(input.source);
-				
-				builder.makeConnection(source, destination, input);
-				
-				// Track which relationships were used
-				if (!usedRelationships.containsKey(source.id)) {
-					usedRelationships.put(source.id, new HashSet<String>());
+				if (source == null) {
+					// Importing the rest would leave a flow with a missing connection, fail before anything is created
+					throw new IllegalArgumentException(String.format("Template %s connects unknown element %s to %s", 
+							group.template.name, input.source, destination.id));
 				}
-				usedRelationships.get(source.id).addAll(input.from);
-			}
-		}
-		
-		// Auto Terminate relationships that were unused
-		for (ElementYML element : template.components) {
-			// Skip past any non-processor types (only processors can have relationships)
-			if (!HelperYML.isProcessor(element.type)) {
-				continue;
-			}
-			
-			// Check if this processor has any relationships that have been used
-			Set<String> used = usedRelationships.get(element.id);
-			if (used == null) {
-				used = new HashSet<String>();
-			}
-			
-			// Pull the configuration for the processor as-is in NiFi
-			String newId = builder.getNewId(element.id);
-			ProcessorEntity processor = processorAPI.getProcessor(newId);
-			
-			// Search for the unused relationships
-			List<String> unused = new ArrayList<String>();
-			for (RelationshipDTO relationship : processor.getComponent().getRelationships()) {
-				if (!used.contains(relationship.getName())) {
-					unused.add(relationship.getName());
-				}
-			}
-			
-			// If there are any unused relationships, auto terminate them
-			if (!unused.isEmpty()) {
-				processor.getComponent().getConfig().setAutoTerminatedRelationships(unused);
 				
-				processorAPI.updateProcessor(processor.getId(), processor);
+				String sourcePort = input.from.isEmpty() ? null : input.from.get(0);
+				plan.add("Connect " + source.id + " to " + destination.id, 1, 
+						unlessCreated(group, ObjectBuilder.connectionKey(destination, input), () -> group.builder.makeConnection(source, destination, input)),
+						group.endpoint(source, sourcePort, ReservedComponents.OUTPUT_PORT),
+						group.endpoint(destination, input.to, ReservedComponents.INPUT_PORT))
+						.calls("POST /process-groups/{id}/connections", 1);
 			}
 		}
 	}
 	
-	private void createMetadataLabel(TemplateYML template) throws ApiException {
-		PositionDTO position = new PositionDTO();
-		position.setX(Double.MIN_VALUE);
-		position.setY(Double.MIN_VALUE);
-		
-		for (ElementYML element : template.components) {
-			if (element.position != null) {
-				PositionDTO pos = HelperYML.createPosition(element.position);
-				
-				position.setX(Math.max(position.getX(), pos.getX()));
-				position.setY(Math.max(position.getY(), pos.getY()));
-			}
-		}
-		position.setX(position.getX() + 500.0);
-		position.setY(position.getY() + 500.0);
-		
-		ElementYML metadataLabel = new ElementYML();
-		metadataLabel.comment = "Imported By NiFi Templatizer\n\nasdf\nsdfjkl\nwkerjl\nkewflkjwle\n";
-		metadataLabel.position = HelperYML.formatPosition(position.getX(), position.getY());
-		metadataLabel.styles.put(HelperYML.WIDTH, HelperYML.formatDoubleTruncated(175.0));
-		metadataLabel.styles.put(HelperYML.HEIGHT, HelperYML.formatDoubleTruncated(20.0));
-		metadataLabel.styles.put(HelperYML.BG_COLOR, "#465ff0");
-		
-		builder.makeLabel(metadataLabel);
+	/*
+	 * Skip creating a component that a resumed import already created
+	 */
+	private static ApiCall<?> unlessCreated(GroupPlan group, String oldId, ApiCall<?> create) {
+		return () -> group.builder.isCreated(oldId) ? null : create.call();
 	}
 	
 	// Tester main method
@@ -316,4 +602,78 @@ public class ImportCommand extends BaseCommand {
 		ImportCommand importCmd = new ImportCommand("./examples/simple/", true);
 		importCmd.run();
 	}
+	
+	/*
+	 * Operations planned for a single process group (one instance of a template)
+	 */
+	private static class GroupPlan {
+		
+		final GroupPlan parent;
+		final TemplateYML template;
+		
+		// Canonical type name -> (Type, Bundle)
+		final Map<String, Pair<String, BundleDTO>> dependencies;
+		
+		// Properties of the template that reference controller services
+		final ControllerReferences references;
+		
+		// Creates (or looks up) the process group and its builder
+		Operation entered;
+		
+		// Only set once 'entered' has run, every other operation of the group depends on it
+		volatile ObjectBuilder builder;
+		
+		// Old ID -> Operation creating the element
+		final Map<String, Operation> created = new HashMap<>();
+		
+		// Old ID -> Operation creating the controller service
+		final Map<String, Operation> controllers = new HashMap<>();
+		
+		// Old ID of remote process group -> Operation detecting its remote ports
+		final Map<String, Operation> remotePorts = new HashMap<>();
+		
+		// Old ID of process group -> Plan for its contents
+		final Map<String, GroupPlan> children = new HashMap<>();
+		
+		// Port type + name -> Operation creating the port
+		final Map<String, Operation> ports = new HashMap<>();
+		
+		GroupPlan(GroupPlan parent, TemplateYML template, ControllerReferences references) {
+			this.parent = parent;
+			this.template = template;
+			this.references = references;
+			this.dependencies = DependencyBuilder.createDependencyLookup(template.dependencies);
+		}
+		
+		/*
+		 * Controller services are visible to the process group they are in and every group below it
+		 */
+		Operation findController(String oldId) {
+			for (GroupPlan group = this; group != null; group = group.parent) {
+				if (group.controllers.containsKey(oldId)) {
+					return group.controllers.get(oldId);
+				}
+			}
+			return null;
+		}
+		
+		/*
+		 * Operation that has to run before a connection can be attached to the element
+		 */
+		Operation endpoint(ElementYML element, String portName, ReservedComponents portType) {
+			if (ReservedComponents.PROCESS_GROUP.isType(element.type)) {
+				GroupPlan child = children.get(element.id);
+				Operation port = child != null ? child.ports.get(portKey(portType, portName)) : null;
+				return port != null ? port : created.get(element.id);
+			}
+			if (ReservedComponents.REMOTE_PROCESS_GROUP.isType(element.type)) {
+				return remotePorts.get(element.id);
+			}
+			return created.get(element.id);
+		}
+		
+		static String portKey(ReservedComponents type, String name) {
+			return type.name() + "/" + name;
+		}
+	}
 }
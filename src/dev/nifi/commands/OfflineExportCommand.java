@@ -0,0 +1,126 @@
+package dev.nifi.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import dev.nifi.utils.FlowDefinitionReader;
+import dev.nifi.utils.TypeDefinitionCache;
+import dev.nifi.yml.ExportSummary;
+import dev.nifi.yml.HelperYML;
+import dev.nifi.yml.TemplateYML;
+
+/**
+ * Export templates straight from a flow definition on disk (flow.xml.gz / flow.json.gz) without
+ * making any requests against NiFi. Each process group's template is written as soon as the
+ * process group has been read, so the size of the flow definition doesn't matter.
+ *
+ * Converting and writing templates happens on a few worker threads while the reader moves on,
+ * only a bounded number of process groups are ever waiting to be written.
+ */
+public class OfflineExportCommand implements Runnable {
+
+	private static final int DEFAULT_WRITERS = Runtime.getRuntime().availableProcessors();
+
+	private final File flowDefinition;
+	private final String outputDir;
+	private final int writers;
+
+	/**
+	 * @param flowDefinition flow.xml(.gz) or flow.json(.gz) copied from a NiFi instance's conf directory
+	 * @param outputDir      Directory to write all templates into (Default: '.')
+	 */
+	public OfflineExportCommand(String flowDefinition, String outputDir) {
+		this(flowDefinition, outputDir, DEFAULT_WRITERS);
+	}
+
+	/**
+	 * @param flowDefinition flow.xml(.gz) or flow.json(.gz) copied from a NiFi instance's conf directory
+	 * @param outputDir      Directory to write all templates into (Default: '.')
+	 * @param writers        Number of threads converting/writing templates
+	 */
+	public OfflineExportCommand(String flowDefinition, String outputDir, int writers) {
+		this.writers = Math.max(1, writers);
+		this.flowDefinition = new File(flowDefinition);
+
+		if (outputDir == null) {
+			// Default to current directory if nothing provided
+			this.outputDir = ".";
+		} else {
+			this.outputDir = outputDir;
+		}
+	}
+
+	@Override
+	public void run() {
+		ExportSummary summary = new ExportSummary();
+
+		// Flow definitions don't contain any defaults, reuse what previous (API) exports learned
+		TypeDefinitionCache typeCache = new TypeDefinitionCache();
+		try {
+			typeCache.load(outputDir);
+		} catch (IOException e) {
+			System.out.println("Ignoring unreadable type definition cache: " + e.getMessage());
+		}
+
+		// When every writer is busy and the queue is full, the reader writes the next template itself
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(writers, writers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(writers * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+		List<Future<?>> pending = new ArrayList<>();
+
+		try {
+			FlowDefinitionReader reader = FlowDefinitionReader.forFile(flowDefinition);
+			reader.read(flowDefinition, contents -> {
+				pending.add(pool.submit(() -> {
+					try {
+						HelperYML.export(outputDir, new TemplateYML(contents, typeCache), summary);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}));
+
+				// Don't hold onto templates that are already written (stop reading if one failed)
+				Iterator<Future<?>> it = pending.iterator();
+				while (it.hasNext()) {
+					Future<?> future = it.next();
+					if (future.isDone()) {
+						await(future);
+						it.remove();
+					}
+				}
+			});
+
+			for (Future<?> future : pending) {
+				await(future);
+			}
+
+			System.out.println(summary);
+		} catch (IOException e) {
+			throw new CommandFailedException("Offline export of " + flowDefinition + " failed", e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static void await(Future<?> future) throws IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing templates", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+}
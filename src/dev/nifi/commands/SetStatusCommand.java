@@ -37,18 +37,28 @@ public class SetStatusCommand extends BaseCommand {
 	private final ControllerServicesApi controllerServiceAPI = new ControllerServicesApi(getApiClient());
 	
 	private final boolean enabled;
+	private final String processGroupId;
 	
 	public SetStatusCommand(boolean enabled) {
+		this(enabled, "root");
+	}
+	
+	/**
+	 * @param enabled        Start (true) or stop (false) everything
+	 * @param processGroupId Process group to start/stop everything in (child groups included)
+	 */
+	public SetStatusCommand(boolean enabled, String processGroupId) {
 		super();
 		
 		this.enabled = enabled;
+		this.processGroupId = processGroupId;
 	}
 
 
 	@Override
 	public void run() {
 		try {
-			setStatus("root", enabled);
+			setStatus(processGroupId, enabled);
 		} catch (ApiException e) {
 			// TODO: implement proper logging
 			e.printStackTrace();
@@ -0,0 +1,631 @@
+package dev.nifi.commands;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.api.toolkit.ApiException;
+import org.apache.nifi.api.toolkit.api.ConnectionsApi;
+import org.apache.nifi.api.toolkit.api.ControllerServicesApi;
+import org.apache.nifi.api.toolkit.api.FlowApi;
+import org.apache.nifi.api.toolkit.api.FunnelApi;
+import org.apache.nifi.api.toolkit.api.InputPortsApi;
+import org.apache.nifi.api.toolkit.api.LabelsApi;
+import org.apache.nifi.api.toolkit.api.OutputPortsApi;
+import org.apache.nifi.api.toolkit.api.ProcessGroupsApi;
+import org.apache.nifi.api.toolkit.api.ProcessorsApi;
+import org.apache.nifi.api.toolkit.api.RemoteProcessGroupsApi;
+import org.apache.nifi.api.toolkit.model.ConnectionEntity;
+import org.apache.nifi.api.toolkit.model.ControllerServiceDTO;
+import org.apache.nifi.api.toolkit.model.ControllerServiceEntity;
+import org.apache.nifi.api.toolkit.model.ControllerServiceRunStatusEntity;
+import org.apache.nifi.api.toolkit.model.FlowDTO;
+import org.apache.nifi.api.toolkit.model.FunnelEntity;
+import org.apache.nifi.api.toolkit.model.LabelEntity;
+import org.apache.nifi.api.toolkit.model.PortDTO;
+import org.apache.nifi.api.toolkit.model.PortEntity;
+import org.apache.nifi.api.toolkit.model.PortRunStatusEntity;
+import org.apache.nifi.api.toolkit.model.ProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.ProcessorDTO;
+import org.apache.nifi.api.toolkit.model.ProcessorEntity;
+import org.apache.nifi.api.toolkit.model.ProcessorRunStatusEntity;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.RevisionDTO;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+
+import dev.nifi.utils.ControllerReferences;
+import dev.nifi.utils.DependencyBuilder;
+import dev.nifi.utils.ObjectBuilder;
+import dev.nifi.utils.Pair;
+import dev.nifi.utils.RemotePortDiscovery;
+import dev.nifi.utils.ProcessGroupContents;
+import dev.nifi.utils.ProcessGroupDiff;
+import dev.nifi.utils.TypeDefinitionCache;
+import dev.nifi.yml.ControllerYML;
+import dev.nifi.yml.ElementYML;
+import dev.nifi.yml.HelperYML;
+import dev.nifi.yml.HelperYML.ReservedComponents;
+import dev.nifi.yml.InputConnectionYML;
+import dev.nifi.yml.TemplateYML;
+
+/**
+ * Brings the canvas in line with a set of templates without clearing it first. Only the components
+ * that differ from the templates are created, updated or deleted, and only the components that have
+ * to be stopped for a change are stopped (and started again afterwards).
+ */
+public class SyncCommand extends BaseCommand {
+
+	private static final String PROCESSOR = "PROCESSOR";
+
+	private final FlowApi flowAPI = new FlowApi(getApiClient());
+	private final ProcessGroupsApi processGroupAPI = new ProcessGroupsApi(getApiClient());
+	private final ProcessorsApi processorAPI = new ProcessorsApi(getApiClient());
+	private final InputPortsApi inputPortAPI = new InputPortsApi(getApiClient());
+	private final OutputPortsApi outputPortAPI = new OutputPortsApi(getApiClient());
+	private final FunnelApi funnelAPI = new FunnelApi(getApiClient());
+	private final LabelsApi labelAPI = new LabelsApi(getApiClient());
+	private final ConnectionsApi connectionAPI = new ConnectionsApi(getApiClient());
+	private final RemoteProcessGroupsApi remoteGroupAPI = new RemoteProcessGroupsApi(getApiClient());
+	private final ControllerServicesApi controllerServiceAPI = new ControllerServicesApi(getApiClient());
+
+	private final ClearCommand clearCommand = new ClearCommand();
+
+	private final String importDir;
+	private final long maximumPollDuration = TimeUnit.NANOSECONDS.convert(30, TimeUnit.SECONDS);
+
+	private TypeDefinitionCache typeCache;
+	private Map<String, TemplateYML> templateDB;
+	private Set<String> controllerIds;
+	private final Map<ProcessGroupDiff, ObjectBuilder> builders = new HashMap<>();
+
+	// Components stopped by the sync (ID -> PROCESSOR/INPUT_PORT/OUTPUT_PORT), started again at the end
+	private final Map<String, String> stopped = new LinkedHashMap<>();
+
+	// Controller services disabled by the sync, enabled again at the end
+	private final Set<String> disabled = new HashSet<>();
+
+	// Everything deleted by the sync (never started again)
+	private final Set<String> removed = new HashSet<>();
+
+	// Remote process groups created by the sync, their ports are configured once everything else exists
+	private final List<Pair<ObjectBuilder, ElementYML>> createdRemoteGroups = new ArrayList<>();
+	private RemotePortDiscovery discovery;
+
+	// Latest revision of components changed by the sync (revisions in the diff are from before)
+	private final Map<String, RevisionDTO> revisions = new HashMap<>();
+
+	/**
+	 * @param importDir Directory to load all templates from (Default: '.')
+	 */
+	public SyncCommand(final String importDir) {
+		super();
+
+		if (importDir == null) {
+			this.importDir = ".";
+		} else {
+			this.importDir = importDir;
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			List<TemplateYML> templates = HelperYML.load(importDir);
+
+			templateDB = new HashMap<>();
+			for (TemplateYML template : templates) {
+				templateDB.put(template.name + HelperYML.YAML_EXT, template);
+			}
+
+			controllerIds = ControllerReferences.controllerIds(templateDB.values());
+			
+			typeCache = new TypeDefinitionCache();
+			try {
+				typeCache.load(importDir);
+			} catch (IOException e) {
+				System.out.println("Ignoring unreadable type definition cache: " + e.getMessage());
+			}
+
+			builders.clear();
+			stopped.clear();
+			disabled.clear();
+			removed.clear();
+			revisions.clear();
+			createdRemoteGroups.clear();
+
+			// Compare everything first, nothing is changed until the whole plan is known
+			ProcessGroupEntity rootPG = processGroupAPI.getProcessGroup("root");
+			ProcessGroupDiff root = diffProcessGroup(null, rootPG.getId(), templateDB.get("root.yaml"));
+
+			List<ProcessGroupDiff> diffs = new ArrayList<>();
+			flatten(root, diffs);
+
+			int creates = 0, updates = 0, deletes = 0;
+			for (ProcessGroupDiff diff : diffs) {
+				creates += diff.getCreates();
+				updates += diff.getUpdates();
+				deletes += diff.getDeletes();
+
+				if (isVerbose() && !diff.isEmpty()) {
+					System.out.println(String.format("  %s: %d to create, %d to update, %d to delete",
+							diff.processGroupId != null ? diff.processGroupId : diff.desired.name,
+							diff.getCreates(), diff.getUpdates(), diff.getDeletes()));
+				}
+			}
+			System.out.println(String.format("Sync plan: %d to create, %d to update, %d to delete", creates, updates, deletes));
+
+			if (creates + updates + deletes > 0) {
+				try (RemotePortDiscovery discovery = new RemotePortDiscovery(getApiClient(), maximumPollDuration)) {
+					this.discovery = discovery;
+					apply(root, diffs);
+				}
+				System.out.println(String.format("Synced canvas (%d components stopped while changing)", stopped.size()));
+			}
+			printTransportMetrics();
+		} catch (JsonParseException | JsonMappingException e) {
+			throw new CommandFailedException("Unable to parse the templates in " + importDir, e);
+		} catch (ApiException e) {
+			throw new CommandFailedException("Sync with NiFi failed", e);
+		} catch (IOException e) {
+			throw new CommandFailedException("Unable to read the templates in " + importDir, e);
+		}
+	}
+
+	/*
+	 * Compare a process group (null if it doesn't exist yet) and everything below it to its template
+	 */
+	private ProcessGroupDiff diffProcessGroup(ProcessGroupDiff parent, String processGroupId, TemplateYML template) throws ApiException {
+		ProcessGroupContents contents = processGroupId != null ? fetchContents(processGroupId) : new ProcessGroupContents(null);
+		ProcessGroupDiff diff = new ProcessGroupDiff(parent, processGroupId, template, contents, typeCache);
+
+		for (ElementYML ele : template.components) {
+			if (ReservedComponents.PROCESS_GROUP.isType(ele.getType())) {
+				TemplateYML contentsTemplate = HelperYML.instantiate(ele, templateDB);
+				diff.children.put(ele.id, diffProcessGroup(diff, diff.matches.get(ele.id), contentsTemplate));
+			}
+		}
+
+		return diff;
+	}
+
+	private ProcessGroupContents fetchContents(String processGroupId) throws ApiException {
+		FlowDTO flow = flowAPI.getFlow(processGroupId).getProcessGroupFlow().getFlow();
+
+		ProcessGroupContents contents = new ProcessGroupContents(processGroupId);
+		contents.processors = flow.getProcessors();
+		contents.connections = flow.getConnections();
+		contents.funnels = flow.getFunnels();
+		contents.processGroups = flow.getProcessGroups();
+		contents.inputPorts = flow.getInputPorts();
+		contents.outputPorts = flow.getOutputPorts();
+		contents.labels = flow.getLabels();
+		contents.controllerServices = flowAPI.getControllerServicesFromGroup(processGroupId, false, false).getControllerServices();
+
+		// Remote ports are only part of the detailed version of a remote process group
+		contents.remoteProcessGroups = new ArrayList<>();
+		for (RemoteProcessGroupEntity rpg : flow.getRemoteProcessGroups()) {
+			contents.remoteProcessGroups.add(remoteGroupAPI.getRemoteProcessGroup(rpg.getId()));
+		}
+
+		return contents;
+	}
+
+	private static void flatten(ProcessGroupDiff diff, List<ProcessGroupDiff> diffs) {
+		diffs.add(diff);
+		for (ProcessGroupDiff child : diff.children.values()) {
+			flatten(child, diffs);
+		}
+	}
+
+	/*
+	 * Apply the diffs in an order NiFi accepts: connections are removed before what they connect, controller
+	 * services exist before anything referencing them is updated and are only deleted once nothing references
+	 * them anymore. Process groups that don't exist yet are created (with all of their contents) along the way.
+	 */
+	private void apply(ProcessGroupDiff root, List<ProcessGroupDiff> diffs) throws ApiException {
+		List<ProcessGroupDiff> existing = new ArrayList<>();
+		for (ProcessGroupDiff diff : diffs) {
+			if (diff.processGroupId != null) {
+				existing.add(diff);
+			}
+		}
+
+		// Everything that is about to change is stopped before anything is removed
+		stopAffected(existing);
+
+		for (ProcessGroupDiff diff : existing) {
+			for (ConnectionEntity connection : diff.deletedConnections) {
+				// Only connections with empty queues can be deleted
+				clearCommand.emptyQueue(connection);
+				connectionAPI.deleteConnection(connection.getId(), "" + connection.getRevision().getVersion(), getClientId(), false);
+				removed.add(connection.getId());
+			}
+		}
+
+		for (ProcessGroupDiff diff : existing) {
+			for (ElementYML ele : diff.deleted) {
+				delete(diff, ele);
+			}
+		}
+
+		for (ProcessGroupDiff diff : existing) {
+			ObjectBuilder builder = enter(diff);
+
+			// Existing components are referenced/connected to by their template ids
+			for (ControllerYML controller : diff.desired.controllers) {
+				if (diff.matches.containsKey(controller.id)) {
+					builder.trackExisting(controller, diff.matches.get(controller.id));
+				}
+			}
+			for (ElementYML ele : diff.desired.components) {
+				String existingId = diff.matches.get(ele.id);
+				if (existingId != null) {
+					builder.trackExisting(ele, existingId);
+
+					if (ReservedComponents.REMOTE_PROCESS_GROUP.isType(ele.getType())) {
+						builder.trackRemotePorts((RemoteProcessGroupEntity) diff.getEntity(existingId));
+					}
+				}
+			}
+
+			for (ControllerYML controller : diff.createdControllers) {
+				builder.makeControllerService(controller);
+			}
+		}
+
+		for (ProcessGroupDiff diff : existing) {
+			for (Pair<ControllerYML, ControllerServiceEntity> update : diff.updatedControllers) {
+				ControllerServiceEntity controller = update.t2;
+				if (controller.getComponent().getState() == ControllerServiceDTO.StateEnum.ENABLED) {
+					controller = setControllerServiceState(controller.getId(), false);
+					disabled.add(controller.getId());
+				}
+				builders.get(diff).updateControllerService(update.t1, controller);
+			}
+		}
+
+		for (ProcessGroupDiff diff : existing) {
+			Map<String, Set<String>> usedRelationships = HelperYML.usedRelationships(diff.desired);
+			for (Pair<ElementYML, ElementYML> update : diff.updated) {
+				update(diff, update.t1, update.t2.id, usedRelationships.getOrDefault(update.t1.id, Collections.emptySet()));
+			}
+		}
+
+		for (ProcessGroupDiff diff : existing) {
+			for (ControllerServiceEntity controller : diff.deletedControllers) {
+				ControllerServiceEntity current = controller;
+				if (controller.getComponent().getState() != ControllerServiceDTO.StateEnum.DISABLED) {
+					current = setControllerServiceState(controller.getId(), false);
+				}
+				controllerServiceAPI.removeControllerService(current.getId(), "" + current.getRevision().getVersion(), getClientId(), false);
+				removed.add(current.getId());
+			}
+		}
+
+		for (ProcessGroupDiff diff : existing) {
+			create(diff);
+		}
+		for (Pair<ObjectBuilder, ElementYML> rpg : createdRemoteGroups) {
+			rpg.t1.configureRemoteProcessGroupPorts(rpg.t2, discovery);
+		}
+
+		for (ProcessGroupDiff diff : diffs) {
+			connect(diff);
+		}
+
+		// Put everything back the way it was
+		for (String id : disabled) {
+			if (!removed.contains(id)) {
+				setControllerServiceState(id, true);
+			}
+		}
+		for (Map.Entry<String, String> component : stopped.entrySet()) {
+			if (!removed.contains(component.getKey())) {
+				setRunning(component.getKey(), component.getValue(), true);
+			}
+		}
+	}
+
+	/*
+	 * Stop processors/ports that are about to change, both ends of connections that are about to be deleted,
+	 * as well as processors using controller services that are about to change
+	 */
+	private void stopAffected(List<ProcessGroupDiff> diffs) throws ApiException {
+		Set<String> controllers = new HashSet<>();
+
+		for (ProcessGroupDiff diff : diffs) {
+			for (ConnectionEntity connection : diff.deletedConnections) {
+				stop(connection.getSourceId(), connection.getSourceType().name());
+				stop(connection.getDestinationId(), connection.getDestinationType().name());
+			}
+			for (Pair<ElementYML, ElementYML> update : diff.updated) {
+				stop(update.t2.id, kind(update.t2));
+			}
+			for (ElementYML ele : diff.deleted) {
+				stop(ele.id, kind(ele));
+			}
+			for (Pair<ControllerYML, ControllerServiceEntity> update : diff.updatedControllers) {
+				controllers.add(update.t2.getId());
+			}
+			for (ControllerServiceEntity controller : diff.deletedControllers) {
+				controllers.add(controller.getId());
+			}
+		}
+
+		if (controllers.isEmpty()) {
+			return;
+		}
+		for (ProcessGroupDiff diff : diffs) {
+			for (ProcessorEntity processor : diff.live.processors) {
+				Map<String, String> properties = processor.getComponent().getConfig().getProperties();
+				if (properties != null && !Collections.disjoint(properties.values(), controllers)) {
+					stop(processor.getId(), PROCESSOR);
+				}
+			}
+		}
+	}
+
+	private void delete(ProcessGroupDiff diff, ElementYML ele) throws ApiException {
+		Object entity = diff.getEntity(ele.id);
+
+		if (HelperYML.isProcessor(ele.getType())) {
+			ProcessorEntity processor = (ProcessorEntity) entity;
+			processorAPI.deleteProcessor(ele.id, version(ele.id, processor.getRevision()), getClientId(), false);
+		} else {
+			switch (ReservedComponents.valueOf(ele.getType().toUpperCase())) {
+			case INPUT_PORT:
+				inputPortAPI.removeInputPort(ele.id, version(ele.id, ((PortEntity) entity).getRevision()), getClientId(), false);
+				break;
+			case OUTPUT_PORT:
+				outputPortAPI.removeOutputPort(ele.id, version(ele.id, ((PortEntity) entity).getRevision()), getClientId(), false);
+				break;
+			case FUNNEL:
+				funnelAPI.removeFunnel(ele.id, version(ele.id, ((FunnelEntity) entity).getRevision()), getClientId(), false);
+				break;
+			case LABEL:
+				labelAPI.removeLabel(ele.id, version(ele.id, ((LabelEntity) entity).getRevision()), getClientId(), false);
+				break;
+			case PROCESS_GROUP:
+			{
+				// Stops and removes all of the contents first
+				new ClearCommand(ele.id).run();
+
+				ProcessGroupEntity pg = processGroupAPI.getProcessGroup(ele.id);
+				processGroupAPI.removeProcessGroup(ele.id, "" + pg.getRevision().getVersion(), getClientId(), false);
+				break;
+			}
+			case REMOTE_PROCESS_GROUP:
+				remoteGroupAPI.removeRemoteProcessGroup(ele.id, version(ele.id, ((RemoteProcessGroupEntity) entity).getRevision()), getClientId(), false);
+				break;
+			}
+		}
+
+		removed.add(ele.id);
+	}
+
+	private void update(ProcessGroupDiff diff, ElementYML ele, String existingId, Set<String> usedRelationships) throws ApiException {
+		ObjectBuilder builder = builders.get(diff);
+		Object entity = diff.getEntity(existingId);
+
+		if (HelperYML.isProcessor(ele.getType())) {
+			ProcessorEntity processor = (ProcessorEntity) entity;
+			processor.setRevision(revision(existingId, processor.getRevision()));
+			builder.updateProcessor(ele, processor, usedRelationships);
+			return;
+		}
+
+		switch (ReservedComponents.valueOf(ele.getType().toUpperCase())) {
+		case INPUT_PORT:
+		case OUTPUT_PORT:
+		{
+			PortEntity port = (PortEntity) entity;
+			port.setRevision(revision(existingId, port.getRevision()));
+			builder.updatePort(ele, port);
+			break;
+		}
+		case FUNNEL:
+			builder.updateFunnel(ele, (FunnelEntity) entity);
+			break;
+		case LABEL:
+			builder.updateLabel(ele, (LabelEntity) entity);
+			break;
+		case PROCESS_GROUP:
+			builder.updateProcessGroup(ele, (ProcessGroupEntity) entity);
+			break;
+		default:
+			// Remote process groups are never updated (see ProcessGroupDiff)
+		}
+	}
+
+	/*
+	 * Create everything new in a process group, new process groups are filled in right away
+	 */
+	private void create(ProcessGroupDiff diff) throws ApiException {
+		ObjectBuilder builder = builders.get(diff);
+		Map<String, Set<String>> usedRelationships = HelperYML.usedRelationships(diff.desired);
+
+		for (ElementYML ele : diff.created) {
+			if (HelperYML.isProcessor(ele.getType())) {
+				builder.makeProcessor(ele, usedRelationships.getOrDefault(ele.id, Collections.emptySet()));
+				continue;
+			}
+
+			switch (ReservedComponents.valueOf(ele.getType().toUpperCase())) {
+			case INPUT_PORT:
+				builder.makeInputPort(ele);
+				break;
+			case OUTPUT_PORT:
+				builder.makeOutputPort(ele);
+				break;
+			case FUNNEL:
+				builder.makeFunnel(ele);
+				break;
+			case LABEL:
+				builder.makeLabel(ele);
+				break;
+			case REMOTE_PROCESS_GROUP:
+				// Remote ports show up in the background while the rest is created
+				discovery.discover(builder.makeRemoteProcessGroup(ele).getId());
+				createdRemoteGroups.add(new Pair<>(builder, ele));
+				break;
+			case PROCESS_GROUP:
+			{
+				ProcessGroupEntity pg = builder.makeProcessGroup(ele, templateDB);
+
+				ProcessGroupDiff child = diff.children.get(ele.id);
+				child.processGroupId = pg.getId();
+				ObjectBuilder childBuilder = enter(child);
+				for (ControllerYML controller : child.createdControllers) {
+					childBuilder.makeControllerService(controller);
+				}
+				create(child);
+				break;
+			}
+			}
+		}
+	}
+
+	private void connect(ProcessGroupDiff diff) throws ApiException {
+		ObjectBuilder builder = builders.get(diff);
+
+		Map<String, ElementYML> lookup = new HashMap<>();
+		for (ElementYML element : diff.desired.components) {
+			lookup.put(element.id, element);
+		}
+
+		for (Pair<ElementYML, InputConnectionYML> connection : diff.createdConnections) {
+			ElementYML source = lookup.get(connection.t2.source);
+			if (source == null) {
+				throw new IllegalArgumentException(String.format("Template %s connects unknown element %s to %s",
+						diff.desired.name, connection.t2.source, connection.t1.id));
+			}
+			builder.makeConnection(source, connection.t1, connection.t2);
+		}
+		for (Pair<InputConnectionYML, ConnectionEntity> connection : diff.updatedConnections) {
+			builder.updateConnection(connection.t1, connection.t2);
+		}
+	}
+
+	private ObjectBuilder enter(ProcessGroupDiff diff) {
+		ObjectBuilder parent = diff.parent != null ? builders.get(diff.parent) : new ObjectBuilder(getApiClient(), getClientId(), typeCache);
+		ObjectBuilder builder = parent.enterProcessGroup(diff.processGroupId, DependencyBuilder.createDependencyLookup(diff.desired.dependencies), 
+				new ControllerReferences(diff.desired, controllerIds));
+		builders.put(diff, builder);
+		return builder;
+	}
+
+	private static String kind(ElementYML ele) {
+		return HelperYML.isProcessor(ele.getType()) ? PROCESSOR : ele.getType().toUpperCase();
+	}
+
+	/*
+	 * Stop a running processor/port (anything else doesn't need stopping)
+	 */
+	private void stop(String id, String kind) throws ApiException {
+		if (stopped.containsKey(id)) {
+			return;
+		}
+
+		if (PROCESSOR.equals(kind)) {
+			ProcessorEntity processor = processorAPI.getProcessor(id);
+			if (processor.getComponent().getState() == ProcessorDTO.StateEnum.RUNNING) {
+				stopped.put(id, kind);
+				setRunning(id, kind, false);
+			}
+		} else if (ReservedComponents.INPUT_PORT.isType(kind)) {
+			PortEntity port = inputPortAPI.getInputPort(id);
+			if (port.getComponent().getState() == PortDTO.StateEnum.RUNNING) {
+				stopped.put(id, kind);
+				setRunning(id, kind, false);
+			}
+		} else if (ReservedComponents.OUTPUT_PORT.isType(kind)) {
+			PortEntity port = outputPortAPI.getOutputPort(id);
+			if (port.getComponent().getState() == PortDTO.StateEnum.RUNNING) {
+				stopped.put(id, kind);
+				setRunning(id, kind, false);
+			}
+		}
+	}
+
+	private void setRunning(String id, String kind, boolean running) throws ApiException {
+		ProcessorEntity response;
+
+		if (PROCESSOR.equals(kind)) {
+			ProcessorRunStatusEntity status = new ProcessorRunStatusEntity();
+			status.setState(running ? ProcessorRunStatusEntity.StateEnum.RUNNING : ProcessorRunStatusEntity.StateEnum.STOPPED);
+			status.setRevision(createRevision(processorAPI.getProcessor(id).getRevision()));
+			response = processorAPI.updateRunStatus(id, status);
+		} else if (ReservedComponents.INPUT_PORT.isType(kind)) {
+			PortRunStatusEntity status = new PortRunStatusEntity();
+			status.setState(running ? PortRunStatusEntity.StateEnum.RUNNING : PortRunStatusEntity.StateEnum.STOPPED);
+			status.setRevision(createRevision(inputPortAPI.getInputPort(id).getRevision()));
+			response = inputPortAPI.updateRunStatus(id, status);
+		} else {
+			PortRunStatusEntity status = new PortRunStatusEntity();
+			status.setState(running ? PortRunStatusEntity.StateEnum.RUNNING : PortRunStatusEntity.StateEnum.STOPPED);
+			status.setRevision(createRevision(outputPortAPI.getOutputPort(id).getRevision()));
+			response = outputPortAPI.updateRunStatus(id, status);
+		}
+
+		revisions.put(id, response.getRevision());
+	}
+
+	/*
+	 * Enable/disable a controller service and wait until it is done (both happen in the background)
+	 */
+	private ControllerServiceEntity setControllerServiceState(String id, boolean enabled) throws ApiException {
+		ControllerServiceEntity controller = controllerServiceAPI.getControllerService(id);
+
+		ControllerServiceRunStatusEntity status = new ControllerServiceRunStatusEntity();
+		status.setState(enabled ? ControllerServiceRunStatusEntity.StateEnum.ENABLED : ControllerServiceRunStatusEntity.StateEnum.DISABLED);
+		status.setRevision(createRevision(controller.getRevision()));
+		controllerServiceAPI.updateRunStatus(id, status);
+
+		ControllerServiceDTO.StateEnum target = enabled ? ControllerServiceDTO.StateEnum.ENABLED : ControllerServiceDTO.StateEnum.DISABLED;
+		long startTime = System.nanoTime();
+		do {
+			controller = controllerServiceAPI.getControllerService(id);
+			if (controller.getComponent().getState() == target) {
+				break;
+			}
+
+			try {
+				Thread.sleep(500);
+			} catch (InterruptedException e) {}
+		} while ((System.nanoTime() - startTime) < maximumPollDuration);
+
+		return controller;
+	}
+
+	private RevisionDTO revision(String id, RevisionDTO known) {
+		return revisions.getOrDefault(id, known);
+	}
+
+	private String version(String id, RevisionDTO known) {
+		return "" + revision(id, known).getVersion();
+	}
+
+	private RevisionDTO createRevision(RevisionDTO current) {
+		RevisionDTO dto = new RevisionDTO();
+		dto.setClientId(getClientId());
+		dto.setVersion(current.getVersion());
+		return dto;
+	}
+
+	// Tester main method
+	public static void main(String[] args) {
+		BaseCommand.configureApiClients("localhost", "8080", false);
+
+		SyncCommand sync = new SyncCommand("./examples/simple/");
+		sync.run();
+	}
+}
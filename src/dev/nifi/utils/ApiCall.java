@@ -0,0 +1,13 @@
+package dev.nifi.utils;
+
+import org.apache.nifi.api.toolkit.ApiException;
+
+/**
+ * A single blocking call against the NiFi API, captured so it can be run elsewhere (another thread, a retry, etc).
+ *
+ * @param <T> Type of the response entity
+ */
+@FunctionalInterface
+public interface ApiCall<T> {
+	T call() throws ApiException;
+}
@@ -0,0 +1,198 @@
+package dev.nifi.utils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.nifi.api.toolkit.ApiCallback;
+import org.apache.nifi.api.toolkit.ApiClient;
+import org.apache.nifi.api.toolkit.ApiException;
+import org.apache.nifi.api.toolkit.api.FlowApi;
+import org.apache.nifi.api.toolkit.api.ProcessGroupsApi;
+import org.apache.nifi.api.toolkit.model.ConnectionsEntity;
+import org.apache.nifi.api.toolkit.model.ControllerServicesEntity;
+import org.apache.nifi.api.toolkit.model.FunnelsEntity;
+import org.apache.nifi.api.toolkit.model.InputPortsEntity;
+import org.apache.nifi.api.toolkit.model.LabelsEntity;
+import org.apache.nifi.api.toolkit.model.OutputPortsEntity;
+import org.apache.nifi.api.toolkit.model.ProcessGroupsEntity;
+import org.apache.nifi.api.toolkit.model.ProcessorsEntity;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupsEntity;
+
+import com.squareup.okhttp.Call;
+
+/**
+ * CompletableFuture versions of the toolkit API calls the export makes to read a process group, built
+ * on the generated *Async methods so all of them can be in flight without a thread for each.
+ *
+ * Requests over the concurrency limit wait in okhttp's dispatcher queue without holding a thread (see
+ * {@link ConcurrencyLimiter#newDispatcher()}). A request waiting to be retried does hold a dispatcher
+ * thread while it backs off (see {@link RetryInterceptor}), interceptors have no way to resume later.
+ *
+ * Cancelling a returned future cancels the HTTP request. Dependent stages run on okhttp's dispatcher
+ * threads, so they should hand anything blocking to an executor (the *Async stage variants).
+ */
+public class AsyncApi {
+
+	private final FlowApi flowAPI;
+	private final ProcessGroupsApi processGroupAPI;
+
+	public AsyncApi(ApiClient apiClient) {
+		this.flowAPI = new FlowApi(apiClient);
+		this.processGroupAPI = new ProcessGroupsApi(apiClient);
+	}
+
+	/*
+	 * Starts a generated *Async method, e.g. call(callback -> processGroupAPI.getLabelsAsync(id, callback))
+	 */
+	@FunctionalInterface
+	private interface AsyncCall<T> {
+		Call start(ApiCallback<T> callback) throws ApiException;
+	}
+
+	private <T> CompletableFuture<T> call(AsyncCall<T> call) {
+		ApiFuture<T> future = new ApiFuture<>();
+		try {
+			future.setCall(call.start(new FutureCallback<>(future)));
+		} catch (ApiException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Wait for all requests. The first one to fail cancels the others and its failure is rethrown.
+	 * On a ForkJoinPool worker the wait is a managed block, so the pool can keep its parallelism.
+	 */
+	public static void awaitAll(CompletableFuture<?>... futures) throws ApiException {
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		for (CompletableFuture<?> future : futures) {
+			future.whenComplete((result, e) -> {
+				if (e != null && failure.compareAndSet(null, e)) {
+					for (CompletableFuture<?> other : futures) {
+						other.cancel(false);
+					}
+				}
+			});
+		}
+
+		try {
+			CompletableFuture.allOf(futures).join();
+		} catch (CancellationException | CompletionException e) {
+			// Reported through failure, the first exception isn't necessarily the cause
+		}
+		if (failure.get() != null) {
+			Throwable e = failure.get();
+			if (e instanceof CancellationException) {
+				throw new ApiException(e);
+			}
+			throw ConcurrentUtils.rethrowApiException(e);
+		}
+	}
+
+	public CompletableFuture<ControllerServicesEntity> getControllerServicesFromGroup(String id, Boolean includeAncestorGroups, Boolean includeDescendantGroups) {
+		return call(callback -> flowAPI.getControllerServicesFromGroupAsync(id, includeAncestorGroups, includeDescendantGroups, callback));
+	}
+
+	public CompletableFuture<ProcessGroupsEntity> getProcessGroups(String id) {
+		return call(callback -> processGroupAPI.getProcessGroupsAsync(id, callback));
+	}
+
+	public CompletableFuture<ProcessorsEntity> getProcessors(String id, Boolean includeDescendantGroups) {
+		return call(callback -> processGroupAPI.getProcessorsAsync(id, includeDescendantGroups, callback));
+	}
+
+	public CompletableFuture<ConnectionsEntity> getConnections(String id) {
+		return call(callback -> processGroupAPI.getConnectionsAsync(id, callback));
+	}
+
+	public CompletableFuture<FunnelsEntity> getFunnels(String id) {
+		return call(callback -> processGroupAPI.getFunnelsAsync(id, callback));
+	}
+
+	public CompletableFuture<InputPortsEntity> getInputPorts(String id) {
+		return call(callback -> processGroupAPI.getInputPortsAsync(id, callback));
+	}
+
+	public CompletableFuture<OutputPortsEntity> getOutputPorts(String id) {
+		return call(callback -> processGroupAPI.getOutputPortsAsync(id, callback));
+	}
+
+	public CompletableFuture<LabelsEntity> getLabels(String id) {
+		return call(callback -> processGroupAPI.getLabelsAsync(id, callback));
+	}
+
+	public CompletableFuture<RemoteProcessGroupsEntity> getRemoteProcessGroups(String id) {
+		return call(callback -> processGroupAPI.getRemoteProcessGroupsAsync(id, callback));
+	}
+
+	/*
+	 * Cancels its HTTP request when it is cancelled or fails before the response
+	 */
+	private static final class ApiFuture<T> extends CompletableFuture<T> {
+
+		private volatile Call call;
+
+		private void setCall(Call call) {
+			this.call = call;
+			if (isCompletedExceptionally()) {
+				cancelCall();
+			}
+		}
+
+		@Override
+		public boolean completeExceptionally(Throwable ex) {
+			boolean completed = super.completeExceptionally(ex);
+			if (completed) {
+				cancelCall();
+			}
+			return completed;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				cancelCall();
+			}
+			return cancelled;
+		}
+
+		private void cancelCall() {
+			Call call = this.call;
+			if (call != null) {
+				call.cancel();
+			}
+		}
+	}
+
+	private static final class FutureCallback<T> implements ApiCallback<T> {
+
+		private final CompletableFuture<T> future;
+
+		private FutureCallback(CompletableFuture<T> future) {
+			this.future = future;
+		}
+
+		@Override
+		public void onFailure(ApiException e, int statusCode, Map<String, List<String>> responseHeaders) {
+			future.completeExceptionally(e);
+		}
+
+		@Override
+		public void onSuccess(T result, int statusCode, Map<String, List<String>> responseHeaders) {
+			future.complete(result);
+		}
+
+		@Override
+		public void onUploadProgress(long bytesWritten, long contentLength, boolean done) {
+		}
+
+		@Override
+		public void onDownloadProgress(long bytesRead, long contentLength, boolean done) {
+		}
+	}
+}
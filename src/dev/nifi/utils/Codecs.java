@@ -0,0 +1,64 @@
+package dev.nifi.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
+
+import dev.nifi.xml.Criteria;
+import dev.nifi.yml.ElementYML;
+import dev.nifi.yml.TemplateYML;
+
+/**
+ * Pre-built readers/writers for every format the templatizer reads or writes.
+ *
+ * Building a mapper and warming up its serializer caches costs far more than using it, so each
+ * mapper is built once and only the immutable (thread-safe) readers/writers are handed out.
+ */
+public final class Codecs {
+
+	private static final ObjectMapper YAML = new ObjectMapper(new YAMLFactory());
+	private static final ObjectMapper YAML_EXPORT = createExportMapper();
+	private static final XmlMapper XML = new XmlMapper();
+
+	/**
+	 * Reads templates (*.yaml) written by an export
+	 */
+	public static final ObjectReader TEMPLATE_READER = YAML.readerFor(TemplateYML.class);
+
+	/**
+	 * Writes templates in the export format (minimal quoting, empty values left out)
+	 */
+	public static final ObjectWriter TEMPLATE_WRITER = YAML_EXPORT.writerFor(TemplateYML.class);
+
+	/**
+	 * Writes single components in the export format (two components are the same if they're written the same)
+	 */
+	public static final ObjectWriter ELEMENT_WRITER = YAML_EXPORT.writerFor(ElementYML.class);
+
+	/**
+	 * Reads the annotation data (advanced rules) of UpdateAttribute style processors
+	 */
+	public static final ObjectReader CRITERIA_READER = XML.readerFor(Criteria.class);
+
+	/**
+	 * Writes the annotation data (advanced rules) of UpdateAttribute style processors
+	 */
+	public static final ObjectWriter CRITERIA_WRITER = XML.writerFor(Criteria.class);
+
+	private Codecs() {}
+
+	private static ObjectMapper createExportMapper() {
+		YAMLFactory f = new YAMLFactory();
+		f.enable(YAMLGenerator.Feature.MINIMIZE_QUOTES);
+		f.disable(YAMLGenerator.Feature.WRITE_DOC_START_MARKER);
+		ObjectMapper mapper = new ObjectMapper(f);
+
+		mapper.setSerializationInclusion(Include.NON_EMPTY);
+
+		return mapper;
+	}
+}
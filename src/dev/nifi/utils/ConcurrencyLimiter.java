@@ -0,0 +1,192 @@
+package dev.nifi.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Response;
+
+/**
+ * Limits the number of requests in flight against NiFi, adapting the limit to how NiFi copes (AIMD):
+ *  - The limit grows by one after a fast, successful response while the limit is actually in use
+ *  - The limit shrinks by a factor when a response is slow (latency well above the fastest seen
+ *    recently for the same endpoint), NiFi is overloaded (429/503) or a request times out
+ *
+ * Synchronous requests over the limit wait (queue) until another request finishes. Asynchronous
+ * requests never wait in here: they are queued by the {@link #newDispatcher() dispatcher}, which only
+ * runs as many of them at once as the limit allows, so no dispatcher thread is blocked on a slot.
+ */
+public class ConcurrencyLimiter implements Interceptor {
+
+	// Multiplier of the limit when NiFi is struggling
+	private static final double BACKOFF = 0.9;
+
+	// Responses slower than this multiple of the baseline latency count as NiFi struggling
+	private static final double LATENCY_TOLERANCE = 2.0;
+
+	// How fast the baseline latency follows slower responses (so it recovers from a lucky fast one)
+	private static final double BASELINE_DRIFT = 0.01;
+
+	// Seconds an idle dispatcher thread is kept (same as okhttp's own dispatcher)
+	private static final long DISPATCHER_KEEP_ALIVE = 60;
+
+	private final int minLimit;
+	private final int maxLimit;
+
+	private double limit;
+	private int inFlight;
+	private int queued;
+
+	// Endpoint (see EndpointMetrics) -> Nanoseconds, endpoints differ too much in latency to share one
+	private final Map<String, Double> baselines = new HashMap<>();
+
+	// Threads of the dispatcher running asynchronous calls, their calls are limited by the dispatcher
+	private final ThreadLocal<Boolean> dispatcherThread = ThreadLocal.withInitial(() -> false);
+	private volatile Dispatcher dispatcher;
+
+	/**
+	 * @param initialLimit Requests in flight allowed at the start
+	 * @param maxLimit     Most requests in flight the limit can grow to
+	 */
+	public ConcurrencyLimiter(int initialLimit, int maxLimit) {
+		this.minLimit = 1;
+		this.maxLimit = Math.max(minLimit, maxLimit);
+		this.limit = Math.max(minLimit, Math.min(initialLimit, this.maxLimit));
+	}
+
+	/**
+	 * Dispatcher for asynchronous calls that runs at most as many calls at once as the limit allows
+	 * (its maximum requests per host follows the limit). Replaces any dispatcher created before.
+	 */
+	public Dispatcher newDispatcher() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, DISPATCHER_KEEP_ALIVE, TimeUnit.SECONDS, 
+				new SynchronousQueue<>(), r -> {
+					Thread thread = new Thread(() -> {
+						dispatcherThread.set(true);
+						r.run();
+					}, "nifi-api-dispatcher");
+					thread.setDaemon(true);
+					return thread;
+				});
+
+		Dispatcher created = new Dispatcher(executor);
+		created.setMaxRequestsPerHost(getLimit());
+		dispatcher = created;
+		return created;
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		if (dispatcherThread.get()) {
+			admit();
+		} else {
+			acquire();
+		}
+
+		String endpoint = EndpointMetrics.endpoint(chain.request());
+		long start = System.nanoTime();
+		boolean overloaded = true;
+		try {
+			Response response = chain.proceed(chain.request());
+			overloaded = response.code() == 429 || response.code() == 503;
+			return response;
+		} catch (InterruptedIOException e) {
+			// Timed out
+			throw e;
+		} catch (IOException | RuntimeException e) {
+			// Not NiFi's fault (connection refused, bad request, etc)
+			overloaded = false;
+			throw e;
+		} finally {
+			release(endpoint, System.nanoTime() - start, overloaded);
+		}
+	}
+
+	/*
+	 * Asynchronous calls were already held back by the dispatcher
+	 */
+	private synchronized void admit() {
+		inFlight++;
+	}
+
+	private synchronized void acquire() throws InterruptedIOException {
+		queued++;
+		try {
+			while (inFlight >= (int) limit) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a request slot");
+		} finally {
+			queued--;
+		}
+		inFlight++;
+	}
+
+	private void release(String endpoint, long latency, boolean overloaded) {
+		int before, after;
+		synchronized (this) {
+			before = (int) limit;
+			adjust(endpoint, latency, overloaded);
+			after = (int) limit;
+			notifyAll();
+		}
+
+		// Outside of the lock, the dispatcher starts queued calls right away (which end up in here)
+		Dispatcher current = dispatcher;
+		if (current != null && before != after) {
+			current.setMaxRequestsPerHost(after);
+		}
+	}
+
+	private void adjust(String endpoint, long latency, boolean overloaded) {
+		// Only grow when the limit is what holds requests back, not when there just isn't much to do
+		boolean limited = inFlight * 2 >= (int) limit;
+		inFlight--;
+
+		Double known = baselines.get(endpoint);
+		double baseline;
+		if (known == null || latency < known) {
+			baseline = latency;
+		} else {
+			baseline = known + (latency - known) * BASELINE_DRIFT;
+		}
+		baselines.put(endpoint, baseline);
+
+		if (overloaded || latency > baseline * LATENCY_TOLERANCE) {
+			limit = Math.max(minLimit, limit * BACKOFF);
+		} else if (limited) {
+			limit = Math.min(maxLimit, limit + 1);
+		}
+	}
+
+	/**
+	 * @return requests currently allowed in flight
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return requests waiting for another request to finish
+	 */
+	public synchronized int getQueueDepth() {
+		return queued;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("limit %d, %d in flight, %d queued", (int) limit, inFlight, queued);
+	}
+}
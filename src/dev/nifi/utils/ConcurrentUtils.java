@@ -0,0 +1,66 @@
+package dev.nifi.utils;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.nifi.api.toolkit.ApiException;
+
+public class ConcurrentUtils {
+
+	private ConcurrentUtils() {}
+
+	/**
+	 * Fork an API call onto the current ForkJoinPool so it can run alongside other calls.
+	 * Must be called from within a ForkJoinPool task.
+	 *
+	 * @param call API call to run
+	 * @return forked task, use join() to get the response
+	 */
+	public static <T> ForkJoinTask<T> fork(ApiCall<T> call) {
+		return new RecursiveTask<T>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected T compute() {
+				try {
+					return call.call();
+				} catch (ApiException e) {
+					// Checked exceptions can't cross the task boundary, unwrap with rethrowApiException
+					throw new CompletionException(e);
+				}
+			}
+		}.fork();
+	}
+
+	/**
+	 * Searches the cause chain of an exception thrown by a concurrent task for an ApiException
+	 * and rethrows it. Any other exception is rethrown as-is (unchecked).
+	 *
+	 * @param t exception thrown from a concurrent task
+	 * @return never returns normally, declared so callers can write 'throw rethrowApiException(e)'
+	 */
+	public static RuntimeException rethrowApiException(Throwable t) throws ApiException {
+		Throwable cause = t;
+		while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+
+		// ForkJoinTask may wrap the original exception in a copy of itself when rethrowing across threads
+		if (cause instanceof RuntimeException && cause.getCause() instanceof ApiException) {
+			cause = cause.getCause();
+		}
+
+		if (cause instanceof ApiException) {
+			throw (ApiException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		throw new IllegalStateException(cause);
+	}
+}
@@ -0,0 +1,72 @@
+package dev.nifi.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import dev.nifi.yml.ControllerYML;
+import dev.nifi.yml.ElementYML;
+import dev.nifi.yml.TemplateYML;
+
+/**
+ * Properties of a template that reference controller services, worked out once per template so that
+ * creating components only swaps the referenced ids instead of looking up every property value.
+ *
+ * A property is a reference when its value is the id of a controller service in any of the templates
+ * (controller services of enclosing process groups can be referenced too).
+ */
+public class ControllerReferences {
+
+	// No references at all (builders that don't create anything)
+	public static final ControllerReferences NONE = new ControllerReferences();
+
+	// Component/Controller service ID -> Names of the properties referencing a controller service
+	private final Map<String, Set<String>> references = new HashMap<>();
+
+	private ControllerReferences() {}
+
+	/**
+	 * @param template      Template (with its parameters applied) to find the references of
+	 * @param controllerIds Ids of all controller services in the templates, see {@link #controllerIds(Collection)}
+	 */
+	public ControllerReferences(TemplateYML template, Set<String> controllerIds) {
+		for (ControllerYML controller : template.controllers) {
+			add(controller.id, controller.properties, controllerIds);
+		}
+		for (ElementYML element : template.components) {
+			add(element.id, element.properties, controllerIds);
+		}
+	}
+
+	public static Set<String> controllerIds(Collection<TemplateYML> templates) {
+		Set<String> ids = new HashSet<>();
+		for (TemplateYML template : templates) {
+			for (ControllerYML controller : template.controllers) {
+				ids.add(controller.id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return names of the properties of a component/controller service that reference a controller service
+	 */
+	public Set<String> get(String id) {
+		return references.getOrDefault(id, Collections.emptySet());
+	}
+
+	private void add(String id, Map<String, ?> properties, Set<String> controllerIds) {
+		if (properties == null) {
+			return;
+		}
+
+		for (Map.Entry<String, ?> property : properties.entrySet()) {
+			if (property.getValue() instanceof String && controllerIds.contains(property.getValue())) {
+				references.computeIfAbsent(id, k -> new HashSet<>()).add(property.getKey());
+			}
+		}
+	}
+}
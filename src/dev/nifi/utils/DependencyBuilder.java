@@ -104,6 +104,16 @@ public class DependencyBuilder {
 		return this;
 	}
 	
+	/**
+	 * Unique key for a type within a specific bundle (group:artifact:version:type)
+	 */
+	public static String coordinates(String type, BundleDTO bundle) {
+		if (bundle == null) {
+			return type;
+		}
+		return bundle.getGroup() + ":" + bundle.getArtifact() + ":" + bundle.getVersion() + ":" + type;
+	}
+	
 	/**
 	 * Convert Nested Map form to an easier form to use when using the NiFiApi
 	 * @param dependencies
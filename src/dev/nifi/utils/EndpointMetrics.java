@@ -0,0 +1,287 @@
+package dev.nifi.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.AbstractHistogram;
+import org.HdrHistogram.ConcurrentHistogram;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Records every request made against NiFi (through any of the toolkit APIs) per endpoint: number of calls,
+ * failures, bytes sent/received and a latency histogram (until NiFi responds, including retries and time
+ * waiting for a request slot).
+ *
+ * Endpoints are the method and path below /nifi-api with ids replaced by {id}, e.g. "GET /processors/{id}".
+ */
+public class EndpointMetrics implements Interceptor {
+
+	private static final Pattern ID = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+	// Latencies are recorded in microseconds with 3 significant digits
+	private static final int PRECISION = 3;
+
+	private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		Endpoint endpoint = endpoints.computeIfAbsent(endpoint(request), k -> new Endpoint());
+
+		long start = System.nanoTime();
+		Response response = null;
+		try {
+			response = chain.proceed(request);
+			return response.body() != null ? response.newBuilder().body(new CountingBody(response.body(), endpoint)).build() : response;
+		} finally {
+			endpoint.record(System.nanoTime() - start, request.body() != null ? request.body().contentLength() : 0,
+					response != null && response.isSuccessful());
+		}
+	}
+
+	/*
+	 * Method and path below /nifi-api without ids
+	 */
+	static String endpoint(Request request) {
+		List<String> segments = request.httpUrl().pathSegments();
+		int api = segments.indexOf("nifi-api");
+
+		StringBuilder path = new StringBuilder(request.method()).append(' ');
+		for (int i = api + 1; i < segments.size(); i++) {
+			path.append('/').append(ID.matcher(segments.get(i)).matches() ? "{id}" : segments.get(i));
+		}
+		return path.toString();
+	}
+
+	/**
+	 * @return snapshot of the endpoints called so far, by endpoint
+	 */
+	public Map<String, Endpoint> getEndpoints() {
+		return new TreeMap<>(endpoints);
+	}
+
+	/**
+	 * Print a table of the endpoints called, slowest in total first
+	 */
+	public void print(PrintStream out) {
+		List<Map.Entry<String, Endpoint>> sorted = new ArrayList<>(getEndpoints().entrySet());
+		if (sorted.isEmpty()) {
+			return;
+		}
+		sorted.sort((a, b) -> Long.compare(b.getValue().getTotalNanos(), a.getValue().getTotalNanos()));
+
+		out.println("NiFi requests per endpoint:");
+		out.println(String.format("  %-60s %7s %6s %10s %10s %10s %12s %12s", "Endpoint", "Calls", "Failed", "p50 (ms)", "p99 (ms)", "max (ms)", "Sent (KB)", "Received (KB)"));
+		for (Map.Entry<String, Endpoint> entry : sorted) {
+			Endpoint e = entry.getValue();
+			AbstractHistogram latency = e.getLatency();
+			out.println(String.format(Locale.ROOT, "  %-60s %7d %6d %10.1f %10.1f %10.1f %12.1f %12.1f", entry.getKey(), e.getCalls(), e.getFailures(),
+					millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(99)), millis(latency.getMaxValue()),
+					e.getBytesSent() / 1024.0, e.getBytesReceived() / 1024.0));
+		}
+	}
+
+	/**
+	 * Write the endpoints called to a file, in the Prometheus text format if it ends with .prom (JSON otherwise)
+	 */
+	public void write(File file) throws IOException {
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			if (file.getName().endsWith(".prom")) {
+				writePrometheus(out);
+			} else {
+				writeJson(out);
+			}
+		}
+	}
+
+	public void writeJson(PrintWriter out) {
+		JsonArray array = new JsonArray();
+		for (Map.Entry<String, Endpoint> entry : getEndpoints().entrySet()) {
+			Endpoint e = entry.getValue();
+			AbstractHistogram latency = e.getLatency();
+
+			JsonObject json = new JsonObject();
+			json.addProperty("endpoint", entry.getKey());
+			json.addProperty("calls", e.getCalls());
+			json.addProperty("failures", e.getFailures());
+			json.addProperty("bytesSent", e.getBytesSent());
+			json.addProperty("bytesReceived", e.getBytesReceived());
+			json.addProperty("totalMs", TimeUnit.NANOSECONDS.toMillis(e.getTotalNanos()));
+			json.addProperty("p50Ms", millis(latency.getValueAtPercentile(50)));
+			json.addProperty("p90Ms", millis(latency.getValueAtPercentile(90)));
+			json.addProperty("p99Ms", millis(latency.getValueAtPercentile(99)));
+			json.addProperty("maxMs", millis(latency.getMaxValue()));
+			array.add(json);
+		}
+
+		JsonObject root = new JsonObject();
+		root.add("endpoints", array);
+		out.println(new GsonBuilder().setPrettyPrinting().create().toJson(root));
+	}
+
+	public void writePrometheus(PrintWriter out) {
+		Map<String, Endpoint> snapshot = getEndpoints();
+
+		out.println("# HELP templatizer_nifi_requests_total Requests made against NiFi.");
+		out.println("# TYPE templatizer_nifi_requests_total counter");
+		snapshot.forEach((name, e) -> out.println("templatizer_nifi_requests_total" + labels(name, null) + " " + e.getCalls()));
+
+		out.println("# HELP templatizer_nifi_request_failures_total Requests against NiFi that failed or got an error response.");
+		out.println("# TYPE templatizer_nifi_request_failures_total counter");
+		snapshot.forEach((name, e) -> out.println("templatizer_nifi_request_failures_total" + labels(name, null) + " " + e.getFailures()));
+
+		out.println("# HELP templatizer_nifi_request_sent_bytes_total Bytes of request bodies sent to NiFi.");
+		out.println("# TYPE templatizer_nifi_request_sent_bytes_total counter");
+		snapshot.forEach((name, e) -> out.println("templatizer_nifi_request_sent_bytes_total" + labels(name, null) + " " + e.getBytesSent()));
+
+		out.println("# HELP templatizer_nifi_response_received_bytes_total Bytes of response bodies received from NiFi.");
+		out.println("# TYPE templatizer_nifi_response_received_bytes_total counter");
+		snapshot.forEach((name, e) -> out.println("templatizer_nifi_response_received_bytes_total" + labels(name, null) + " " + e.getBytesReceived()));
+
+		out.println("# HELP templatizer_nifi_request_duration_seconds Time until NiFi responded.");
+		out.println("# TYPE templatizer_nifi_request_duration_seconds summary");
+		snapshot.forEach((name, e) -> {
+			AbstractHistogram latency = e.getLatency();
+			for (String quantile : new String[] { "0.5", "0.9", "0.99", "1" }) {
+				long micros = "1".equals(quantile) ? latency.getMaxValue() : latency.getValueAtPercentile(Double.parseDouble(quantile) * 100);
+				out.println("templatizer_nifi_request_duration_seconds" + labels(name, quantile) + " " + seconds(micros));
+			}
+			out.println("templatizer_nifi_request_duration_seconds_sum" + labels(name, null) + " " + e.getTotalNanos() / 1e9);
+			out.println("templatizer_nifi_request_duration_seconds_count" + labels(name, null) + " " + e.getCalls());
+		});
+	}
+
+	private static String labels(String endpoint, String quantile) {
+		int space = endpoint.indexOf(' ');
+		StringBuilder labels = new StringBuilder("{method=\"").append(endpoint, 0, space)
+				.append("\",endpoint=\"").append(endpoint.substring(space + 1).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+		if (quantile != null) {
+			labels.append(",quantile=\"").append(quantile).append('"');
+		}
+		return labels.append('}').toString();
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+
+	private static double seconds(long micros) {
+		return micros / 1e6;
+	}
+
+	/**
+	 * Calls of a single endpoint
+	 */
+	public static class Endpoint {
+
+		private final AbstractHistogram latency = new ConcurrentHistogram(PRECISION);
+
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAdder bytesSent = new LongAdder();
+		private final LongAdder bytesReceived = new LongAdder();
+
+		private void record(long nanos, long sent, boolean successful) {
+			latency.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+			calls.increment();
+			totalNanos.add(nanos);
+			bytesSent.add(Math.max(0, sent));
+			if (!successful) {
+				failures.increment();
+			}
+		}
+
+		/**
+		 * @return copy of the latency histogram (microseconds)
+		 */
+		public AbstractHistogram getLatency() {
+			return latency.copy();
+		}
+
+		public long getCalls() {
+			return calls.sum();
+		}
+
+		public long getFailures() {
+			return failures.sum();
+		}
+
+		public long getTotalNanos() {
+			return totalNanos.sum();
+		}
+
+		public long getBytesSent() {
+			return bytesSent.sum();
+		}
+
+		public long getBytesReceived() {
+			return bytesReceived.sum();
+		}
+	}
+
+	/*
+	 * Counts the bytes of a response body as the API client reads it
+	 */
+	private static final class CountingBody extends ResponseBody {
+
+		private final ResponseBody body;
+		private final BufferedSource source;
+
+		private CountingBody(ResponseBody body, Endpoint endpoint) throws IOException {
+			this.body = body;
+			this.source = Okio.buffer(new ForwardingSource(body.source()) {
+				@Override
+				public long read(Buffer sink, long byteCount) throws IOException {
+					long read = super.read(sink, byteCount);
+					if (read > 0) {
+						endpoint.bytesReceived.add(read);
+					}
+					return read;
+				}
+			});
+		}
+
+		@Override
+		public MediaType contentType() {
+			return body.contentType();
+		}
+
+		@Override
+		public long contentLength() throws IOException {
+			return body.contentLength();
+		}
+
+		@Override
+		public BufferedSource source() {
+			return source;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package dev.nifi.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.nifi.api.toolkit.JSON;
+import org.apache.nifi.api.toolkit.model.ConnectionEntity;
+import org.apache.nifi.api.toolkit.model.ControllerServiceEntity;
+import org.apache.nifi.api.toolkit.model.FunnelEntity;
+import org.apache.nifi.api.toolkit.model.LabelEntity;
+import org.apache.nifi.api.toolkit.model.PortEntity;
+import org.apache.nifi.api.toolkit.model.ProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.ProcessorEntity;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.RevisionDTO;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.JsonElement;
+
+import dev.nifi.yml.HelperYML;
+
+/**
+ * Record of what every process group looked like the last time it was exported into a directory.
+ *
+ * Each process group id maps to a fingerprint of everything directly inside of it (revisions and
+ * configuration) and the hash of the template that was written for it. If neither has changed, the template
+ * on disk is still an accurate export of the process group.
+ */
+public class ExportManifest {
+
+	public static final String MANIFEST_FILE = ".export-manifest.json";
+
+	// Fields of component DTOs that change with the state of the flow rather than its configuration
+	private static final List<String> VOLATILE_FIELDS = Arrays.asList("flowRefreshed", "validationStatus", "validationErrors",
+			"authorizationIssues", "runningCount", "stoppedCount", "invalidCount", "disabledCount", "activeRemotePortCount",
+			"inactiveRemotePortCount", "upToDateCount", "locallyModifiedCount", "staleCount", "locallyModifiedAndStaleCount",
+			"syncFailureCount", "activeRemoteInputPortCount", "inactiveRemoteInputPortCount", "activeRemoteOutputPortCount",
+			"inactiveRemoteOutputPortCount");
+
+	/**
+	 * Process Group ID -> State of its last export
+	 */
+	public final Map<String, GroupState> groups = new TreeMap<>();
+
+	public static ExportManifest load(String directory) throws IOException {
+		File file = new File(directory, MANIFEST_FILE);
+		if (!file.isFile()) {
+			return new ExportManifest();
+		}
+		return new ObjectMapper().readValue(file, ExportManifest.class);
+	}
+
+	public void save(String directory) throws IOException {
+		new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(directory, MANIFEST_FILE), this);
+	}
+
+	/**
+	 * Check if the template on disk for a process group is still up to date
+	 *
+	 * @param processGroupId Process group (also the name of its template)
+	 * @param revision       Current fingerprint of the process group's revisions
+	 * @param template       Template file previously written for the process group
+	 */
+	public synchronized boolean isUnchanged(String processGroupId, String revision, File template) throws IOException {
+		GroupState state = groups.get(processGroupId);
+		if (state == null || !revision.equals(state.revision) || !template.isFile()) {
+			return false;
+		}
+
+		// Someone may have modified the template by hand since the last export
+		return HelperYML.hash(template).equals(state.hash);
+	}
+
+	public synchronized void update(String processGroupId, String revision, String hash) {
+		groups.put(processGroupId, new GroupState(revision, hash));
+	}
+
+	/**
+	 * Drop any process groups that no longer exist in the workspace
+	 */
+	public synchronized void retainAll(Collection<String> processGroupIds) {
+		groups.keySet().retainAll(processGroupIds);
+	}
+
+	/**
+	 * Fingerprint the components directly inside of a process group: their revisions and a hash of
+	 * their configuration. NiFi starts counting revisions from scratch when it restarts, so the
+	 * revisions alone could match a stale manifest after a restart. Any modification to any of the
+	 * components (or adding/removing one) will change the fingerprint.
+	 *
+	 * @param json Serializer of the toolkit's entities
+	 */
+	public static String fingerprint(ProcessGroupContents contents, JSON json) {
+		List<String> revisions = new ArrayList<>();
+
+		for (ProcessorEntity e : contents.processors) {
+			revisions.add(formatRevision(e.getId(), e.getRevision(), e.getComponent(), json));
+		}
+		for (ConnectionEntity e : contents.connections) {
+			revisions.add(formatRevision(e.getId(), e.getRevision(), e.getComponent(), json));
+		}
+		for (FunnelEntity e : contents.funnels) {
+			revisions.add(formatRevision(e.getId(), e.getRevision(), e.getComponent(), json));
+		}
+		for (ProcessGroupEntity e : contents.processGroups) {
+			revisions.add(formatRevision(e.getId(), e.getRevision(), e.getComponent(), json));
+		}
+		for (PortEntity e : contents.inputPorts) {
+			revisions.add(formatRevision(e.getId(), e.getRevision(), e.getComponent(), json));
+		}
+		for (PortEntity e : contents.outputPorts) {
+			revisions.add(formatRevision(e.getId(), e.getRevision(), e.getComponent(), json));
+		}
+		for (LabelEntity e : contents.labels) {
+			revisions.add(formatRevision(e.getId(), e.getRevision(), e.getComponent(), json));
+		}
+		for (RemoteProcessGroupEntity e : contents.remoteProcessGroups) {
+			revisions.add(formatRevision(e.getId(), e.getRevision(), e.getComponent(), json));
+		}
+		for (ControllerServiceEntity e : contents.controllerServices) {
+			revisions.add(formatRevision(e.getId(), e.getRevision(), e.getComponent(), json));
+		}
+
+		// Listing order isn't guaranteed by the API
+		revisions.sort(null);
+
+		return HelperYML.toHex(HelperYML.sha256().digest(String.join("\n", revisions).getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String formatRevision(String id, RevisionDTO revision, Object component, JSON json) {
+		return id + ":" + (revision != null ? revision.getVersion() : null) + ":" + contentHash(component, json);
+	}
+
+	/*
+	 * Hash of a component's configuration, without the status NiFi reports along with it
+	 */
+	private static String contentHash(Object component, JSON json) {
+		if (component == null) {
+			return null;
+		}
+
+		JsonElement tree = json.getGson().toJsonTree(component);
+		if (tree.isJsonObject()) {
+			for (String field : VOLATILE_FIELDS) {
+				tree.getAsJsonObject().remove(field);
+			}
+		}
+		return HelperYML.toHex(HelperYML.sha256().digest(tree.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	public static class GroupState {
+		/**
+		 * Fingerprint of the components inside the process group
+		 */
+		public String revision;
+
+		/**
+		 * Hash of the template that was written
+		 */
+		public String hash;
+
+		/**
+		 * Only for deserialization
+		 */
+		public GroupState() {}
+
+		public GroupState(String revision, String hash) {
+			this.revision = revision;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,394 @@
+package dev.nifi.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.nifi.api.toolkit.model.BatchSettingsDTO;
+import org.apache.nifi.api.toolkit.model.BundleDTO;
+import org.apache.nifi.api.toolkit.model.ConnectableDTO;
+import org.apache.nifi.api.toolkit.model.ConnectionDTO;
+import org.apache.nifi.api.toolkit.model.ConnectionEntity;
+import org.apache.nifi.api.toolkit.model.ControllerServiceDTO;
+import org.apache.nifi.api.toolkit.model.ControllerServiceEntity;
+import org.apache.nifi.api.toolkit.model.FunnelDTO;
+import org.apache.nifi.api.toolkit.model.FunnelEntity;
+import org.apache.nifi.api.toolkit.model.LabelDTO;
+import org.apache.nifi.api.toolkit.model.LabelEntity;
+import org.apache.nifi.api.toolkit.model.PortDTO;
+import org.apache.nifi.api.toolkit.model.PortEntity;
+import org.apache.nifi.api.toolkit.model.PositionDTO;
+import org.apache.nifi.api.toolkit.model.ProcessGroupDTO;
+import org.apache.nifi.api.toolkit.model.ProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.ProcessorConfigDTO;
+import org.apache.nifi.api.toolkit.model.ProcessorDTO;
+import org.apache.nifi.api.toolkit.model.ProcessorEntity;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupContentsDTO;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupDTO;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupPortDTO;
+
+import dev.nifi.yml.HelperYML;
+
+/**
+ * Reads a flow definition written by NiFi to disk (flow.xml.gz or flow.json.gz) without talking to NiFi.
+ *
+ * The definition is streamed, each process group is handed off as soon as it has been completely read
+ * (children before their parents) and then dropped. Only the direct contents of the process groups
+ * currently being read are ever held in memory.
+ *
+ * Components are converted into the same entities the REST API returns so the rest of the export
+ * doesn't need to know where they came from. Flow definitions don't contain property descriptors,
+ * so they are left out; defaults are only known for types found in a {@link TypeDefinitionCache}.
+ */
+public abstract class FlowDefinitionReader {
+
+	/**
+	 * Value NiFi's API reports in place of a sensitive property's value
+	 */
+	public static final String MASKED_VALUE = "********";
+
+	@FunctionalInterface
+	public interface GroupHandler {
+		void accept(ProcessGroupContents contents) throws IOException;
+	}
+
+	/**
+	 * Pick the reader for a flow definition based on its file name (*.json / *.json.gz, otherwise xml)
+	 */
+	public static FlowDefinitionReader forFile(File file) {
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".json") || name.endsWith(".json.gz")) {
+			return new FlowJsonReader();
+		}
+		return new FlowXmlReader();
+	}
+
+	/**
+	 * Stream every process group out of the flow definition, the root process group is always named "root"
+	 */
+	public void read(File file, GroupHandler handler) throws IOException {
+		InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), 64 * 1024);
+		try {
+			if (file.getName().toLowerCase().endsWith(".gz")) {
+				in = new GZIPInputStream(in, 64 * 1024);
+			}
+			read(in, handler);
+		} finally {
+			in.close();
+		}
+	}
+
+	protected abstract void read(InputStream in, GroupHandler handler) throws IOException;
+
+	/**
+	 * Hand off a completely read process group and register it with its parent (if any)
+	 *
+	 * @return the group as it should be listed in its parent
+	 */
+	protected ProcessGroupEntity finishGroup(GroupFrame frame, GroupFrame parent, GroupHandler handler) throws IOException {
+		ProcessGroupContents contents = new ProcessGroupContents(parent == null ? "root" : frame.id);
+		contents.processors = frame.processors;
+		contents.inputPorts = frame.inputPorts;
+		contents.outputPorts = frame.outputPorts;
+		contents.funnels = frame.funnels;
+		contents.labels = frame.labels;
+		contents.processGroups = frame.processGroups;
+		contents.remoteProcessGroups = frame.remoteProcessGroups;
+		contents.controllerServices = frame.controllerServices;
+		contents.connections = frame.connections;
+
+		for (ControllerServiceEntity controller : contents.controllerServices) {
+			controller.setParentGroupId(frame.id);
+			controller.getComponent().setParentGroupId(frame.id);
+		}
+
+		// Connections only reference ports by id, the templates reference them by name
+		for (ConnectionEntity connection : contents.connections) {
+			nameConnectable(connection.getComponent().getSource(), frame.portNames);
+			nameConnectable(connection.getComponent().getDestination(), frame.portNames);
+		}
+
+		handler.accept(contents);
+
+		ProcessGroupDTO dto = new ProcessGroupDTO();
+		dto.setId(frame.id);
+		dto.setName(frame.name);
+		dto.setComments(frame.comments);
+		dto.setPosition(frame.position);
+
+		ProcessGroupEntity pg = new ProcessGroupEntity();
+		pg.setId(frame.id);
+		pg.setPosition(frame.position);
+		pg.setComponent(dto);
+
+		if (parent != null) {
+			parent.processGroups.add(pg);
+
+			// The parent connects to this group through its ports
+			for (PortEntity port : frame.inputPorts) {
+				parent.portNames.put(port.getId(), port.getComponent().getName());
+			}
+			for (PortEntity port : frame.outputPorts) {
+				parent.portNames.put(port.getId(), port.getComponent().getName());
+			}
+		}
+
+		return pg;
+	}
+
+	private static void nameConnectable(ConnectableDTO connectable, Map<String, String> portNames) {
+		if (connectable.getName() == null) {
+			connectable.setName(portNames.get(connectable.getId()));
+		}
+	}
+
+	protected static PositionDTO position(Double x, Double y) {
+		PositionDTO position = new PositionDTO();
+		position.setX(x != null ? x : 0.0);
+		position.setY(y != null ? y : 0.0);
+		return position;
+	}
+
+	protected static BundleDTO bundle(String group, String artifact, String version) {
+		BundleDTO bundle = new BundleDTO();
+		bundle.setGroup(group);
+		bundle.setArtifact(artifact);
+		bundle.setVersion(version);
+		return bundle;
+	}
+
+	protected static Long parseLong(String value) {
+		return value != null && !value.isEmpty() ? Long.valueOf(value.trim()) : null;
+	}
+
+	protected static Integer parseInt(String value) {
+		return value != null && !value.isEmpty() ? Integer.valueOf(value.trim()) : null;
+	}
+
+	protected static Double parseDouble(String value) {
+		return value != null && !value.isEmpty() ? Double.valueOf(value.trim()) : null;
+	}
+
+	protected static boolean isEmpty(String value) {
+		return value == null || value.isEmpty();
+	}
+
+	/**
+	 * Everything read so far for a process group whose end hasn't been reached yet
+	 */
+	protected static class GroupFrame {
+		public String id;
+		public String name;
+		public String comments;
+		public PositionDTO position = position(0.0, 0.0);
+
+		public List<ProcessorEntity> processors = new ArrayList<>();
+		public List<ConnectionEntity> connections = new ArrayList<>();
+		public List<FunnelEntity> funnels = new ArrayList<>();
+		public List<ProcessGroupEntity> processGroups = new ArrayList<>();
+		public List<PortEntity> inputPorts = new ArrayList<>();
+		public List<PortEntity> outputPorts = new ArrayList<>();
+		public List<LabelEntity> labels = new ArrayList<>();
+		public List<RemoteProcessGroupEntity> remoteProcessGroups = new ArrayList<>();
+		public List<ControllerServiceEntity> controllerServices = new ArrayList<>();
+
+		// Port ID -> Name, for ports of child process groups and remote process groups
+		public final Map<String, String> portNames = new HashMap<>();
+	}
+
+	/*
+	 * Builders that fill in everything the YAML conversion expects to be present (like the API would)
+	 */
+
+	protected static ProcessorEntity newProcessor() {
+		ProcessorConfigDTO config = new ProcessorConfigDTO();
+		config.setProperties(new TreeMap<>());
+		config.setAutoTerminatedRelationships(new ArrayList<>());
+
+		ProcessorDTO dto = new ProcessorDTO();
+		dto.setStyle(new TreeMap<>());
+		dto.setConfig(config);
+
+		ProcessorEntity processor = new ProcessorEntity();
+		processor.setComponent(dto);
+		processor.setPosition(position(0.0, 0.0));
+		return processor;
+	}
+
+	protected static ProcessorEntity finishProcessor(ProcessorEntity processor) {
+		ProcessorDTO dto = processor.getComponent();
+		dto.setPosition(processor.getPosition());
+		return processor;
+	}
+
+	protected static ControllerServiceEntity newControllerService() {
+		ControllerServiceDTO dto = new ControllerServiceDTO();
+		dto.setProperties(new TreeMap<>());
+
+		ControllerServiceEntity controller = new ControllerServiceEntity();
+		controller.setComponent(dto);
+		return controller;
+	}
+
+	protected static ControllerServiceEntity finishControllerService(ControllerServiceEntity controller) {
+		ControllerServiceDTO dto = controller.getComponent();
+		controller.setId(dto.getId());
+		return controller;
+	}
+
+	protected static PortEntity newPort(String portType) {
+		PortDTO dto = new PortDTO();
+
+		PortEntity port = new PortEntity();
+		port.setPortType(portType);
+		port.setComponent(dto);
+		port.setPosition(position(0.0, 0.0));
+		return port;
+	}
+
+	protected static PortEntity finishPort(PortEntity port) {
+		port.setId(port.getComponent().getId());
+		port.getComponent().setPosition(port.getPosition());
+		return port;
+	}
+
+	protected static FunnelEntity newFunnel() {
+		FunnelEntity funnel = new FunnelEntity();
+		funnel.setComponent(new FunnelDTO());
+		funnel.setPosition(position(0.0, 0.0));
+		return funnel;
+	}
+
+	protected static FunnelEntity finishFunnel(FunnelEntity funnel) {
+		funnel.getComponent().setId(funnel.getId());
+		funnel.getComponent().setPosition(funnel.getPosition());
+		return funnel;
+	}
+
+	protected static LabelEntity newLabel() {
+		LabelDTO dto = new LabelDTO();
+		dto.setStyle(new TreeMap<>());
+		dto.setWidth(0.0);
+		dto.setHeight(0.0);
+
+		LabelEntity label = new LabelEntity();
+		label.setComponent(dto);
+		label.setPosition(position(0.0, 0.0));
+		return label;
+	}
+
+	protected static LabelEntity finishLabel(LabelEntity label) {
+		label.getComponent().setId(label.getId());
+		label.getComponent().setPosition(label.getPosition());
+		return label;
+	}
+
+	protected static RemoteProcessGroupEntity newRemoteProcessGroup() {
+		RemoteProcessGroupContentsDTO contents = new RemoteProcessGroupContentsDTO();
+		contents.setInputPorts(new ArrayList<>());
+		contents.setOutputPorts(new ArrayList<>());
+
+		RemoteProcessGroupDTO dto = new RemoteProcessGroupDTO();
+		dto.setTransportProtocol(HelperYML.DEFAULT_REMOTE_TRANSPORT);
+		dto.setCommunicationsTimeout(HelperYML.DEFAULT_REMOTE_TIMEOUT);
+		dto.setYieldDuration(HelperYML.DEFAULT_REMOTE_YIELD);
+		dto.setContents(contents);
+
+		RemoteProcessGroupEntity rpg = new RemoteProcessGroupEntity();
+		rpg.setComponent(dto);
+		rpg.setPosition(position(0.0, 0.0));
+		return rpg;
+	}
+
+	protected static RemoteProcessGroupEntity finishRemoteProcessGroup(RemoteProcessGroupEntity rpg, GroupFrame frame) {
+		RemoteProcessGroupDTO dto = rpg.getComponent();
+		rpg.setId(dto.getId());
+		dto.setPosition(rpg.getPosition());
+		if (isEmpty(dto.getTargetUris())) {
+			dto.setTargetUris(dto.getTargetUri());
+		}
+
+		// Connections to/from the remote process group reference its ports
+		for (RemoteProcessGroupPortDTO port : dto.getContents().getInputPorts()) {
+			frame.portNames.put(port.getId(), port.getName());
+		}
+		for (RemoteProcessGroupPortDTO port : dto.getContents().getOutputPorts()) {
+			frame.portNames.put(port.getId(), port.getName());
+		}
+		return rpg;
+	}
+
+	protected static RemoteProcessGroupPortDTO newRemotePort() {
+		RemoteProcessGroupPortDTO port = new RemoteProcessGroupPortDTO();
+		port.setBatchSettings(new BatchSettingsDTO());
+		port.setUseCompression(false);
+		return port;
+	}
+
+	protected static ConnectionEntity newConnection() {
+		ConnectionDTO dto = new ConnectionDTO();
+		dto.setSource(new ConnectableDTO());
+		dto.setDestination(new ConnectableDTO());
+		dto.setSelectedRelationships(new ArrayList<>());
+		dto.setPrioritizers(new ArrayList<>());
+		dto.setBends(new ArrayList<>());
+		dto.setBackPressureObjectThreshold((long) HelperYML.DEFAULT_BACK_PRESSURE_OBJECT_THRESHOLD);
+		dto.setBackPressureDataSizeThreshold(HelperYML.DEFAULT_BACK_PRESSURE_DATA_SIZE_THRESHOLD);
+		dto.setFlowFileExpiration(HelperYML.DEFAULT_FLOW_FILE_EXPIRATION_SEC);
+		dto.setLoadBalanceStrategy(HelperYML.DEFAULT_LOAD_BALANCE_STRATEGY);
+		dto.setLoadBalanceCompression(HelperYML.DEFAULT_LOAD_BALANCE_COMPRESSION);
+		dto.setLabelIndex(1);
+
+		ConnectionEntity connection = new ConnectionEntity();
+		connection.setComponent(dto);
+		return connection;
+	}
+
+	protected static ConnectionEntity finishConnection(ConnectionEntity connection) {
+		ConnectionDTO dto = connection.getComponent();
+		connection.setId(dto.getId());
+		connection.setBends(dto.getBends());
+		connection.setLabelIndex(dto.getLabelIndex());
+
+		ConnectableDTO source = dto.getSource();
+		connection.setSourceId(source.getId());
+		connection.setSourceGroupId(source.getGroupId());
+		connection.setSourceType(source.getType() != null ? ConnectionEntity.SourceTypeEnum.valueOf(source.getType().name()) : null);
+
+		ConnectableDTO destination = dto.getDestination();
+		connection.setDestinationId(destination.getId());
+		connection.setDestinationGroupId(destination.getGroupId());
+		connection.setDestinationType(destination.getType() != null ? ConnectionEntity.DestinationTypeEnum.valueOf(destination.getType().name()) : null);
+		return connection;
+	}
+
+	/*
+	 * The API never reports the default z-index of a connection, leave it out so offline exports match
+	 */
+	protected static Long zIndex(Long zIndex) {
+		return zIndex != null && zIndex != 0L ? zIndex : null;
+	}
+
+	protected static ConnectableDTO.TypeEnum connectableType(String type) {
+		return isEmpty(type) ? null : ConnectableDTO.TypeEnum.valueOf(type);
+	}
+
+	/*
+	 * Encrypted values are of no use outside of the NiFi instance they came from, report them the same way the API would
+	 */
+	protected static String maskEncrypted(String value) {
+		if (value != null && value.startsWith("enc{") && value.endsWith("}")) {
+			return MASKED_VALUE;
+		}
+		return value;
+	}
+}
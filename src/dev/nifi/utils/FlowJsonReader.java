@@ -0,0 +1,411 @@
+package dev.nifi.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.nifi.api.toolkit.model.BundleDTO;
+import org.apache.nifi.api.toolkit.model.ConnectableDTO;
+import org.apache.nifi.api.toolkit.model.ConnectionDTO;
+import org.apache.nifi.api.toolkit.model.ConnectionDTO.LoadBalanceCompressionEnum;
+import org.apache.nifi.api.toolkit.model.ConnectionDTO.LoadBalanceStrategyEnum;
+import org.apache.nifi.api.toolkit.model.ConnectionEntity;
+import org.apache.nifi.api.toolkit.model.ControllerServiceDTO;
+import org.apache.nifi.api.toolkit.model.ControllerServiceEntity;
+import org.apache.nifi.api.toolkit.model.FunnelEntity;
+import org.apache.nifi.api.toolkit.model.LabelDTO;
+import org.apache.nifi.api.toolkit.model.LabelEntity;
+import org.apache.nifi.api.toolkit.model.PortDTO;
+import org.apache.nifi.api.toolkit.model.PortEntity;
+import org.apache.nifi.api.toolkit.model.PositionDTO;
+import org.apache.nifi.api.toolkit.model.ProcessorConfigDTO;
+import org.apache.nifi.api.toolkit.model.ProcessorDTO;
+import org.apache.nifi.api.toolkit.model.ProcessorEntity;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupDTO;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupPortDTO;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Streams a flow.json(.gz) with Jackson. Process groups are walked with the streaming parser,
+ * only a single component at a time is ever read into a tree.
+ */
+public class FlowJsonReader extends FlowDefinitionReader {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@Override
+	protected void read(InputStream in, GroupHandler handler) throws IOException {
+		try (JsonParser json = mapper.getFactory().createParser(in)) {
+			if (json.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Flow definition is not a JSON object");
+			}
+
+			while (json.nextToken() == JsonToken.FIELD_NAME) {
+				String field = json.getCurrentName();
+				json.nextToken();
+				if ("rootGroup".equals(field)) {
+					readGroup(json, null, handler);
+				} else {
+					json.skipChildren();
+				}
+			}
+		}
+	}
+
+	private void readGroup(JsonParser json, GroupFrame parent, GroupHandler handler) throws IOException {
+		GroupFrame frame = new GroupFrame();
+
+		while (json.nextToken() == JsonToken.FIELD_NAME) {
+			String field = json.getCurrentName();
+			json.nextToken();
+
+			switch (field) {
+			case "identifier":
+				frame.id = json.getValueAsString();
+				break;
+			case "name":
+				frame.name = json.getValueAsString();
+				break;
+			case "comments":
+				frame.comments = json.getValueAsString();
+				break;
+			case "position":
+				frame.position = position(json.readValueAsTree());
+				break;
+			case "processGroups":
+				while (nextElement(json)) {
+					readGroup(json, frame, handler);
+				}
+				break;
+			case "processors":
+				while (nextElement(json)) {
+					frame.processors.add(readProcessor(json.readValueAsTree()));
+				}
+				break;
+			case "inputPorts":
+				while (nextElement(json)) {
+					frame.inputPorts.add(readPort(json.readValueAsTree()));
+				}
+				break;
+			case "outputPorts":
+				while (nextElement(json)) {
+					frame.outputPorts.add(readPort(json.readValueAsTree()));
+				}
+				break;
+			case "labels":
+				while (nextElement(json)) {
+					frame.labels.add(readLabel(json.readValueAsTree()));
+				}
+				break;
+			case "funnels":
+				while (nextElement(json)) {
+					frame.funnels.add(readFunnel(json.readValueAsTree()));
+				}
+				break;
+			case "remoteProcessGroups":
+				while (nextElement(json)) {
+					frame.remoteProcessGroups.add(readRemoteProcessGroup(json.readValueAsTree(), frame));
+				}
+				break;
+			case "connections":
+				while (nextElement(json)) {
+					frame.connections.add(readConnection(json.readValueAsTree()));
+				}
+				break;
+			case "controllerServices":
+				while (nextElement(json)) {
+					frame.controllerServices.add(readControllerService(json.readValueAsTree()));
+				}
+				break;
+			default:
+				json.skipChildren();
+			}
+		}
+
+		finishGroup(frame, parent, handler);
+	}
+
+	private ProcessorEntity readProcessor(JsonNode node) {
+		ProcessorEntity processor = newProcessor();
+		ProcessorDTO dto = processor.getComponent();
+		ProcessorConfigDTO config = dto.getConfig();
+
+		processor.setId(text(node, "identifier"));
+		processor.setPosition(position(node.get("position")));
+		dto.setId(processor.getId());
+		dto.setName(text(node, "name"));
+		dto.setType(text(node, "type"));
+		dto.setBundle(bundle(node.get("bundle")));
+		readMap(node.get("style"), dto.getStyle());
+
+		config.setComments(text(node, "comments"));
+		config.setSchedulingPeriod(text(node, "schedulingPeriod"));
+		config.setSchedulingStrategy(text(node, "schedulingStrategy"));
+		config.setExecutionNode(text(node, "executionNode"));
+		config.setPenaltyDuration(text(node, "penaltyDuration"));
+		config.setYieldDuration(text(node, "yieldDuration"));
+		config.setBulletinLevel(text(node, "bulletinLevel"));
+		config.setRunDurationMillis(parseLong(text(node, "runDurationMillis")));
+		config.setConcurrentlySchedulableTaskCount(parseInt(text(node, "concurrentlySchedulableTaskCount")));
+		config.setAnnotationData(text(node, "annotationData"));
+		readProperties(node, config.getProperties());
+
+		JsonNode terminated = node.get("autoTerminatedRelationships");
+		if (terminated != null) {
+			for (JsonNode relationship : terminated) {
+				config.getAutoTerminatedRelationships().add(relationship.asText());
+			}
+		}
+
+		return finishProcessor(processor);
+	}
+
+	private PortEntity readPort(JsonNode node) {
+		PortEntity port = newPort(text(node, "type"));
+		PortDTO dto = port.getComponent();
+
+		port.setPosition(position(node.get("position")));
+		dto.setId(text(node, "identifier"));
+		dto.setName(text(node, "name"));
+		dto.setComments(text(node, "comments"));
+		dto.setConcurrentlySchedulableTaskCount(parseInt(text(node, "concurrentlySchedulableTaskCount")));
+
+		return finishPort(port);
+	}
+
+	private LabelEntity readLabel(JsonNode node) {
+		LabelEntity label = newLabel();
+		LabelDTO dto = label.getComponent();
+
+		label.setId(text(node, "identifier"));
+		label.setPosition(position(node.get("position")));
+		dto.setLabel(text(node, "label"));
+		if (node.hasNonNull("width")) {
+			dto.setWidth(node.get("width").asDouble());
+		}
+		if (node.hasNonNull("height")) {
+			dto.setHeight(node.get("height").asDouble());
+		}
+		readMap(node.get("style"), dto.getStyle());
+
+		return finishLabel(label);
+	}
+
+	private FunnelEntity readFunnel(JsonNode node) {
+		FunnelEntity funnel = newFunnel();
+
+		funnel.setId(text(node, "identifier"));
+		funnel.setPosition(position(node.get("position")));
+
+		return finishFunnel(funnel);
+	}
+
+	private RemoteProcessGroupEntity readRemoteProcessGroup(JsonNode node, GroupFrame frame) {
+		RemoteProcessGroupEntity rpg = newRemoteProcessGroup();
+		RemoteProcessGroupDTO dto = rpg.getComponent();
+
+		rpg.setPosition(position(node.get("position")));
+		dto.setId(text(node, "identifier"));
+		dto.setName(text(node, "name"));
+		dto.setComments(text(node, "comments"));
+		dto.setTargetUri(text(node, "targetUri"));
+		dto.setTargetUris(text(node, "targetUris"));
+		dto.setLocalNetworkInterface(text(node, "localNetworkInterface"));
+		dto.setProxyHost(text(node, "proxyHost"));
+		dto.setProxyPort(parseInt(text(node, "proxyPort")));
+		dto.setProxyUser(text(node, "proxyUser"));
+		dto.setProxyPassword(maskEncrypted(text(node, "proxyPassword")));
+		if (node.hasNonNull("communicationsTimeout")) {
+			dto.setCommunicationsTimeout(text(node, "communicationsTimeout"));
+		}
+		if (node.hasNonNull("yieldDuration")) {
+			dto.setYieldDuration(text(node, "yieldDuration"));
+		}
+		if (node.hasNonNull("transportProtocol")) {
+			dto.setTransportProtocol(text(node, "transportProtocol"));
+		}
+
+		JsonNode inputs = node.get("inputPorts");
+		if (inputs != null) {
+			for (JsonNode port : inputs) {
+				dto.getContents().getInputPorts().add(readRemotePort(port, dto.getId()));
+			}
+		}
+		JsonNode outputs = node.get("outputPorts");
+		if (outputs != null) {
+			for (JsonNode port : outputs) {
+				dto.getContents().getOutputPorts().add(readRemotePort(port, dto.getId()));
+			}
+		}
+
+		return finishRemoteProcessGroup(rpg, frame);
+	}
+
+	private RemoteProcessGroupPortDTO readRemotePort(JsonNode node, String remoteGroupId) {
+		RemoteProcessGroupPortDTO port = newRemotePort();
+
+		port.setId(text(node, "identifier"));
+		port.setGroupId(remoteGroupId);
+		port.setTargetId(text(node, "targetId"));
+		port.setName(text(node, "name"));
+		port.setComments(text(node, "comments"));
+		port.setConcurrentlySchedulableTaskCount(parseInt(text(node, "concurrentlySchedulableTaskCount")));
+		if (node.hasNonNull("useCompression")) {
+			port.setUseCompression(node.get("useCompression").asBoolean());
+		}
+
+		JsonNode batch = node.get("batchSize");
+		if (batch != null) {
+			port.getBatchSettings().setCount(parseInt(text(batch, "count")));
+			port.getBatchSettings().setSize(text(batch, "size"));
+			port.getBatchSettings().setDuration(text(batch, "duration"));
+		}
+
+		return port;
+	}
+
+	private ConnectionEntity readConnection(JsonNode node) {
+		ConnectionEntity connection = newConnection();
+		ConnectionDTO dto = connection.getComponent();
+
+		dto.setId(text(node, "identifier"));
+		dto.setName(text(node, "name"));
+		readConnectable(node.get("source"), dto.getSource());
+		readConnectable(node.get("destination"), dto.getDestination());
+
+		if (node.hasNonNull("labelIndex")) {
+			dto.setLabelIndex(node.get("labelIndex").asInt());
+		}
+		if (node.hasNonNull("zIndex")) {
+			dto.setGetzIndex(zIndex(node.get("zIndex").asLong()));
+		}
+		if (node.hasNonNull("backPressureObjectThreshold")) {
+			dto.setBackPressureObjectThreshold(node.get("backPressureObjectThreshold").asLong());
+		}
+		if (node.hasNonNull("backPressureDataSizeThreshold")) {
+			dto.setBackPressureDataSizeThreshold(text(node, "backPressureDataSizeThreshold"));
+		}
+		if (node.hasNonNull("flowFileExpiration")) {
+			dto.setFlowFileExpiration(text(node, "flowFileExpiration"));
+		}
+		if (node.hasNonNull("loadBalanceStrategy")) {
+			dto.setLoadBalanceStrategy(LoadBalanceStrategyEnum.valueOf(text(node, "loadBalanceStrategy")));
+		}
+		if (node.hasNonNull("loadBalanceCompression")) {
+			dto.setLoadBalanceCompression(LoadBalanceCompressionEnum.valueOf(text(node, "loadBalanceCompression")));
+		}
+		dto.setLoadBalancePartitionAttribute(text(node, "partitioningAttribute"));
+
+		JsonNode relationships = node.get("selectedRelationships");
+		if (relationships != null) {
+			for (JsonNode relationship : relationships) {
+				if (!isEmpty(relationship.asText())) {
+					dto.getSelectedRelationships().add(relationship.asText());
+				}
+			}
+		}
+		JsonNode prioritizers = node.get("prioritizers");
+		if (prioritizers != null) {
+			for (JsonNode prioritizer : prioritizers) {
+				dto.getPrioritizers().add(prioritizer.asText());
+			}
+		}
+		JsonNode bends = node.get("bends");
+		if (bends != null) {
+			for (JsonNode bend : bends) {
+				dto.getBends().add(position(bend));
+			}
+		}
+
+		return finishConnection(connection);
+	}
+
+	private ControllerServiceEntity readControllerService(JsonNode node) {
+		ControllerServiceEntity controller = newControllerService();
+		ControllerServiceDTO dto = controller.getComponent();
+
+		dto.setId(text(node, "identifier"));
+		dto.setName(text(node, "name"));
+		dto.setComments(text(node, "comments"));
+		dto.setType(text(node, "type"));
+		dto.setBundle(bundle(node.get("bundle")));
+		dto.setAnnotationData(text(node, "annotationData"));
+		readProperties(node, dto.getProperties());
+
+		return finishControllerService(controller);
+	}
+
+	private static void readConnectable(JsonNode node, ConnectableDTO connectable) {
+		if (node == null) {
+			return;
+		}
+		connectable.setId(text(node, "id"));
+		connectable.setGroupId(text(node, "groupId"));
+		connectable.setName(text(node, "name"));
+		connectable.setType(connectableType(text(node, "type")));
+	}
+
+	/*
+	 * Property values with their sensitive values masked (the descriptors say which ones are sensitive)
+	 */
+	private static void readProperties(JsonNode node, Map<String, String> properties) {
+		readMap(node.get("properties"), properties);
+
+		JsonNode descriptors = node.get("propertyDescriptors");
+		for (Map.Entry<String, String> property : properties.entrySet()) {
+			JsonNode descriptor = descriptors != null ? descriptors.get(property.getKey()) : null;
+			boolean sensitive = descriptor != null && descriptor.path("sensitive").asBoolean(false);
+			if (sensitive && property.getValue() != null) {
+				property.setValue(MASKED_VALUE);
+			} else {
+				property.setValue(maskEncrypted(property.getValue()));
+			}
+		}
+	}
+
+	private static void readMap(JsonNode node, Map<String, String> map) {
+		if (node == null) {
+			return;
+		}
+		Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+		while (fields.hasNext()) {
+			Map.Entry<String, JsonNode> field = fields.next();
+			map.put(field.getKey(), field.getValue().isNull() ? null : field.getValue().asText());
+		}
+	}
+
+	private static PositionDTO position(JsonNode node) {
+		if (node == null) {
+			return position(0.0, 0.0);
+		}
+		return position(node.path("x").asDouble(), node.path("y").asDouble());
+	}
+
+	private static BundleDTO bundle(JsonNode node) {
+		if (node == null) {
+			return null;
+		}
+		return bundle(text(node, "group"), text(node, "artifact"), text(node, "version"));
+	}
+
+	private static String text(JsonNode node, String field) {
+		JsonNode value = node.get(field);
+		return value == null || value.isNull() ? null : value.asText();
+	}
+
+	/*
+	 * Move to the next element of the array currently being read, false once the array ends
+	 */
+	private static boolean nextElement(JsonParser json) throws IOException {
+		if (json.getCurrentToken() == JsonToken.VALUE_NULL) {
+			return false;
+		}
+		return json.nextToken() == JsonToken.START_OBJECT;
+	}
+}
@@ -0,0 +1,591 @@
+package dev.nifi.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.nifi.api.toolkit.model.BundleDTO;
+import org.apache.nifi.api.toolkit.model.ConnectableDTO;
+import org.apache.nifi.api.toolkit.model.ConnectionDTO;
+import org.apache.nifi.api.toolkit.model.ConnectionDTO.LoadBalanceCompressionEnum;
+import org.apache.nifi.api.toolkit.model.ConnectionDTO.LoadBalanceStrategyEnum;
+import org.apache.nifi.api.toolkit.model.ConnectionEntity;
+import org.apache.nifi.api.toolkit.model.ControllerServiceDTO;
+import org.apache.nifi.api.toolkit.model.ControllerServiceEntity;
+import org.apache.nifi.api.toolkit.model.FunnelEntity;
+import org.apache.nifi.api.toolkit.model.LabelDTO;
+import org.apache.nifi.api.toolkit.model.LabelEntity;
+import org.apache.nifi.api.toolkit.model.PortDTO;
+import org.apache.nifi.api.toolkit.model.PortEntity;
+import org.apache.nifi.api.toolkit.model.PositionDTO;
+import org.apache.nifi.api.toolkit.model.ProcessorConfigDTO;
+import org.apache.nifi.api.toolkit.model.ProcessorDTO;
+import org.apache.nifi.api.toolkit.model.ProcessorEntity;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupDTO;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupPortDTO;
+
+import dev.nifi.yml.HelperYML;
+
+/**
+ * Streams a flow.xml(.gz) with StAX
+ */
+public class FlowXmlReader extends FlowDefinitionReader {
+
+	@Override
+	protected void read(InputStream in, GroupHandler handler) throws IOException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		try {
+			XMLStreamReader xml = factory.createXMLStreamReader(in);
+			try {
+				// <flowController>
+				xml.nextTag();
+				while (nextChild(xml)) {
+					if ("rootGroup".equals(xml.getLocalName())) {
+						readGroup(xml, null, handler);
+					} else {
+						skip(xml);
+					}
+				}
+			} finally {
+				xml.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to read flow definition", e);
+		}
+	}
+
+	private void readGroup(XMLStreamReader xml, GroupFrame parent, GroupHandler handler) throws XMLStreamException, IOException {
+		GroupFrame frame = new GroupFrame();
+
+		while (nextChild(xml)) {
+			switch (xml.getLocalName()) {
+			case "id":
+				frame.id = text(xml);
+				break;
+			case "name":
+				frame.name = text(xml);
+				break;
+			case "comment":
+				frame.comments = text(xml);
+				break;
+			case "position":
+				frame.position = readPosition(xml);
+				break;
+			case "processor":
+				frame.processors.add(readProcessor(xml));
+				break;
+			case "inputPort":
+				frame.inputPorts.add(readPort(xml, HelperYML.ReservedComponents.INPUT_PORT.name()));
+				break;
+			case "outputPort":
+				frame.outputPorts.add(readPort(xml, HelperYML.ReservedComponents.OUTPUT_PORT.name()));
+				break;
+			case "label":
+				frame.labels.add(readLabel(xml));
+				break;
+			case "funnel":
+				frame.funnels.add(readFunnel(xml));
+				break;
+			case "processGroup":
+				readGroup(xml, frame, handler);
+				break;
+			case "remoteProcessGroup":
+				frame.remoteProcessGroups.add(readRemoteProcessGroup(xml, frame));
+				break;
+			case "connection":
+				frame.connections.add(readConnection(xml));
+				break;
+			case "controllerService":
+				frame.controllerServices.add(readControllerService(xml));
+				break;
+			default:
+				skip(xml);
+			}
+		}
+
+		finishGroup(frame, parent, handler);
+	}
+
+	private ProcessorEntity readProcessor(XMLStreamReader xml) throws XMLStreamException {
+		ProcessorEntity processor = newProcessor();
+		ProcessorDTO dto = processor.getComponent();
+		ProcessorConfigDTO config = dto.getConfig();
+
+		while (nextChild(xml)) {
+			switch (xml.getLocalName()) {
+			case "id":
+				processor.setId(text(xml));
+				dto.setId(processor.getId());
+				break;
+			case "name":
+				dto.setName(text(xml));
+				break;
+			case "position":
+				processor.setPosition(readPosition(xml));
+				break;
+			case "styles":
+				readStyles(xml, dto.getStyle());
+				break;
+			case "comment":
+				config.setComments(text(xml));
+				break;
+			case "class":
+				dto.setType(text(xml));
+				break;
+			case "bundle":
+				dto.setBundle(readBundle(xml));
+				break;
+			case "maxConcurrentTasks":
+				config.setConcurrentlySchedulableTaskCount(parseInt(text(xml)));
+				break;
+			case "schedulingPeriod":
+				config.setSchedulingPeriod(text(xml));
+				break;
+			case "penalizationPeriod":
+				config.setPenaltyDuration(text(xml));
+				break;
+			case "yieldPeriod":
+				config.setYieldDuration(text(xml));
+				break;
+			case "bulletinLevel":
+				config.setBulletinLevel(text(xml));
+				break;
+			case "schedulingStrategy":
+				config.setSchedulingStrategy(text(xml));
+				break;
+			case "executionNode":
+				config.setExecutionNode(text(xml));
+				break;
+			case "runDurationNanos":
+				Long nanos = parseLong(text(xml));
+				config.setRunDurationMillis(nanos != null ? nanos / 1000000L : null);
+				break;
+			case "property":
+				readProperty(xml, config.getProperties());
+				break;
+			case "annotationData":
+				config.setAnnotationData(text(xml));
+				break;
+			case "autoTerminatedRelationship":
+				config.getAutoTerminatedRelationships().add(text(xml));
+				break;
+			default:
+				skip(xml);
+			}
+		}
+
+		return finishProcessor(processor);
+	}
+
+	private PortEntity readPort(XMLStreamReader xml, String portType) throws XMLStreamException {
+		PortEntity port = newPort(portType);
+		PortDTO dto = port.getComponent();
+
+		while (nextChild(xml)) {
+			switch (xml.getLocalName()) {
+			case "id":
+				dto.setId(text(xml));
+				break;
+			case "name":
+				dto.setName(text(xml));
+				break;
+			case "position":
+				port.setPosition(readPosition(xml));
+				break;
+			case "comments":
+				dto.setComments(text(xml));
+				break;
+			case "maxConcurrentTasks":
+				dto.setConcurrentlySchedulableTaskCount(parseInt(text(xml)));
+				break;
+			default:
+				skip(xml);
+			}
+		}
+
+		return finishPort(port);
+	}
+
+	private LabelEntity readLabel(XMLStreamReader xml) throws XMLStreamException {
+		LabelEntity label = newLabel();
+		LabelDTO dto = label.getComponent();
+
+		while (nextChild(xml)) {
+			switch (xml.getLocalName()) {
+			case "id":
+				label.setId(text(xml));
+				break;
+			case "position":
+				label.setPosition(readPosition(xml));
+				break;
+			case "size":
+				dto.setWidth(parseDouble(xml.getAttributeValue(null, "width")));
+				dto.setHeight(parseDouble(xml.getAttributeValue(null, "height")));
+				skip(xml);
+				break;
+			case "styles":
+				readStyles(xml, dto.getStyle());
+				break;
+			case "value":
+				dto.setLabel(text(xml));
+				break;
+			default:
+				skip(xml);
+			}
+		}
+
+		return finishLabel(label);
+	}
+
+	private FunnelEntity readFunnel(XMLStreamReader xml) throws XMLStreamException {
+		FunnelEntity funnel = newFunnel();
+
+		while (nextChild(xml)) {
+			switch (xml.getLocalName()) {
+			case "id":
+				funnel.setId(text(xml));
+				break;
+			case "position":
+				funnel.setPosition(readPosition(xml));
+				break;
+			default:
+				skip(xml);
+			}
+		}
+
+		return finishFunnel(funnel);
+	}
+
+	private RemoteProcessGroupEntity readRemoteProcessGroup(XMLStreamReader xml, GroupFrame frame) throws XMLStreamException {
+		RemoteProcessGroupEntity rpg = newRemoteProcessGroup();
+		RemoteProcessGroupDTO dto = rpg.getComponent();
+
+		while (nextChild(xml)) {
+			switch (xml.getLocalName()) {
+			case "id":
+				dto.setId(text(xml));
+				break;
+			case "name":
+				dto.setName(text(xml));
+				break;
+			case "position":
+				rpg.setPosition(readPosition(xml));
+				break;
+			case "comment":
+				dto.setComments(text(xml));
+				break;
+			case "url":
+				dto.setTargetUri(text(xml));
+				break;
+			case "urls":
+				dto.setTargetUris(text(xml));
+				break;
+			case "timeout":
+				dto.setCommunicationsTimeout(text(xml));
+				break;
+			case "yieldPeriod":
+				dto.setYieldDuration(text(xml));
+				break;
+			case "transportProtocol":
+				dto.setTransportProtocol(text(xml));
+				break;
+			case "proxyHost":
+				dto.setProxyHost(text(xml));
+				break;
+			case "proxyPort":
+				dto.setProxyPort(parseInt(text(xml)));
+				break;
+			case "proxyUser":
+				dto.setProxyUser(text(xml));
+				break;
+			case "proxyPassword":
+				dto.setProxyPassword(maskEncrypted(text(xml)));
+				break;
+			case "networkInterface":
+				dto.setLocalNetworkInterface(text(xml));
+				break;
+			case "inputPort":
+				dto.getContents().getInputPorts().add(readRemotePort(xml, dto.getId()));
+				break;
+			case "outputPort":
+				dto.getContents().getOutputPorts().add(readRemotePort(xml, dto.getId()));
+				break;
+			default:
+				skip(xml);
+			}
+		}
+
+		return finishRemoteProcessGroup(rpg, frame);
+	}
+
+	private RemoteProcessGroupPortDTO readRemotePort(XMLStreamReader xml, String remoteGroupId) throws XMLStreamException {
+		RemoteProcessGroupPortDTO port = newRemotePort();
+		port.setGroupId(remoteGroupId);
+
+		while (nextChild(xml)) {
+			switch (xml.getLocalName()) {
+			case "id":
+				port.setId(text(xml));
+				break;
+			case "targetId":
+				port.setTargetId(text(xml));
+				break;
+			case "name":
+				port.setName(text(xml));
+				break;
+			case "comments":
+				port.setComments(text(xml));
+				break;
+			case "maxConcurrentTasks":
+				port.setConcurrentlySchedulableTaskCount(parseInt(text(xml)));
+				break;
+			case "useCompression":
+				port.setUseCompression(Boolean.valueOf(text(xml)));
+				break;
+			case "batchCount":
+				port.getBatchSettings().setCount(parseInt(text(xml)));
+				break;
+			case "batchSize":
+				port.getBatchSettings().setSize(emptyToNull(text(xml)));
+				break;
+			case "batchDuration":
+				port.getBatchSettings().setDuration(emptyToNull(text(xml)));
+				break;
+			default:
+				skip(xml);
+			}
+		}
+
+		return port;
+	}
+
+	private ConnectionEntity readConnection(XMLStreamReader xml) throws XMLStreamException {
+		ConnectionEntity connection = newConnection();
+		ConnectionDTO dto = connection.getComponent();
+		ConnectableDTO source = dto.getSource();
+		ConnectableDTO destination = dto.getDestination();
+
+		while (nextChild(xml)) {
+			switch (xml.getLocalName()) {
+			case "id":
+				dto.setId(text(xml));
+				break;
+			case "name":
+				dto.setName(text(xml));
+				break;
+			case "bendPoints":
+				while (nextChild(xml)) {
+					dto.getBends().add(readPosition(xml));
+				}
+				break;
+			case "labelIndex":
+				dto.setLabelIndex(parseInt(text(xml)));
+				break;
+			case "zIndex":
+				dto.setGetzIndex(zIndex(parseLong(text(xml))));
+				break;
+			case "sourceId":
+				source.setId(text(xml));
+				break;
+			case "sourceGroupId":
+				source.setGroupId(text(xml));
+				break;
+			case "sourceType":
+				source.setType(connectableType(text(xml)));
+				break;
+			case "destinationId":
+				destination.setId(text(xml));
+				break;
+			case "destinationGroupId":
+				destination.setGroupId(text(xml));
+				break;
+			case "destinationType":
+				destination.setType(connectableType(text(xml)));
+				break;
+			case "relationship":
+				// Ports and funnels connect with an unnamed relationship
+				String relationship = text(xml);
+				if (!isEmpty(relationship)) {
+					dto.getSelectedRelationships().add(relationship);
+				}
+				break;
+			case "maxWorkQueueSize":
+				dto.setBackPressureObjectThreshold(parseLong(text(xml)));
+				break;
+			case "maxWorkQueueDataSize":
+				dto.setBackPressureDataSizeThreshold(text(xml));
+				break;
+			case "flowFileExpiration":
+				dto.setFlowFileExpiration(text(xml));
+				break;
+			case "queuePrioritizerClass":
+				dto.getPrioritizers().add(text(xml));
+				break;
+			case "loadBalanceStrategy":
+				dto.setLoadBalanceStrategy(LoadBalanceStrategyEnum.valueOf(text(xml)));
+				break;
+			case "partitioningAttribute":
+				dto.setLoadBalancePartitionAttribute(text(xml));
+				break;
+			case "loadBalanceCompression":
+				dto.setLoadBalanceCompression(LoadBalanceCompressionEnum.valueOf(text(xml)));
+				break;
+			default:
+				skip(xml);
+			}
+		}
+
+		return finishConnection(connection);
+	}
+
+	private ControllerServiceEntity readControllerService(XMLStreamReader xml) throws XMLStreamException {
+		ControllerServiceEntity controller = newControllerService();
+		ControllerServiceDTO dto = controller.getComponent();
+
+		while (nextChild(xml)) {
+			switch (xml.getLocalName()) {
+			case "id":
+				dto.setId(text(xml));
+				break;
+			case "name":
+				dto.setName(text(xml));
+				break;
+			case "comment":
+				dto.setComments(text(xml));
+				break;
+			case "class":
+				dto.setType(text(xml));
+				break;
+			case "bundle":
+				dto.setBundle(readBundle(xml));
+				break;
+			case "property":
+				readProperty(xml, dto.getProperties());
+				break;
+			case "annotationData":
+				dto.setAnnotationData(text(xml));
+				break;
+			default:
+				skip(xml);
+			}
+		}
+
+		return finishControllerService(controller);
+	}
+
+	/*
+	 * <property><name>...</name><value>...</value></property>, the value is left out when not set
+	 */
+	private void readProperty(XMLStreamReader xml, Map<String, String> properties) throws XMLStreamException {
+		String name = null;
+		String value = null;
+		while (nextChild(xml)) {
+			switch (xml.getLocalName()) {
+			case "name":
+				name = text(xml);
+				break;
+			case "value":
+				value = maskEncrypted(text(xml));
+				break;
+			default:
+				skip(xml);
+			}
+		}
+		if (name != null) {
+			properties.put(name, value);
+		}
+	}
+
+	/*
+	 * <styles><style name="...">value</style></styles>
+	 */
+	private void readStyles(XMLStreamReader xml, Map<String, String> styles) throws XMLStreamException {
+		while (nextChild(xml)) {
+			String name = xml.getAttributeValue(null, "name");
+			String value = text(xml);
+			if (name != null) {
+				styles.put(name, value);
+			}
+		}
+	}
+
+	/*
+	 * <bundle><group/><artifact/><version/></bundle>
+	 */
+	private BundleDTO readBundle(XMLStreamReader xml) throws XMLStreamException {
+		String[] bundle = new String[3];
+		while (nextChild(xml)) {
+			switch (xml.getLocalName()) {
+			case "group":
+				bundle[0] = text(xml);
+				break;
+			case "artifact":
+				bundle[1] = text(xml);
+				break;
+			case "version":
+				bundle[2] = text(xml);
+				break;
+			default:
+				skip(xml);
+			}
+		}
+		return bundle(bundle[0], bundle[1], bundle[2]);
+	}
+
+	/*
+	 * <position x="..." y="..."/>
+	 */
+	private PositionDTO readPosition(XMLStreamReader xml) throws XMLStreamException {
+		PositionDTO position = position(parseDouble(xml.getAttributeValue(null, "x")), parseDouble(xml.getAttributeValue(null, "y")));
+		skip(xml);
+		return position;
+	}
+
+	/*
+	 * Move to the next child element of the current element, false once the current element ends
+	 */
+	private static boolean nextChild(XMLStreamReader xml) throws XMLStreamException {
+		while (xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			}
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private static String text(XMLStreamReader xml) throws XMLStreamException {
+		return xml.getElementText();
+	}
+
+	/*
+	 * Skip past the end of the current element (and everything inside of it)
+	 */
+	private static void skip(XMLStreamReader xml) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private static String emptyToNull(String value) {
+		return isEmpty(value) ? null : value;
+	}
+}
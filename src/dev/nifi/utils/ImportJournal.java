@@ -0,0 +1,257 @@
+package dev.nifi.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only record of everything an import created, so a failed import can be resumed instead of
+ * cleared and started over (see {@link #replay(Path, ObjectTracker)}).
+ *
+ * Records are single tab separated lines:
+ *  - ID    groupId oldId newId version  (component created from the template)
+ *  - NAME  groupId name  type  newId    (port created, looked up by name when connecting to its process group)
+ *
+ * Records are synced to disk in batches (every {@link #BATCH_SIZE} records or {@link #BATCH_DELAY_MS}
+ * milliseconds, whichever comes first), so a crash loses at most the last batch. Components of a lost
+ * batch are created again on resume. A line torn by a crash is dropped when the journal is replayed.
+ * Once a sync failed the journal is broken: every following record (and close) fails with that error.
+ */
+public class ImportJournal implements Closeable {
+
+	public static final String DEFAULT_FILE_NAME = ".templatizer-import.journal";
+
+	private static final int BATCH_SIZE = 64;
+	private static final long BATCH_DELAY_MS = 50;
+	private static final long CLOSE_TIMEOUT_MS = 5000;
+
+	private static final String ID_RECORD = "ID";
+	private static final String NAME_RECORD = "NAME";
+
+	private final FileChannel channel;
+	private final ScheduledExecutorService syncer;
+
+	// Records written since the last sync
+	private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+	private int batchSize;
+
+	// First failed sync, the journal can't be trusted after a partial write
+	private IOException failure;
+
+	private ImportJournal(FileChannel channel) {
+		this.channel = channel;
+		this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "import-journal");
+			thread.setDaemon(true);
+			return thread;
+		});
+		syncer.scheduleWithFixedDelay(() -> {
+			try {
+				sync();
+			} catch (IOException e) {
+				// Remembered as the failure, reported by the next record or close
+			}
+		}, BATCH_DELAY_MS, BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param file   Journal file
+	 * @param append Keep the records already in the journal (resume), otherwise start an empty journal
+	 */
+	public static ImportJournal open(Path file, boolean append) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if (append) {
+			// Drop a record torn by a crash, new records must start on a line of their own
+			channel.truncate(validLength(file));
+			channel.position(channel.size());
+		} else {
+			channel.truncate(0);
+		}
+		return new ImportJournal(channel);
+	}
+
+	/**
+	 * Restore everything recorded in a journal into a tracker
+	 *
+	 * @return number of components restored (0 if there is no journal)
+	 */
+	public static int replay(Path file, ObjectTracker tracker) throws IOException {
+		int restored = 0;
+		for (String[] record : read(file)) {
+			if (ID_RECORD.equals(record[0]) && record.length == 5) {
+				tracker.track(record[1], record[2], record[3]);
+				restored++;
+			} else if (NAME_RECORD.equals(record[0]) && record.length == 5) {
+				tracker.track(record[1], record[2], record[3], record[4]);
+			}
+		}
+		return restored;
+	}
+
+	public void recordId(String groupId, String oldId, String newId, Long version) {
+		append(ID_RECORD, groupId, oldId, newId, version != null ? version.toString() : "");
+	}
+
+	public void recordName(String groupId, String name, String type, String newId) {
+		append(NAME_RECORD, groupId, name, type, newId);
+	}
+
+	private synchronized void append(String... fields) {
+		if (failure != null) {
+			throw new UncheckedIOException(broken());
+		}
+
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) {
+				line.append('\t');
+			}
+			escape(fields[i], line);
+		}
+		line.append('\n');
+
+		byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+		batch.write(bytes, 0, bytes.length);
+		if (++batchSize >= BATCH_SIZE) {
+			try {
+				sync();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Write and sync all records of the current batch
+	 */
+	public synchronized void sync() throws IOException {
+		if (failure != null) {
+			throw broken();
+		}
+		if (batchSize == 0) {
+			return;
+		}
+
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			failure = e;
+			throw e;
+		}
+
+		batch.reset();
+		batchSize = 0;
+	}
+
+	/**
+	 * Wait for a background sync that is already running, then sync the last batch
+	 */
+	@Override
+	public void close() throws IOException {
+		// Interrupting the syncer would close the channel (it is interruptible) and lose the last batch
+		syncer.shutdown();
+		boolean interrupted = false;
+		try {
+			syncer.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			interrupted = true;
+		}
+
+		// The same goes for this thread, it is only interrupted again once the last batch is written
+		try {
+			sync();
+		} finally {
+			channel.close();
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private IOException broken() {
+		return new IOException("Import journal can no longer be written: " + failure.getMessage(), failure);
+	}
+
+	private static List<String[]> read(Path file) throws IOException {
+		List<String[]> records = new ArrayList<>();
+		if (!Files.exists(file)) {
+			return records;
+		}
+
+		String contents = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		int start = 0;
+		for (int end = contents.indexOf('\n'); end >= 0; end = contents.indexOf('\n', start)) {
+			String[] fields = contents.substring(start, end).split("\t", -1);
+			for (int i = 0; i < fields.length; i++) {
+				fields[i] = unescape(fields[i]);
+			}
+			records.add(fields);
+			start = end + 1;
+		}
+		return records;
+	}
+
+	/*
+	 * Length of the journal up to (and including) the last complete line
+	 */
+	private static long validLength(Path file) throws IOException {
+		byte[] contents = Files.readAllBytes(file);
+		int end = contents.length;
+		while (end > 0 && contents[end - 1] != '\n') {
+			end--;
+		}
+		return end;
+	}
+
+	private static void escape(String value, StringBuilder out) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\\': out.append("\\\\"); break;
+			case '\t': out.append("\\t"); break;
+			case '\n': out.append("\\n"); break;
+			case '\r': out.append("\\r"); break;
+			default: out.append(c);
+			}
+		}
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+
+		StringBuilder out = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				switch (next) {
+				case 't': out.append('\t'); break;
+				case 'n': out.append('\n'); break;
+				case 'r': out.append('\r'); break;
+				default: out.append(next);
+				}
+			} else {
+				out.append(c);
+			}
+		}
+		return out.toString();
+	}
+}
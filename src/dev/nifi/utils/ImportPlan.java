@@ -0,0 +1,257 @@
+package dev.nifi.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Dependency graph of all operations (create/update/connect) needed to import a set of templates.
+ * An operation may only run once every operation it depends on has completed, operations without
+ * a path between them can run at the same time (see {@link ImportScheduler}).
+ */
+public class ImportPlan {
+
+	private final List<Operation> operations = new ArrayList<>();
+
+	/**
+	 * Add an operation to the plan
+	 *
+	 * @param description  Human readable description (used in errors)
+	 * @param cost         Estimated number of requests the operation makes
+	 * @param action       Work to do once all dependencies are done
+	 * @param dependencies Operations that must complete first (null entries are ignored)
+	 * @return the new operation, so later operations can depend on it
+	 */
+	public Operation add(String description, int cost, ApiCall<?> action, Operation... dependencies) {
+		Operation op = new Operation(operations.size(), description, cost, action);
+		for (Operation dependency : dependencies) {
+			op.dependOn(dependency);
+		}
+		operations.add(op);
+		return op;
+	}
+
+	public List<Operation> getOperations() {
+		return Collections.unmodifiableList(operations);
+	}
+
+	public int size() {
+		return operations.size();
+	}
+
+	/**
+	 * Compute the critical path of every operation: its own cost plus the most expensive chain of
+	 * operations waiting on it. Running the operations with the longest remaining chain first keeps
+	 * the total import time close to the length of the longest chain. The number of calls along the
+	 * longest chain is computed along the way (see {@link #getLongestChainCalls()}).
+	 *
+	 * @throws IllegalStateException if the operations depend on each other in a cycle
+	 */
+	public void computeCriticalPaths() {
+		// Kahn's algorithm for a topological order, then walk it backwards
+		Map<Operation, Integer> pending = new HashMap<>();
+		Deque<Operation> ready = new ArrayDeque<>();
+		for (Operation op : operations) {
+			pending.put(op, op.dependencies.size());
+			if (op.dependencies.isEmpty()) {
+				ready.add(op);
+			}
+		}
+
+		List<Operation> order = new ArrayList<>(operations.size());
+		while (!ready.isEmpty()) {
+			Operation op = ready.poll();
+			order.add(op);
+			for (Operation dependent : op.dependents) {
+				if (pending.merge(dependent, -1, Integer::sum) == 0) {
+					ready.add(dependent);
+				}
+			}
+		}
+
+		if (order.size() != operations.size()) {
+			throw new IllegalStateException("Import plan contains a dependency cycle");
+		}
+
+		for (int i = order.size() - 1; i >= 0; i--) {
+			Operation op = order.get(i);
+			long longest = 0;
+			long longestCalls = 0;
+			for (Operation dependent : op.dependents) {
+				longest = Math.max(longest, dependent.criticalPath);
+				longestCalls = Math.max(longestCalls, dependent.chainCalls);
+			}
+			op.criticalPath = op.cost + longest;
+			op.chainCalls = op.getCallCount() + longestCalls;
+		}
+	}
+
+	/**
+	 * @return cost of the most expensive chain of operations in the plan (after computeCriticalPaths)
+	 */
+	public long getCriticalPathLength() {
+		long longest = 0;
+		for (Operation op : operations) {
+			longest = Math.max(longest, op.criticalPath);
+		}
+		return longest;
+	}
+
+	/**
+	 * @return most REST calls (as recorded with {@link Operation#calls(String, int)}) made one after
+	 *         another by a chain of operations in the plan (after computeCriticalPaths)
+	 */
+	public long getLongestChainCalls() {
+		long longest = 0;
+		for (Operation op : operations) {
+			longest = Math.max(longest, op.chainCalls);
+		}
+		return longest;
+	}
+
+	/**
+	 * @return estimated number of requests of all operations combined
+	 */
+	public long getTotalCost() {
+		long total = 0;
+		for (Operation op : operations) {
+			total += op.cost;
+		}
+		return total;
+	}
+
+	/**
+	 * @return number of expected REST calls per endpoint (method + path) of all operations combined
+	 */
+	public Map<String, Integer> getCallsPerEndpoint() {
+		Map<String, Integer> calls = new TreeMap<>();
+		for (Operation op : operations) {
+			for (Map.Entry<String, Integer> call : op.calls.entrySet()) {
+				calls.merge(call.getKey(), call.getValue(), Integer::sum);
+			}
+		}
+		return calls;
+	}
+
+	public static final class Operation {
+
+		// Insertion order, breaks ties between operations with the same critical path
+		private final int index;
+		private final String description;
+		private final int cost;
+		private final ApiCall<?> action;
+
+		// Called once the dependencies are done, the operation is only ready when its future completes
+		private Supplier<CompletableFuture<?>> readyWhen;
+
+		private final Set<Operation> dependencies = new LinkedHashSet<>();
+		private final Set<Operation> dependents = new LinkedHashSet<>();
+
+		// Endpoint (method + path) -> Number of calls the operation is expected to make
+		private final Map<String, Integer> calls = new LinkedHashMap<>();
+
+		private long criticalPath;
+		private long chainCalls;
+
+		private Operation(int index, String description, int cost, ApiCall<?> action) {
+			this.index = index;
+			this.description = description;
+			this.cost = cost;
+			this.action = action;
+		}
+
+		/**
+		 * Add another operation that must complete before this one can run
+		 */
+		public void dependOn(Operation dependency) {
+			if (dependency != null && dependency != this) {
+				dependencies.add(dependency);
+				dependency.dependents.add(this);
+			}
+		}
+
+		/**
+		 * Hold the operation back after its dependencies are done until something outside the plan has
+		 * happened (like a remote process group finding its remote ports), without a worker waiting for it.
+		 * If the future completes exceptionally, the operation fails with that exception.
+		 *
+		 * @param condition Called once the dependencies are done, returns the future to wait for
+		 * @return this operation, so calls can be chained
+		 */
+		public Operation readyWhen(Supplier<CompletableFuture<?>> condition) {
+			this.readyWhen = condition;
+			return this;
+		}
+
+		/**
+		 * Record REST calls the operation is expected to make (only used to describe the plan)
+		 *
+		 * @return this operation, so calls can be chained
+		 */
+		public Operation calls(String endpoint, int count) {
+			if (count > 0) {
+				calls.merge(endpoint, count, Integer::sum);
+			}
+			return this;
+		}
+
+		public Map<String, Integer> getCalls() {
+			return Collections.unmodifiableMap(calls);
+		}
+
+		public int getCallCount() {
+			int count = 0;
+			for (int endpointCalls : calls.values()) {
+				count += endpointCalls;
+			}
+			return count;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public int getCost() {
+			return cost;
+		}
+
+		public ApiCall<?> getAction() {
+			return action;
+		}
+
+		public Supplier<CompletableFuture<?>> getReadyWhen() {
+			return readyWhen;
+		}
+
+		public Set<Operation> getDependencies() {
+			return Collections.unmodifiableSet(dependencies);
+		}
+
+		public Set<Operation> getDependents() {
+			return Collections.unmodifiableSet(dependents);
+		}
+
+		public long getCriticalPath() {
+			return criticalPath;
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package dev.nifi.utils;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.nifi.api.toolkit.ApiException;
+
+import dev.nifi.utils.ImportPlan.Operation;
+
+/**
+ * Runs the operations of an {@link ImportPlan} as soon as their dependencies are done, with at most
+ * a fixed number of operations in flight. When more operations are ready than can run, the ones on
+ * the longest remaining chain (critical path) go first. Operations with a readiness condition (see
+ * {@link Operation#readyWhen}) only take up a worker once that condition has completed.
+ *
+ * All bookkeeping happens on the calling thread, the worker threads only run the operations.
+ */
+public class ImportScheduler {
+
+	// Longest critical path first, then in the order operations were planned
+	private static final Comparator<Operation> PRIORITY = Comparator
+			.comparingLong(Operation::getCriticalPath).reversed()
+			.thenComparingInt(Operation::getIndex);
+
+	private final int maxInFlight;
+
+	private int completed;
+	private int peakInFlight;
+
+	/**
+	 * @param maxInFlight Maximum number of operations running at once
+	 */
+	public ImportScheduler(int maxInFlight) {
+		this.maxInFlight = Math.max(1, maxInFlight);
+	}
+
+	/**
+	 * Run every operation in the plan. After the first failure no new operations are started, the
+	 * ones already running are waited on and then the failure is rethrown with the description of
+	 * the operation that failed (an ApiException stays an ApiException).
+	 */
+	public void run(ImportPlan plan) throws ApiException {
+		plan.computeCriticalPaths();
+
+		completed = 0;
+		peakInFlight = 0;
+
+		// Finished operations, and operations whose readiness condition completed
+		BlockingQueue<Future<Operation>> finished = new LinkedBlockingQueue<>();
+		Set<Future<Operation>> waiting = new HashSet<>();
+
+		Map<Operation, Integer> pending = new HashMap<>();
+		PriorityQueue<Operation> ready = new PriorityQueue<>(PRIORITY);
+		for (Operation op : plan.getOperations()) {
+			pending.put(op, op.getDependencies().size());
+			if (op.getDependencies().isEmpty()) {
+				release(op, ready, waiting, finished);
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxInFlight, Math.max(1, plan.size())));
+		ExecutorCompletionService<Operation> completions = new ExecutorCompletionService<>(executor, finished);
+		try {
+			Throwable failure = null;
+			int inFlight = 0;
+
+			while (true) {
+				while (failure == null && inFlight < maxInFlight && !ready.isEmpty()) {
+					Operation op = ready.poll();
+					completions.submit(() -> {
+						try {
+							op.getAction().call();
+						} catch (ApiException | RuntimeException e) {
+							throw failed(op, e);
+						}
+						return op;
+					});
+					inFlight++;
+				}
+				peakInFlight = Math.max(peakInFlight, inFlight);
+
+				// Nothing that is still waiting will be started after a failure
+				if (inFlight == 0 && (waiting.isEmpty() || failure != null)) {
+					break;
+				}
+
+				Future<Operation> done = finished.take();
+				boolean condition = waiting.remove(done);
+				if (!condition) {
+					inFlight--;
+				}
+				try {
+					Operation op = done.get();
+					if (condition) {
+						ready.add(op);
+						continue;
+					}
+					completed++;
+
+					for (Operation dependent : op.getDependents()) {
+						if (pending.merge(dependent, -1, Integer::sum) == 0) {
+							release(dependent, ready, waiting, finished);
+						}
+					}
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				}
+			}
+
+			if (failure != null) {
+				throw ConcurrentUtils.rethrowApiException(failure);
+			}
+			if (completed != plan.size()) {
+				throw new IllegalStateException(String.format("Only %d of %d import operations could run", completed, plan.size()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while importing", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/*
+	 * Make an operation whose dependencies are done ready, or wait for its readiness condition first
+	 * (the condition's future ends up in the finished queue, so no thread is blocked on it)
+	 */
+	private static void release(Operation op, PriorityQueue<Operation> ready, Set<Future<Operation>> waiting,
+			BlockingQueue<Future<Operation>> finished) {
+		if (op.getReadyWhen() == null) {
+			ready.add(op);
+			return;
+		}
+
+		CompletableFuture<Operation> released = new CompletableFuture<>();
+		waiting.add(released);
+		try {
+			op.getReadyWhen().get().whenComplete((result, t) -> {
+				if (t != null) {
+					released.completeExceptionally(failed(op, t));
+				} else {
+					released.complete(op);
+				}
+				finished.add(released);
+			});
+		} catch (RuntimeException e) {
+			released.completeExceptionally(failed(op, e));
+			finished.add(released);
+		}
+	}
+
+	/*
+	 * Say which operation failed, a plan has hundreds of them (NiFi's response is kept)
+	 */
+	private static Exception failed(Operation op, Throwable t) {
+		Throwable cause = t;
+		while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+
+		String message = op.getDescription() + " failed: " + (cause.getMessage() != null ? cause.getMessage() : cause);
+		if (cause instanceof ApiException) {
+			ApiException e = (ApiException) cause;
+			return new ApiException(message, e, e.getCode(), e.getResponseHeaders(), e.getResponseBody());
+		}
+		return new IllegalStateException(message, cause);
+	}
+
+	/**
+	 * Estimate how long running the plan would take without running anything: the scheduler is
+	 * simulated with every operation taking its cost times the given latency.
+	 *
+	 * @param costNanos Nanoseconds per unit of cost (roughly the latency of a single request)
+	 * @return estimated wall-clock nanoseconds
+	 */
+	public long estimate(ImportPlan plan, long costNanos) {
+		plan.computeCriticalPaths();
+
+		Map<Operation, Integer> pending = new HashMap<>();
+		PriorityQueue<Operation> ready = new PriorityQueue<>(PRIORITY);
+		for (Operation op : plan.getOperations()) {
+			pending.put(op, op.getDependencies().size());
+			if (op.getDependencies().isEmpty()) {
+				ready.add(op);
+			}
+		}
+
+		// Running operations by the time they finish
+		Map<Operation, Long> finishes = new HashMap<>();
+		PriorityQueue<Operation> running = new PriorityQueue<>(Comparator.comparingLong(finishes::get));
+		long now = 0;
+
+		while (true) {
+			while (running.size() < maxInFlight && !ready.isEmpty()) {
+				Operation op = ready.poll();
+				finishes.put(op, now + op.getCost() * costNanos);
+				running.add(op);
+			}
+
+			if (running.isEmpty()) {
+				break;
+			}
+
+			Operation op = running.poll();
+			now = finishes.get(op);
+			for (Operation dependent : op.getDependents()) {
+				if (pending.merge(dependent, -1, Integer::sum) == 0) {
+					ready.add(dependent);
+				}
+			}
+		}
+
+		return now;
+	}
+
+	/**
+	 * @return number of operations that completed during the last run
+	 */
+	public int getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return most operations that were running at the same time during the last run
+	 */
+	public int getPeakInFlight() {
+		return peakInFlight;
+	}
+}
@@ -1,15 +1,25 @@
 package dev.nifi.utils;
 
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.Set;
 import java.util.UUID;
 
 import org.apache.nifi.api.toolkit.ApiClient;
 import org.apache.nifi.api.toolkit.ApiException;
+import org.apache.nifi.api.toolkit.api.ConnectionsApi;
+import org.apache.nifi.api.toolkit.api.ControllerServicesApi;
+import org.apache.nifi.api.toolkit.api.FunnelApi;
+import org.apache.nifi.api.toolkit.api.InputPortsApi;
+import org.apache.nifi.api.toolkit.api.LabelsApi;
+import org.apache.nifi.api.toolkit.api.OutputPortsApi;
 import org.apache.nifi.api.toolkit.api.ProcessGroupsApi;
+import org.apache.nifi.api.toolkit.api.ProcessorsApi;
 import org.apache.nifi.api.toolkit.api.RemoteProcessGroupsApi;
 import org.apache.nifi.api.toolkit.model.*;
 import org.apache.nifi.api.toolkit.model.ConnectableDTO.TypeEnum;
@@ -17,53 +27,188 @@ import org.apache.nifi.api.toolkit.model.ConnectionDTO.LoadBalanceCompressionEnu
 import org.apache.nifi.api.toolkit.model.ConnectionDTO.LoadBalanceStrategyEnum;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 
 import dev.nifi.xml.*;
 import dev.nifi.yml.*;
 import dev.nifi.yml.HelperYML.ReservedComponents;
 
+/**
+ * Creates (or updates existing) NiFi components from their YAML representation. Each builder creates components inside a
+ * single process group, use {@link #enterProcessGroup(String, Map, ControllerReferences)} to get the builder of a child group.
+ * Builders only share the (thread-safe) tracker, so separate process groups can be built concurrently.
+ */
 public class ObjectBuilder {
 
 	private final String clientId;
 	private final ProcessGroupsApi processGroupAPI;
+	private final ProcessorsApi processorAPI;
 	private final RemoteProcessGroupsApi remoteProcessGroupAPI;
-	
-	// Stack of ProcessGroups that are being dealt with and the variables that are local to that stack only
-	private final Stack<ProcessGroupStackElement> processGroupStack = new Stack<ProcessGroupStackElement>();
+	private final ControllerServicesApi controllerServiceAPI;
+	private final ConnectionsApi connectionAPI;
+	private final InputPortsApi inputPortAPI;
+	private final OutputPortsApi outputPortAPI;
+	private final LabelsApi labelAPI;
+	private final FunnelApi funnelAPI;
 	
 	// Global object tracker
-	private final ObjectTracker tracker = new ObjectTracker();
+	private final ObjectTracker tracker;
+	
+	// Relationships of processor types (shared by all process groups)
+	private final TypeDefinitionCache typeCache;
+	
+	// Builder of the enclosing process group (null at the top level)
+	private final ObjectBuilder parent;
+	
+	// Process group that components are created in
+	private final String processGroupId;
+	
+	// Canonical type name -> (Type, Bundle)
+	private final Map<String, Pair<String, BundleDTO>> dependencies;
+	
+	// Properties of the template that reference controller services
+	private final ControllerReferences references;
 	
 	public ObjectBuilder(ApiClient apiClient, String clientId) {
+		this(apiClient, clientId, new TypeDefinitionCache());
+	}
+	
+	/**
+	 * @param typeCache Relationships of processor types known up front, new types are added as processors are created
+	 */
+	public ObjectBuilder(ApiClient apiClient, String clientId, TypeDefinitionCache typeCache) {
 		this.clientId = clientId;
 		
 		processGroupAPI = new ProcessGroupsApi(apiClient);
+		processorAPI = new ProcessorsApi(apiClient);
 		remoteProcessGroupAPI = new RemoteProcessGroupsApi(apiClient);
+		controllerServiceAPI = new ControllerServicesApi(apiClient);
+		connectionAPI = new ConnectionsApi(apiClient);
+		inputPortAPI = new InputPortsApi(apiClient);
+		outputPortAPI = new OutputPortsApi(apiClient);
+		labelAPI = new LabelsApi(apiClient);
+		funnelAPI = new FunnelApi(apiClient);
+		tracker = new ObjectTracker();
+		this.typeCache = typeCache;
+		
+		parent = null;
+		processGroupId = null;
+		dependencies = Collections.emptyMap();
+		references = ControllerReferences.NONE;
 	}
 	
-	public void enterProcessGroup(String processGroupId) {
-		this.processGroupStack.push(new ProcessGroupStackElement(processGroupId));
+	private ObjectBuilder(ObjectBuilder parent, String processGroupId, Map<String, Pair<String, BundleDTO>> dependencies, 
+			ControllerReferences references) {
+		this.clientId = parent.clientId;
+		this.processGroupAPI = parent.processGroupAPI;
+		this.processorAPI = parent.processorAPI;
+		this.remoteProcessGroupAPI = parent.remoteProcessGroupAPI;
+		this.controllerServiceAPI = parent.controllerServiceAPI;
+		this.connectionAPI = parent.connectionAPI;
+		this.inputPortAPI = parent.inputPortAPI;
+		this.outputPortAPI = parent.outputPortAPI;
+		this.labelAPI = parent.labelAPI;
+		this.funnelAPI = parent.funnelAPI;
+		this.tracker = parent.tracker;
+		this.typeCache = parent.typeCache;
+		
+		this.parent = parent;
+		this.processGroupId = processGroupId;
+		this.dependencies = dependencies;
+		this.references = references;
 	}
 	
-	public String leaveProcessGroup() {
-		return this.processGroupStack.pop().id;
+	/**
+	 * @param processGroupId Process group the new builder creates components in
+	 * @param depLookup      Canonical type name -> (Type, Bundle) of the template being imported into the group
+	 * @param references     Properties of the template that reference controller services
+	 * @return builder for the contents of the process group
+	 */
+	public ObjectBuilder enterProcessGroup(String processGroupId, Map<String, Pair<String, BundleDTO>> depLookup, 
+			ControllerReferences references) {
+		return new ObjectBuilder(this, processGroupId, depLookup, references);
 	}
 	
-	public void setDependenciesLookup(Map<String, Pair<String, BundleDTO>> depLookup) {
-		this.processGroupStack.peek().dependencies = depLookup;
+	public String getProcessGroupId() {
+		return processGroupId;
 	}
 	
-	public String getProcessGroupId() {
-		return processGroupStack.peek().id;
+	public ObjectTracker getTracker() {
+		return tracker;
+	}
+	
+	/**
+	 * @return whether a component of the template was already created in this process group (or restored from an import journal)
+	 */
+	public boolean isCreated(String oldId) {
+		return tracker.lookupByOldId(processGroupId, oldId) != null;
+	}
+	
+	/**
+	 * Connections have no id in the templates, they are tracked by their position in the inputs of their destination
+	 */
+	public static String connectionKey(ElementYML destination, InputConnectionYML input) {
+		int index = 0;
+		while (index < destination.inputs.size() && destination.inputs.get(index) != input) {
+			index++;
+		}
+		return destination.id + "/inputs/" + index;
 	}
 	
 	public Pair<String, BundleDTO> lookup(String canonicalName) {
-		return processGroupStack.peek().dependencies.get(canonicalName);
+		return dependencies.get(canonicalName);
 	}
 
+	/**
+	 * Find the new id of a component created from the template, components of the enclosing
+	 * process groups are visible too (controller services can be used by child groups)
+	 */
 	public String getNewId(String id) {
-		return tracker.lookupByOldId(id);
+		for (ObjectBuilder builder = this; builder.parent != null; builder = builder.parent) {
+			String newId = tracker.lookupByOldId(builder.processGroupId, id);
+			if (newId != null) {
+				return newId;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Track a component that already exists rather than being created (sync), so components
+	 * created later can still reference/connect to it by its id from the template
+	 */
+	public void trackExisting(ElementYML ele, String existingId) {
+		tracker.track(getProcessGroupId(), ele.id, existingId);
+		
+		// Ports are also looked up by name when connecting to the process group they are in
+		if (HelperYML.isPort(ele.getType())) {
+			tracker.track(getProcessGroupId(), ele.name, ele.getType(), existingId);
+		}
+	}
+	
+	public void trackExisting(ControllerYML controller, String existingId) {
+		tracker.track(getProcessGroupId(), controller.id, existingId);
+	}
+	
+	/**
+	 * Track the remote ports (name -> id) of a remote process group that already exists (sync)
+	 * 
+	 * @param rpg Detailed version of the remote process group (port contents included)
+	 */
+	public void trackRemotePorts(RemoteProcessGroupEntity rpg) {
+		RemoteProcessGroupContentsDTO contents = rpg.getComponent().getContents();
+		if (contents == null) {
+			return;
+		}
+		if (contents.getInputPorts() != null) {
+			for (RemoteProcessGroupPortDTO port : contents.getInputPorts()) {
+				tracker.track(rpg.getId(), port.getName(), ReservedComponents.INPUT_PORT.name(), port.getId());
+			}
+		}
+		if (contents.getOutputPorts() != null) {
+			for (RemoteProcessGroupPortDTO port : contents.getOutputPorts()) {
+				tracker.track(rpg.getId(), port.getName(), ReservedComponents.OUTPUT_PORT.name(), port.getId());
+			}
+		}
 	}
 	
 	public ControllerServiceEntity makeControllerService(ControllerYML controller) throws ApiException {
@@ -80,17 +225,14 @@ public class ObjectBuilder {
 		dto.setName(controller.name);
 		
 		if (controller.properties != null) {
-			Map<String, String> props = new HashMap<String, String>();
-			for (String key : controller.properties.keySet()) {
-				props.put(key, controller.properties.get(key).toString());
-			}
-			dto.setProperties(props);
+			// Controller services may reference other controller services
+			dto.setProperties(resolveReferences(controller.id, controller.properties));
 		}
 		
 		ControllerServiceEntity response = processGroupAPI.createControllerService(getProcessGroupId(), cont);
 		
 		// Track the newly created controller (old id -> new id)
-		tracker.track(controller.id, response.getId());
+		tracker.track(getProcessGroupId(), controller.id, response.getId(), response.getRevision().getVersion());
 		
 		return response;
 	}
@@ -106,7 +248,7 @@ public class ObjectBuilder {
 		FunnelEntity response = processGroupAPI.createFunnel(getProcessGroupId(), funnel);
 
 		// Track the newly created funnel (old id -> new id)
-		tracker.track(ele.id, response.getId());
+		tracker.track(getProcessGroupId(), ele.id, response.getId(), response.getRevision().getVersion());
 		
 		return response;
 	}
@@ -127,7 +269,7 @@ public class ObjectBuilder {
 		ProcessGroupEntity response = processGroupAPI.updateProcessGroup(newProcessGroup.getId(), newProcessGroup);
 
 		// Track the newly created processgroup (old id -> new id)
-		tracker.track(ele.id, response.getId());
+		tracker.track(getProcessGroupId(), ele.id, response.getId(), response.getRevision().getVersion());
 		
 		return newProcessGroup;
 	}
@@ -190,30 +332,18 @@ public class ObjectBuilder {
 		
 		
 		// Track the newly created remote process group (old id -> new id)
-		tracker.track(ele.id, response.getId());
+		tracker.track(getProcessGroupId(), ele.id, response.getId(), response.getRevision().getVersion());
 		
 		return response;
 	}
 	
-	public void configureRemoteProcessGroupPorts(ElementYML ele, long maximumPollDuration) throws ApiException {
-		String newId = tracker.lookupByOldId(ele.id);
-		
-		long startTime = System.nanoTime();
-		RemoteProcessGroupEntity response = null;
-		
-		while ((System.nanoTime() - startTime) < maximumPollDuration) {
-			response = remoteProcessGroupAPI.getRemoteProcessGroup(newId);
-			
-			// If the flowrefreshed value has been set, all remote port info should be populated
-			if (response != null && response.getComponent() != null && response.getComponent().getFlowRefreshed() != null) {
-				// Stop polling when we know the port info is in the response object
-				break;
-			}
-			
-			try {
-				Thread.sleep(500);
-			} catch (InterruptedException e) {}
-		}
+	/**
+	 * Apply the remote port settings of a remote process group once the discovery found its remote ports
+	 * (fails if a remote port with non-default settings didn't show up before the deadline)
+	 */
+	public void configureRemoteProcessGroupPorts(ElementYML ele, RemotePortDiscovery discovery) throws ApiException {
+		RemoteProcessGroupEntity response = discovery.await(getNewId(ele.id));
+		Set<String> found = new HashSet<>();
 		
 		// Check if we successfully got a configured object or if a timeout occurred
 		if (response != null) {
@@ -265,6 +395,7 @@ public class ObjectBuilder {
 						}
 						
 						tracker.track(response.getId(), port.getName(), ReservedComponents.INPUT_PORT.name(), port.getId());
+						found.add(ReservedComponents.INPUT_PORT.name() + ":" + port.getName());
 					}
 				}
 				
@@ -298,11 +429,22 @@ public class ObjectBuilder {
 						}
 						
 						tracker.track(response.getId(), port.getName(), ReservedComponents.OUTPUT_PORT.name(), port.getId());
+						found.add(ReservedComponents.OUTPUT_PORT.name() + ":" + port.getName());
 					}
 				}
 			}
-		} else {
-			// TODO: Log that we weren't able to get remote process group information
+		}
+		
+		// Exports list every remote port, only losing settings is worth failing for (connections to a missing port fail in makeConnection)
+		for (RemotePortYML port : ele.remotePorts) {
+			if (!found.contains(port.type.toUpperCase() + ":" + port.name)) {
+				String missing = String.format("Remote process group %s has no remote %s named %s (is %s reachable?)",
+						ele.id, port.type, port.name, ele.properties.get(HelperYML.TARGET_URIS));
+				if (!port.isDefault()) {
+					throw new IllegalStateException(missing);
+				}
+				System.out.println("Skipping remote port, " + missing);
+			}
 		}
 	}
 	
@@ -319,7 +461,7 @@ public class ObjectBuilder {
 		PortEntity response = processGroupAPI.createOutputPort(getProcessGroupId(), port);
 		
 		// Track the newly created output port by id as well as port name
-		tracker.track(ele.id, response.getId());
+		tracker.track(getProcessGroupId(), ele.id, response.getId(), response.getRevision().getVersion());
 		tracker.track(getProcessGroupId(), ele.name, ele.type, response.getId());
 		
 		return response;
@@ -338,7 +480,7 @@ public class ObjectBuilder {
 		PortEntity response = processGroupAPI.createInputPort(getProcessGroupId(), port);
 
 		// Track the newly created input port by id as well as port name
-		tracker.track(ele.id, response.getId());
+		tracker.track(getProcessGroupId(), ele.id, response.getId(), response.getRevision().getVersion());
 		tracker.track(getProcessGroupId(), ele.name, ele.type, response.getId());
 		
 		return response;
@@ -350,29 +492,21 @@ public class ObjectBuilder {
 		label.setComponent(dto);
 		label.setRevision(getRevision());
 
-		dto.setPosition(HelperYML.createPosition(ele.position));
-		dto.setLabel(ele.comment);
-
-		if (ele.styles != null) {
-			if (ele.styles.containsKey(HelperYML.WIDTH)) {
-				dto.setWidth(Double.parseDouble(ele.styles.get(HelperYML.WIDTH)));
-			}
-			if (ele.styles.containsKey(HelperYML.HEIGHT)) {
-				dto.setHeight(Double.parseDouble(ele.styles.get(HelperYML.HEIGHT)));
-				
-			}
-			dto.setStyle(ele.styles);
-		}
+		configureLabel(dto, ele);
 		
 		LabelEntity response = processGroupAPI.createLabel(getProcessGroupId(), label);
 		
 		// Track the newly created label (old id -> new id)
-		tracker.track(ele.id, response.getId());
+		tracker.track(getProcessGroupId(), ele.id, response.getId(), response.getRevision().getVersion());
 		
 		return response;
 	}
 
-	public ProcessorEntity makeProcessor(ElementYML ele) throws ApiException {
+	/**
+	 * @param ele               Processor to create
+	 * @param usedRelationships Relationships that connections will be made from, every other relationship is auto terminated
+	 */
+	public ProcessorEntity makeProcessor(ElementYML ele, Set<String> usedRelationships) throws ApiException {
 		ProcessorEntity p = new ProcessorEntity();
 		ProcessorDTO dto = new ProcessorDTO();
 		dto.setConfig(new ProcessorConfigDTO());
@@ -385,26 +519,238 @@ public class ObjectBuilder {
 		dto.setType(dependency.t1);
 		dto.setBundle(dependency.t2);
 		
+		configureProcessor(dto, ele);
+		
+		// Auto terminate the unused relationships right away if the relationships of the type are already known
+		List<String> relationships = typeCache.getRelationships(dependency.t1, dependency.t2);
+		List<String> terminated = Collections.emptyList();
+		if (relationships != null) {
+			terminated = unusedRelationships(relationships, usedRelationships);
+			dto.getConfig().setAutoTerminatedRelationships(terminated);
+		}
+		
+		ProcessorEntity response = processGroupAPI.createProcessor(getProcessGroupId(), p);
+		
+		// Track the newly created processor (old id -> new id)
+		tracker.track(getProcessGroupId(), ele.id, response.getId(), response.getRevision().getVersion());
+		
+		// First processor of a type (or relationships depending on the configuration), fix up with a second call
+		List<RelationshipDTO> actual = response.getComponent().getRelationships();
+		typeCache.learnRelationships(dependency.t1, dependency.t2, actual);
+		
+		List<String> names = new ArrayList<>();
+		if (actual != null) {
+			for (RelationshipDTO relationship : actual) {
+				names.add(relationship.getName());
+			}
+		}
+		List<String> unused = unusedRelationships(names, usedRelationships);
+		if (!new HashSet<>(unused).equals(new HashSet<>(terminated))) {
+			response.getComponent().getConfig().setAutoTerminatedRelationships(unused);
+			response = processorAPI.updateProcessor(response.getId(), response);
+		}
+		
+		return response;
+	}
+	
+	public ConnectionEntity makeConnection(ElementYML sourceElement, ElementYML destinationElement, InputConnectionYML input) throws ApiException {
+		ConnectionEntity conn = new ConnectionEntity();
+		conn.setRevision(getRevision());
+		ConnectionDTO dto = new ConnectionDTO();
+		conn.setComponent(dto);
+		
+		// Set the source & destination of the connection
+		ConnectableDTO src = makeSourceConnectable(sourceElement, input.from);
+		ConnectableDTO dst = makeDestinationConnectable(destinationElement, input.to);
+
+		// Ports of (remote) process groups are looked up by name, they may not exist (or remote ports weren't discovered in time)
+		if (src.getId() == null) {
+			throw new IllegalStateException(String.format("Unable to connect %s to %s, %s has no port named %s", 
+					sourceElement.id, destinationElement.id, sourceElement.id, input.from));
+		}
+		if (dst.getId() == null) {
+			throw new IllegalStateException(String.format("Unable to connect %s to %s, %s has no port named %s", 
+					sourceElement.id, destinationElement.id, destinationElement.id, input.to));
+		}
+		dto.setSource(src);
+		dto.setDestination(dst);
+		
+		// Check for input relationships (must be from something that isn't a processgroup)
+		if (input.from != null && !input.from.isEmpty() && 
+				!HelperYML.isProcessGroup(sourceElement.type) &&
+				!ReservedComponents.FUNNEL.isType(sourceElement.type)) {
+			dto.setSelectedRelationships(input.from);
+		}
+		
+		configureConnection(dto, input);
+		
+		ConnectionEntity response = processGroupAPI.createConnection(getProcessGroupId(), conn);
+		tracker.track(getProcessGroupId(), connectionKey(destinationElement, input), response.getId(), response.getRevision().getVersion());
+		
+		return response;
+	}
+	
+	public ProcessorEntity updateProcessor(ElementYML ele, ProcessorEntity existing, Set<String> usedRelationships) throws ApiException {
+		ProcessorEntity p = new ProcessorEntity();
+		ProcessorDTO dto = new ProcessorDTO();
+		dto.setConfig(new ProcessorConfigDTO());
+		dto.setId(existing.getId());
+		p.setComponent(dto);
+		p.setRevision(getRevision(existing.getRevision()));
+		
+		configureProcessor(dto, ele);
+		
+		// Anything left out of the template goes back to its default
+		ProcessorConfigDTO existingConfig = existing.getComponent().getConfig();
+		Map<String, String> configured = dto.getConfig().getProperties() != null ? dto.getConfig().getProperties() : Collections.<String, String>emptyMap();
+		dto.getConfig().setProperties(withDefaults(existingConfig.getProperties(), existingConfig.getDescriptors(), configured));
+		
+		ProcessorConfigDTO config = dto.getConfig();
+		if (config.getSchedulingPeriod() == null) {
+			config.setSchedulingPeriod(HelperYML.DEFAULT_SCHEDULING_PERIOD);
+		}
+		if (config.getSchedulingStrategy() == null) {
+			config.setSchedulingStrategy(HelperYML.DEFAULT_SCHEDULING_STRATEGY);
+		}
+		if (config.getConcurrentlySchedulableTaskCount() == null) {
+			config.setConcurrentlySchedulableTaskCount(HelperYML.DEFAULT_SCHEDULABLE_TASK_COUNT);
+		}
+		if (config.getPenaltyDuration() == null) {
+			config.setPenaltyDuration(HelperYML.DEFAULT_PENALTY_DURATION);
+		}
+		if (config.getYieldDuration() == null) {
+			config.setYieldDuration(HelperYML.DEFAULT_YIELD_DURATION);
+		}
+		if (config.getRunDurationMillis() == null) {
+			config.setRunDurationMillis(HelperYML.DEFAULT_RUN_DURATION);
+		}
+		if (config.getExecutionNode() == null) {
+			config.setExecutionNode(HelperYML.DEFAULT_EXECUTION_NODE);
+		}
+		if (config.getBulletinLevel() == null) {
+			config.setBulletinLevel(HelperYML.DEFAULT_BULLETIN_LEVEL);
+		}
+		
+		List<String> names = new ArrayList<>();
+		if (existing.getComponent().getRelationships() != null) {
+			for (RelationshipDTO relationship : existing.getComponent().getRelationships()) {
+				names.add(relationship.getName());
+			}
+		}
+		config.setAutoTerminatedRelationships(unusedRelationships(names, usedRelationships));
+		
+		return processorAPI.updateProcessor(existing.getId(), p);
+	}
+	
+	public ControllerServiceEntity updateControllerService(ControllerYML controller, ControllerServiceEntity existing) throws ApiException {
+		ControllerServiceEntity cont = new ControllerServiceEntity();
+		ControllerServiceDTO dto = new ControllerServiceDTO();
+		dto.setId(existing.getId());
+		cont.setComponent(dto);
+		cont.setRevision(getRevision(existing.getRevision()));
+		
+		dto.setName(controller.name);
+		dto.setComments(controller.comment);
+		
+		// Controller services may reference other controller services
+		Map<String, String> props = resolveReferences(controller.id, controller.properties);
+		dto.setProperties(withDefaults(existing.getComponent().getProperties(), existing.getComponent().getDescriptors(), props));
+		
+		return controllerServiceAPI.updateControllerService(existing.getId(), cont);
+	}
+	
+	public PortEntity updatePort(ElementYML ele, PortEntity existing) throws ApiException {
+		PortEntity port = new PortEntity();
+		PortDTO dto = new PortDTO();
+		dto.setId(existing.getId());
+		port.setComponent(dto);
+		port.setRevision(getRevision(existing.getRevision()));
+		
+		dto.setName(ele.name);
+		dto.setPosition(HelperYML.createPosition(ele.position));
+		dto.setComments(ele.comment);
+		
+		if (ReservedComponents.INPUT_PORT.isType(existing.getPortType())) {
+			return inputPortAPI.updateInputPort(existing.getId(), port);
+		}
+		return outputPortAPI.updateOutputPort(existing.getId(), port);
+	}
+	
+	public LabelEntity updateLabel(ElementYML ele, LabelEntity existing) throws ApiException {
+		LabelEntity label = new LabelEntity();
+		LabelDTO dto = new LabelDTO();
+		dto.setId(existing.getId());
+		label.setComponent(dto);
+		label.setRevision(getRevision(existing.getRevision()));
+		
+		configureLabel(dto, ele);
+		
+		return labelAPI.updateLabel(existing.getId(), label);
+	}
+	
+	public FunnelEntity updateFunnel(ElementYML ele, FunnelEntity existing) throws ApiException {
+		FunnelEntity funnel = new FunnelEntity();
+		FunnelDTO dto = new FunnelDTO();
+		dto.setId(existing.getId());
+		funnel.setComponent(dto);
+		funnel.setRevision(getRevision(existing.getRevision()));
+		
+		dto.setPosition(HelperYML.createPosition(ele.position));
+		
+		return funnelAPI.updateFunnel(existing.getId(), funnel);
+	}
+	
+	public ProcessGroupEntity updateProcessGroup(ElementYML ele, ProcessGroupEntity existing) throws ApiException {
+		ProcessGroupEntity pg = new ProcessGroupEntity();
+		ProcessGroupDTO dto = new ProcessGroupDTO();
+		dto.setId(existing.getId());
+		pg.setComponent(dto);
+		pg.setRevision(getRevision(existing.getRevision()));
+		
+		dto.setName(ele.name);
+		dto.setPosition(HelperYML.createPosition(ele.position));
+		dto.setComments(ele.comment);
+		
+		return processGroupAPI.updateProcessGroup(existing.getId(), pg);
+	}
+	
+	/**
+	 * Update the bends and queue settings of a connection (its source/destination stay the same)
+	 */
+	public ConnectionEntity updateConnection(InputConnectionYML input, ConnectionEntity existing) throws ApiException {
+		ConnectionEntity conn = new ConnectionEntity();
+		ConnectionDTO dto = new ConnectionDTO();
+		dto.setId(existing.getId());
+		conn.setComponent(dto);
+		conn.setRevision(getRevision(existing.getRevision()));
+		
+		// Anything left out of the template goes back to its default
+		dto.setName("");
+		dto.setBends(new ArrayList<>());
+		dto.setBackPressureObjectThreshold((long) HelperYML.DEFAULT_BACK_PRESSURE_OBJECT_THRESHOLD);
+		dto.setBackPressureDataSizeThreshold(HelperYML.DEFAULT_BACK_PRESSURE_DATA_SIZE_THRESHOLD);
+		dto.setFlowFileExpiration(HelperYML.DEFAULT_FLOW_FILE_EXPIRATION_SEC);
+		dto.setPrioritizers(new ArrayList<>());
+		dto.setLoadBalanceStrategy(HelperYML.DEFAULT_LOAD_BALANCE_STRATEGY);
+		dto.setLoadBalancePartitionAttribute("");
+		dto.setLoadBalanceCompression(HelperYML.DEFAULT_LOAD_BALANCE_COMPRESSION);
+		
+		configureConnection(dto, input);
+		
+		return connectionAPI.updateConnection(existing.getId(), conn);
+	}
+	
+	/*
+	 * Everything about a processor that can be set on create as well as on update
+	 */
+	private void configureProcessor(ProcessorDTO dto, ElementYML ele) {
 		dto.setName(ele.name);
 		dto.setPosition(HelperYML.createPosition(ele.position));
 		dto.setStyle(ele.styles);
 		
-		// Set any properties that may have changed from default
+		// Set any properties that may have changed from default (the template itself is left untouched)
 		if (ele.properties != null) {
-			for (String key : ele.properties.keySet()) {
-				Object val = ele.properties.get(key);
-				if (val instanceof String) {
-					String v = (String) val;
-					
-					// Update UUID references in properties
-					String lookup = tracker.lookupByOldId(v);
-					if (lookup != null) {
-						ele.properties.put(key, lookup);
-					}
-				}
-			}
-			
-			dto.getConfig().setProperties(ele.properties);
+			dto.getConfig().setProperties(resolveReferences(ele.id, ele.properties));
 		}
 		
 		// Check if there are any scheduling properties that need to be assigned
@@ -452,40 +798,28 @@ public class ObjectBuilder {
 			
 			dto.getConfig().setAnnotationData(annotationData);
 		}
-		
-		ProcessorEntity response = processGroupAPI.createProcessor(getProcessGroupId(), p);
-		
-		// Track the newly created processor (old id -> new id)
-		tracker.track(ele.id, response.getId());
-		
-		return response;
 	}
 	
-	public ConnectionEntity makeConnection(ElementYML sourceElement, ElementYML destinationElement, InputConnectionYML input) throws ApiException {
-		ConnectionEntity conn = new ConnectionEntity();
-		conn.setRevision(getRevision());
-		ConnectionDTO dto = new ConnectionDTO();
-		conn.setComponent(dto);
-		
-		// Set the source & destination of the connection
-		ConnectableDTO src = makeSourceConnectable(sourceElement, input.from);
-		ConnectableDTO dst = makeDestinationConnectable(destinationElement, input.to);
+	private void configureLabel(LabelDTO dto, ElementYML ele) {
+		dto.setPosition(HelperYML.createPosition(ele.position));
+		dto.setLabel(ele.comment);
 
-		// If we weren't able to make src or dst connections, something bad happened (or a remote process didn't detect remote ports yet)
-		if (src == null || dst == null) {
-			// TODO: add proper logging
-			return null;
-		}
-		dto.setSource(src);
-		dto.setDestination(dst);
-		
-		// Check for input relationships (must be from something that isn't a processgroup)
-		if (input.from != null && !input.from.isEmpty() && 
-				!HelperYML.isProcessGroup(sourceElement.type) &&
-				!ReservedComponents.FUNNEL.isType(sourceElement.type)) {
-			dto.setSelectedRelationships(input.from);
+		if (ele.styles != null) {
+			if (ele.styles.containsKey(HelperYML.WIDTH)) {
+				dto.setWidth(Double.parseDouble(ele.styles.get(HelperYML.WIDTH)));
+			}
+			if (ele.styles.containsKey(HelperYML.HEIGHT)) {
+				dto.setHeight(Double.parseDouble(ele.styles.get(HelperYML.HEIGHT)));
+				
+			}
+			dto.setStyle(ele.styles);
 		}
-		
+	}
+	
+	/*
+	 * Everything about a connection that can be set on create as well as on update (bends and queue settings)
+	 */
+	private void configureConnection(ConnectionDTO dto, InputConnectionYML input) {
 		// Check if there are bends in the connection (aesthetic)
 		if (input.position != null) {
 			List<PositionDTO> bends = new ArrayList<>();
@@ -554,8 +888,6 @@ public class ObjectBuilder {
 				dto.setPrioritizers(prio);
 			}
 		}
-		
-		return processGroupAPI.createConnection(getProcessGroupId(), conn);
 	}
 	
 	private ConnectableDTO makeSourceConnectable(ElementYML source, List<String> from) {
@@ -572,11 +904,11 @@ public class ObjectBuilder {
 		
 		// Determine the new GroupId and ID of the destination element
 		if (HelperYML.isProcessGroup(source.type)) {
-			groupId = tracker.lookupByOldId(source.id);
+			groupId = getNewId(source.id);
 			id = tracker.getIdForObject(groupId, from.get(0), ReservedComponents.OUTPUT_PORT);
 		} else {
 			groupId = getProcessGroupId();
-			id = tracker.lookupByOldId(source.id);
+			id = getNewId(source.id);
 		}
 		
 		// Determine the true type of the destination element
@@ -614,11 +946,11 @@ public class ObjectBuilder {
 		
 		// Determine the new GroupId and ID of the destination element
 		if (HelperYML.isProcessGroup(destination.type)) {
-			groupId = tracker.lookupByOldId(destination.id);
+			groupId = getNewId(destination.id);
 			id = tracker.getIdForObject(groupId, to, ReservedComponents.INPUT_PORT);
 		} else {
 			groupId = getProcessGroupId();
-			id = tracker.lookupByOldId(destination.id);
+			id = getNewId(destination.id);
 		}
 		
 		// Determine the true type of the destination element
@@ -644,9 +976,7 @@ public class ObjectBuilder {
 		return connectable;
 	}
 	
-	private String makeAnnotationData(RulesYML rules) {
-		XmlMapper xmlMapper = new XmlMapper();
-		
+	static String makeAnnotationData(RulesYML rules) {
 		// Reconstruct the original criteria object from the YML formatted rules
 		Criteria criteria = new Criteria();
 		
@@ -687,12 +1017,20 @@ public class ObjectBuilder {
 		
 		// Attempt to write the data out to XML
 		try {
-			return xmlMapper.writeValueAsString(criteria);
+			return Codecs.CRITERIA_WRITER.writeValueAsString(criteria);
 		} catch (JsonProcessingException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return null;
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private static List<String> unusedRelationships(List<String> relationships, Set<String> used) {
+		List<String> unused = new ArrayList<>();
+		for (String relationship : relationships) {
+			if (!used.contains(relationship)) {
+				unused.add(relationship);
+			}
 		}
+		return unused;
 	}
 	
 	private RevisionDTO getRevision() {
@@ -702,23 +1040,54 @@ public class ObjectBuilder {
 		return rev;
 	}
 	
-	private String castToString(Object o) {
-		return (o != null && o instanceof String) ? (String) o : null;
+	// Updates must send the current revision of the component
+	private RevisionDTO getRevision(RevisionDTO existing) {
+		RevisionDTO rev = new RevisionDTO();
+		rev.setClientId(clientId);
+		rev.setVersion(existing.getVersion());
+		return rev;
 	}
 	
-	private boolean checkString(String s) {
-		return s != null && !s.isEmpty();
+	/*
+	 * Copy of the properties of a component/controller service with controller service references swapped for their new ids
+	 */
+	private Map<String, String> resolveReferences(String id, Map<String, ?> properties) {
+		Map<String, String> resolved = new HashMap<>();
+		for (Map.Entry<String, ?> property : properties.entrySet()) {
+			resolved.put(property.getKey(), property.getValue() != null ? property.getValue().toString() : null);
+		}
+		
+		for (String key : references.get(id)) {
+			String newId = getNewId(resolved.get(key));
+			if (newId != null) {
+				resolved.put(key, newId);
+			}
+		}
+		return resolved;
 	}
 	
-	private class ProcessGroupStackElement {
-
-		public final String id;
+	/*
+	 * Configured values plus the default value of every other property the component currently has
+	 */
+	private static Map<String, String> withDefaults(Map<String, String> existing, Map<String, PropertyDescriptorDTO> descriptors, Map<String, String> configured) {
+		Map<String, String> defaults = descriptors != null ? TypeDefinitionCache.toDefaults(descriptors) : Collections.<String, String>emptyMap();
 		
-		// Canonical type name -> (Type, Bundle)
-		public Map<String, Pair<String, BundleDTO>> dependencies;
-
-		public ProcessGroupStackElement(String processGroupId) {
-			this.id = processGroupId;
+		Map<String, String> properties = new HashMap<>();
+		if (existing != null) {
+			for (String key : existing.keySet()) {
+				// Properties without a default (dynamic ones included) are removed by sending no value
+				properties.put(key, defaults.get(key));
+			}
 		}
+		properties.putAll(configured);
+		return properties;
+	}
+	
+	private String castToString(Object o) {
+		return (o != null && o instanceof String) ? (String) o : null;
+	}
+	
+	private boolean checkString(String s) {
+		return s != null && !s.isEmpty();
 	}
 }
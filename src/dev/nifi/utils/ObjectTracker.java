@@ -1,24 +1,38 @@
 package dev.nifi.utils;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import dev.nifi.yml.HelperYML.ReservedComponents;
 
+/**
+ * Keeps track of everything created during an import. Process groups may be imported
+ * concurrently, so all lookups/updates are thread-safe.
+ */
 public class ObjectTracker {
 
-	// GroupId -> Name -> TrackedObjects
-	private final Map<String, Map<String, Set<TrackedObject>>> groupedNameMap = new HashMap<>();
+	// Marks a name tracked with more than one id (compared by identity), looking it up is an error
+	private static final String AMBIGUOUS = new String("(ambiguous)");
+
+	// GroupId -> Type -> Name -> ID (or AMBIGUOUS), lookups are a few map reads without locking or allocating
+	private final Map<String, Map<String, Map<String, String>>> nameIndex = new ConcurrentHashMap<>();
+	
+	// GroupId -> Old ID -> New ID (old ids are only unique within a template, which may be imported into several groups)
+	private final Map<String, Map<String, String>> idMapping = new ConcurrentHashMap<>();
 	
-	// Old ID -> New ID
-	private final Map<String, String> idMapping = new HashMap<String, String>();
+	// Everything tracked is also recorded here (if set), so an interrupted import can be resumed
+	private volatile ImportJournal journal;
+	
+	public void setJournal(ImportJournal journal) {
+		this.journal = journal;
+	}
 	
-	public String lookupByOldId(String oldId) {
-		return idMapping.get(oldId);
+	public String lookupByOldId(String groupId, String oldId) {
+		if (oldId == null) {
+			return null;
+		}
+		Map<String, String> ids = idMapping.get(groupId);
+		return ids != null ? ids.get(oldId) : null;
 	}
 	
 	public String getIdForObject(String groupId, String name, ReservedComponents type) {
@@ -26,67 +40,50 @@ public class ObjectTracker {
 	}
 	
 	public String getIdForObject(String groupId, String name, String type) {
-		Map<String, Set<TrackedObject>> namedObjects = groupedNameMap.get(groupId);
-		if (namedObjects != null) {
-			Set<TrackedObject> objectsWithName = namedObjects.get(name);
-			
-			if (objectsWithName != null) {
-				List<TrackedObject> matches = new ArrayList<TrackedObject>();
-				for (TrackedObject obj : objectsWithName) {
-					if (type.equals(obj.type)) {
-						matches.add(obj);
-					}
-				}
-				
-				if (!matches.isEmpty()) {
-					if (matches.size() > 1) {
-						throw new IllegalStateException("Found more than one matching TrackedObject for search: " +
-									groupId + " " + name + " " + type);	
-					}
-					
-					return matches.get(0).id;
-				}
-				
-			}
-		}
+		Map<String, Map<String, String>> types = nameIndex.get(groupId);
+		Map<String, String> names = types != null ? types.get(type) : null;
+		String id = names != null ? names.get(name) : null;
 		
-		return null;
+		if (id == AMBIGUOUS) {
+			throw new IllegalStateException("Found more than one tracked object for search: " +
+					groupId + " " + name + " " + type);
+		}
+		return id;
 	}
 	
 	public void track(String groupId, String name, String type, String id) {
-		if (!groupedNameMap.containsKey(groupId)) {
-			groupedNameMap.put(groupId, new HashMap<>());
-		}
+		Map<String, String> names = getOrCreate(getOrCreate(nameIndex, groupId), type);
+		names.merge(name, id, (existing, added) -> existing != AMBIGUOUS && existing.equals(added) ? existing : AMBIGUOUS);
 		
-		Map<String, Set<TrackedObject>> namedObjects = groupedNameMap.get(groupId);
-		if (!namedObjects.containsKey(name)) {
-			namedObjects.put(name, new HashSet<>());
+		ImportJournal journal = this.journal;
+		if (journal != null) {
+			journal.recordName(groupId, name, type, id);
 		}
-		
-		Set<TrackedObject> objectsWithName = namedObjects.get(name);
-		
-		objectsWithName.add(new TrackedObject(type, id));
 	}
 	
-	public void track(String oldId, String newId) {
-		idMapping.put(oldId, newId);
+	public void track(String groupId, String oldId, String newId) {
+		track(groupId, oldId, newId, (Long) null);
 	}
 	
-	private final class TrackedObject {
-		public final String type;
-		public final String id;
-		
-		public TrackedObject(String type, String id) {
-			this.type = type;
-			this.id = id;
+	/**
+	 * @param version Revision of the new component (only recorded in the journal)
+	 */
+	public void track(String groupId, String oldId, String newId, Long version) {
+		// Components added by the import itself (metadata label) don't have an old id
+		if (oldId == null) {
+			return;
 		}
+		getOrCreate(idMapping, groupId).put(oldId, newId);
 		
-		public boolean equals(Object o) {
-			return (o instanceof TrackedObject) && ((TrackedObject)o).id.equals(this.id);
-		}
-		
-		public int hashCode() {
-			return id.hashCode();
+		ImportJournal journal = this.journal;
+		if (journal != null) {
+			journal.recordId(groupId, oldId, newId, version);
 		}
 	}
+	
+	// Plain get first, computeIfAbsent locks the bin even when the key exists (Java 8)
+	private static <V> Map<String, V> getOrCreate(Map<String, Map<String, V>> map, String key) {
+		Map<String, V> value = map.get(key);
+		return value != null ? value : map.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+	}
 }
@@ -0,0 +1,48 @@
+package dev.nifi.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.nifi.api.toolkit.model.ConnectionEntity;
+import org.apache.nifi.api.toolkit.model.ControllerServiceEntity;
+import org.apache.nifi.api.toolkit.model.FunnelEntity;
+import org.apache.nifi.api.toolkit.model.LabelEntity;
+import org.apache.nifi.api.toolkit.model.PortEntity;
+import org.apache.nifi.api.toolkit.model.ProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.ProcessorEntity;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupEntity;
+
+/**
+ * Everything NiFi reports as being directly inside of a single process group.
+ *
+ * Child process groups are only listed, their contents are not included.
+ */
+public class ProcessGroupContents {
+
+	public final String id;
+
+	public List<ProcessorEntity> processors = new ArrayList<>();
+
+	public List<ConnectionEntity> connections = new ArrayList<>();
+
+	public List<FunnelEntity> funnels = new ArrayList<>();
+
+	public List<ProcessGroupEntity> processGroups = new ArrayList<>();
+
+	public List<PortEntity> inputPorts = new ArrayList<>();
+
+	public List<PortEntity> outputPorts = new ArrayList<>();
+
+	public List<LabelEntity> labels = new ArrayList<>();
+
+	/**
+	 * Must contain the detailed (port contents included) version of each remote process group
+	 */
+	public List<RemoteProcessGroupEntity> remoteProcessGroups = new ArrayList<>();
+
+	public List<ControllerServiceEntity> controllerServices = new ArrayList<>();
+
+	public ProcessGroupContents(String processGroupId) {
+		this.id = processGroupId;
+	}
+}
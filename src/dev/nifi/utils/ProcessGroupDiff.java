@@ -0,0 +1,405 @@
+package dev.nifi.utils;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import org.apache.nifi.api.toolkit.model.BundleDTO;
+import org.apache.nifi.api.toolkit.model.ConnectionEntity;
+import org.apache.nifi.api.toolkit.model.ConnectionEntity.DestinationTypeEnum;
+import org.apache.nifi.api.toolkit.model.ControllerServiceEntity;
+import org.apache.nifi.api.toolkit.model.ProcessorEntity;
+import org.apache.nifi.api.toolkit.model.RelationshipDTO;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import dev.nifi.yml.ControllerYML;
+import dev.nifi.yml.ElementYML;
+import dev.nifi.yml.HelperYML;
+import dev.nifi.yml.HelperYML.ReservedComponents;
+import dev.nifi.yml.InputConnectionYML;
+import dev.nifi.yml.TemplateYML;
+
+/**
+ * Differences between a template and the contents of the process group on the canvas it is synced into.
+ *
+ * Components are matched by id first (a template exported from the same canvas) and then by their type
+ * and name within the process group (a template imported earlier, which gave every component a new id).
+ * Anything matched is only updated if it differs from the template, templates exported by NiFi Templatizer
+ * leave out default values the same way the canvas is compared.
+ *
+ * Child process groups get their own diff, see {@link #children}.
+ */
+public class ProcessGroupDiff {
+
+	public final ProcessGroupDiff parent;
+
+	public final TemplateYML desired;
+
+	/**
+	 * What currently exists in the process group (empty if the group doesn't exist yet)
+	 */
+	public final ProcessGroupContents live;
+
+	/**
+	 * Process group on the canvas (null until a new process group is created)
+	 */
+	public String processGroupId;
+
+	/**
+	 * Template ID -> ID on the canvas, for every element/controller that already exists
+	 */
+	public final Map<String, String> matches = new HashMap<>();
+
+	public final List<ControllerYML> createdControllers = new ArrayList<>();
+	public final List<Pair<ControllerYML, ControllerServiceEntity>> updatedControllers = new ArrayList<>();
+	public final List<ControllerServiceEntity> deletedControllers = new ArrayList<>();
+
+	public final List<ElementYML> created = new ArrayList<>();
+
+	/**
+	 * (Element in the template, Element on the canvas)
+	 */
+	public final List<Pair<ElementYML, ElementYML>> updated = new ArrayList<>();
+
+	/**
+	 * Elements on the canvas
+	 */
+	public final List<ElementYML> deleted = new ArrayList<>();
+
+	/**
+	 * (Destination element in the template, Connection in the template)
+	 */
+	public final List<Pair<ElementYML, InputConnectionYML>> createdConnections = new ArrayList<>();
+	public final List<Pair<InputConnectionYML, ConnectionEntity>> updatedConnections = new ArrayList<>();
+	public final List<ConnectionEntity> deletedConnections = new ArrayList<>();
+
+	/**
+	 * Template ID of a process group element -> Diff of its contents
+	 */
+	public final Map<String, ProcessGroupDiff> children = new LinkedHashMap<>();
+
+	// ID -> Entity, for everything in the process group on the canvas
+	private final Map<String, Object> entities = new HashMap<>();
+
+	private final Map<String, Pair<String, BundleDTO>> desiredDependencies;
+
+	/**
+	 * @param parent         Diff of the enclosing process group (null at the top)
+	 * @param processGroupId Process group on the canvas (null if it still has to be created)
+	 * @param desired        Template the process group should match (parameters already applied)
+	 * @param live           Current contents of the process group (remote process groups must be detailed)
+	 * @param typeCache      Default property values of processor/controller types
+	 */
+	public ProcessGroupDiff(ProcessGroupDiff parent, String processGroupId, TemplateYML desired, ProcessGroupContents live, TypeDefinitionCache typeCache) {
+		this.parent = parent;
+		this.processGroupId = processGroupId;
+		this.desired = desired;
+		this.live = live;
+		this.desiredDependencies = DependencyBuilder.createDependencyLookup(desired.dependencies);
+
+		index(live);
+
+		// Convert the canvas into the same format as the template so they can be compared directly
+		TemplateYML current = new TemplateYML(live, typeCache);
+		Map<String, Pair<String, BundleDTO>> liveDependencies = DependencyBuilder.createDependencyLookup(current.dependencies);
+
+		diffControllers(current, liveDependencies);
+		diffElements(current, liveDependencies);
+		diffConnections();
+	}
+
+	/**
+	 * @return the entity on the canvas with the id (ProcessorEntity, PortEntity, ...)
+	 */
+	public Object getEntity(String id) {
+		return entities.get(id);
+	}
+
+	public int getCreates() {
+		return createdControllers.size() + created.size() + createdConnections.size();
+	}
+
+	public int getUpdates() {
+		return updatedControllers.size() + updated.size() + updatedConnections.size();
+	}
+
+	public int getDeletes() {
+		return deletedControllers.size() + deleted.size() + deletedConnections.size();
+	}
+
+	public boolean isEmpty() {
+		return getCreates() == 0 && getUpdates() == 0 && getDeletes() == 0;
+	}
+
+	private void index(ProcessGroupContents contents) {
+		contents.processors.forEach(e -> entities.put(e.getId(), e));
+		contents.connections.forEach(e -> entities.put(e.getId(), e));
+		contents.controllerServices.forEach(e -> entities.put(e.getId(), e));
+		contents.funnels.forEach(e -> entities.put(e.getId(), e));
+		contents.processGroups.forEach(e -> entities.put(e.getId(), e));
+		contents.inputPorts.forEach(e -> entities.put(e.getId(), e));
+		contents.outputPorts.forEach(e -> entities.put(e.getId(), e));
+		contents.labels.forEach(e -> entities.put(e.getId(), e));
+		contents.remoteProcessGroups.forEach(e -> entities.put(e.getId(), e));
+	}
+
+	private void diffControllers(TemplateYML current, Map<String, Pair<String, BundleDTO>> liveDependencies) {
+		List<ControllerYML> remaining = new ArrayList<>(current.controllers);
+		List<ControllerYML> unmatched = new ArrayList<>();
+
+		// Same id (and type) first, then same type and name
+		for (ControllerYML controller : desired.controllers) {
+			ControllerYML match = take(remaining, c -> c.id.equals(controller.id) &&
+					type(c.getType(), liveDependencies).equals(type(controller.getType(), desiredDependencies)));
+			if (match != null) {
+				matches.put(controller.id, match.id);
+			} else {
+				unmatched.add(controller);
+			}
+		}
+		for (ControllerYML controller : unmatched) {
+			ControllerYML match = take(remaining, c -> equal(c.name, controller.name) &&
+					type(c.getType(), liveDependencies).equals(type(controller.getType(), desiredDependencies)));
+			if (match != null) {
+				matches.put(controller.id, match.id);
+			} else {
+				createdControllers.add(controller);
+			}
+		}
+		for (ControllerYML controller : remaining) {
+			deletedControllers.add((ControllerServiceEntity) entities.get(controller.id));
+		}
+
+		// Properties are compared as text (numbers in templates are read as numbers)
+		Map<String, ControllerYML> currentById = new HashMap<>();
+		for (ControllerYML controller : current.controllers) {
+			currentById.put(controller.id, controller);
+		}
+		for (ControllerYML controller : desired.controllers) {
+			ControllerYML match = currentById.get(matches.get(controller.id));
+			if (match != null && (!equal(controller.name, match.name) || !equal(controller.comment, match.comment) ||
+					!textOf(controller.properties, true).equals(textOf(match.properties, false)))) {
+				updatedControllers.add(new Pair<>(controller, (ControllerServiceEntity) entities.get(match.id)));
+			}
+		}
+	}
+
+	private void diffElements(TemplateYML current, Map<String, Pair<String, BundleDTO>> liveDependencies) {
+		List<ElementYML> remaining = new ArrayList<>();
+		for (ElementYML element : current.components) {
+			// The metadata label belongs to NiFi Templatizer, not to the template
+			if (!HelperYML.isMetadataLabel(element)) {
+				remaining.add(element);
+			}
+		}
+
+		List<ElementYML> unmatched = new ArrayList<>();
+		for (ElementYML element : desired.components) {
+			ElementYML match = element.id == null ? null : take(remaining, e -> e.id.equals(element.id) &&
+					kind(e, liveDependencies).equals(kind(element, desiredDependencies)));
+			if (match != null) {
+				matches.put(element.id, match.id);
+			} else {
+				unmatched.add(element);
+			}
+		}
+		for (ElementYML element : unmatched) {
+			String key = kind(element, desiredDependencies) + "/" + identity(element);
+			ElementYML match = take(remaining, e -> key.equals(kind(e, liveDependencies) + "/" + identity(e)));
+			if (match != null) {
+				matches.put(element.id, match.id);
+			} else {
+				created.add(element);
+			}
+		}
+		deleted.addAll(remaining);
+
+		Map<String, ElementYML> currentById = new HashMap<>();
+		for (ElementYML element : current.components) {
+			currentById.put(element.id, element);
+		}
+		Map<String, Set<String>> usedRelationships = HelperYML.usedRelationships(desired);
+		for (ElementYML element : desired.components) {
+			ElementYML match = currentById.get(matches.get(element.id));
+			if (match == null || ReservedComponents.REMOTE_PROCESS_GROUP.isType(element.getType())) {
+				// Remote process groups are only ever created or deleted
+				continue;
+			}
+
+			boolean differs = !normalize(element, true).equals(normalize(match, false));
+			if (!differs && HelperYML.isProcessor(element.getType())) {
+				Set<String> used = usedRelationships.getOrDefault(element.id, Collections.emptySet());
+				differs = !autoTerminated((ProcessorEntity) entities.get(match.id), used);
+			}
+			if (differs) {
+				updated.add(new Pair<>(element, match));
+			}
+		}
+	}
+
+	private void diffConnections() {
+		// Connection key -> Connection on the canvas
+		Map<String, ConnectionEntity> remaining = new LinkedHashMap<>();
+		for (ConnectionEntity connection : live.connections) {
+			remaining.put(key(connection), connection);
+		}
+
+		for (ElementYML destination : desired.components) {
+			for (InputConnectionYML input : destination.inputs) {
+				String source = matches.get(input.source);
+				String target = matches.get(destination.id);
+
+				ConnectionEntity match = null;
+				if (source != null && target != null) {
+					match = remaining.remove(key(source, input.from, target, input.to));
+				}
+
+				if (match == null) {
+					createdConnections.add(new Pair<>(destination, input));
+				} else if (!connectionSettings(input).equals(connectionSettings(new InputConnectionYML(match)))) {
+					updatedConnections.add(new Pair<>(input, match));
+				}
+			}
+		}
+		deletedConnections.addAll(remaining.values());
+	}
+
+	/*
+	 * Element on the canvas connections start from/end at (process groups instead of their ports)
+	 */
+	private static String key(ConnectionEntity connection) {
+		InputConnectionYML input = new InputConnectionYML(connection);
+		String destination = connection.getDestinationType() == DestinationTypeEnum.REMOTE_INPUT_PORT ||
+				connection.getDestinationType() == DestinationTypeEnum.INPUT_PORT
+				? connection.getDestinationGroupId() : connection.getDestinationId();
+		return key(input.source, input.from, destination, input.to);
+	}
+
+	private static String key(String source, List<String> from, String destination, String to) {
+		return source + "/" + new TreeSet<>(from) + " -> " + destination + "/" + to;
+	}
+
+	private String connectionSettings(InputConnectionYML input) {
+		return textOf(input.properties, false) + " " + input.position;
+	}
+
+	/*
+	 * Type of element (processors include their class), elements are only matched with the same kind
+	 */
+	private static String kind(ElementYML element, Map<String, Pair<String, BundleDTO>> dependencies) {
+		if (HelperYML.isProcessor(element.getType())) {
+			return "PROCESSOR/" + type(element.getType(), dependencies);
+		}
+		return element.getType().toUpperCase();
+	}
+
+	private static String type(String canonicalName, Map<String, Pair<String, BundleDTO>> dependencies) {
+		Pair<String, BundleDTO> dependency = dependencies.get(canonicalName);
+		return dependency != null ? dependency.t1 : canonicalName;
+	}
+
+	/*
+	 * How an element is recognized within its process group when the ids differ
+	 */
+	private static String identity(ElementYML element) {
+		if (ReservedComponents.LABEL.isType(element.getType())) {
+			return element.comment;
+		} else if (ReservedComponents.FUNNEL.isType(element.getType())) {
+			return element.position;
+		}
+		return element.name;
+	}
+
+	/*
+	 * Export format of an element without anything that is compared separately (ids, connections, templates)
+	 */
+	private String normalize(ElementYML element, boolean fromTemplate) {
+		ElementYML copy = new ElementYML(element);
+		copy.id = null;
+		copy.template = null;
+		copy.inputs.clear();
+		copy.parameters.clear();
+		copy.remotePorts.clear();
+
+		if (fromTemplate) {
+			// References to controller services in the template must be compared to the ids on the canvas
+			for (Map.Entry<String, String> property : copy.properties.entrySet()) {
+				property.setValue(referenced(property.getValue()));
+			}
+		}
+
+		try {
+			return Codecs.ELEMENT_WRITER.writeValueAsString(copy);
+		} catch (JsonProcessingException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Map<String, String> textOf(Map<String, ?> properties, boolean fromTemplate) {
+		Map<String, String> text = new HashMap<>();
+		for (Map.Entry<String, ?> property : properties.entrySet()) {
+			String value = property.getValue() != null ? property.getValue().toString() : null;
+			text.put(property.getKey(), fromTemplate ? referenced(value) : value);
+		}
+		return text;
+	}
+
+	/*
+	 * Property value as it should be on the canvas (controller services that don't exist yet never match)
+	 */
+	private String referenced(String value) {
+		if (value == null) {
+			return null;
+		}
+		for (ProcessGroupDiff diff = this; diff != null; diff = diff.parent) {
+			for (ControllerYML controller : diff.desired.controllers) {
+				if (value.equals(controller.id)) {
+					String existing = diff.matches.get(value);
+					return existing != null ? existing : "(new) " + value;
+				}
+			}
+		}
+		return value;
+	}
+
+	private static boolean autoTerminated(ProcessorEntity processor, Set<String> used) {
+		Set<String> expected = new HashSet<>();
+		Set<String> actual = new HashSet<>();
+		if (processor.getComponent().getRelationships() != null) {
+			for (RelationshipDTO relationship : processor.getComponent().getRelationships()) {
+				if (!used.contains(relationship.getName())) {
+					expected.add(relationship.getName());
+				}
+				if (Boolean.TRUE.equals(relationship.getAutoTerminate())) {
+					actual.add(relationship.getName());
+				}
+			}
+		}
+		return expected.equals(actual);
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static <T> T take(List<T> candidates, Predicate<T> matches) {
+		for (Iterator<T> it = candidates.iterator(); it.hasNext();) {
+			T candidate = it.next();
+			if (matches.test(candidate)) {
+				it.remove();
+				return candidate;
+			}
+		}
+		return null;
+	}
+}
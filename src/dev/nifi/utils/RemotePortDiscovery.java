@@ -0,0 +1,168 @@
+package dev.nifi.utils;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.nifi.api.toolkit.ApiClient;
+import org.apache.nifi.api.toolkit.ApiException;
+import org.apache.nifi.api.toolkit.api.RemoteProcessGroupsApi;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupEntity;
+
+/**
+ * Polls newly created remote process groups until they have contacted their target and know their
+ * remote ports. All remote process groups are polled at once from a few background threads, each
+ * with its own exponential backoff (with jitter, so they don't poll in lockstep). They share one
+ * deadline that starts with the first discovery, but every remote process group is polled for at
+ * least the minimum poll duration, so one created late in an import still gets a fair chance.
+ */
+public class RemotePortDiscovery implements AutoCloseable {
+
+	private static final long INITIAL_DELAY_MS = 250;
+	private static final long MAXIMUM_DELAY_MS = 4000;
+
+	// Polls are blocking GETs, a slow one shouldn't hold up the polls of other remote process groups
+	private static final int POLLING_THREADS = 4;
+
+	public static final long DEFAULT_MINIMUM_POLL_DURATION = TimeUnit.NANOSECONDS.convert(10, TimeUnit.SECONDS);
+
+	// Time a poll that is already running at the deadline gets to finish
+	private static final long AWAIT_GRACE_MS = 60000;
+
+	private final RemoteProcessGroupsApi remoteProcessGroupAPI;
+	private final long maximumPollDuration;
+	private final long minimumPollDuration;
+	private final ScheduledExecutorService poller;
+
+	// Remote process group ID -> Detailed entity once its remote ports are known
+	private final Map<String, CompletableFuture<RemoteProcessGroupEntity>> discoveries = new ConcurrentHashMap<>();
+
+	// Remote process group ID -> System.nanoTime() its polling stops at
+	private final Map<String, Long> deadlines = new ConcurrentHashMap<>();
+
+	private long deadline;
+	private boolean started;
+
+	/**
+	 * @param apiClient           Client used to poll the remote process groups
+	 * @param maximumPollDuration Nanoseconds to wait for all remote process groups combined
+	 */
+	public RemotePortDiscovery(ApiClient apiClient, long maximumPollDuration) {
+		this(apiClient, maximumPollDuration, Math.min(maximumPollDuration, DEFAULT_MINIMUM_POLL_DURATION));
+	}
+
+	/**
+	 * @param apiClient           Client used to poll the remote process groups
+	 * @param maximumPollDuration Nanoseconds to wait for all remote process groups combined
+	 * @param minimumPollDuration Nanoseconds every remote process group is polled for, even past the combined deadline
+	 */
+	public RemotePortDiscovery(ApiClient apiClient, long maximumPollDuration, long minimumPollDuration) {
+		this.remoteProcessGroupAPI = new RemoteProcessGroupsApi(apiClient);
+		this.maximumPollDuration = maximumPollDuration;
+		this.minimumPollDuration = minimumPollDuration;
+		this.poller = Executors.newScheduledThreadPool(POLLING_THREADS, r -> {
+			Thread thread = new Thread(r, "remote-port-discovery");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Start polling a remote process group in the background (does nothing if it is already being polled)
+	 *
+	 * @return completes with the detailed remote process group once its flow has been refreshed, or with
+	 *         the last polled version (null if none) once its deadline has passed
+	 */
+	public CompletableFuture<RemoteProcessGroupEntity> discover(String remoteProcessGroupId) {
+		long now = System.nanoTime();
+		synchronized (this) {
+			if (!started) {
+				deadline = now + maximumPollDuration;
+				started = true;
+			}
+		}
+
+		return discoveries.computeIfAbsent(remoteProcessGroupId, id -> {
+			deadlines.put(id, Math.max(deadline, now + minimumPollDuration));
+			CompletableFuture<RemoteProcessGroupEntity> discovery = new CompletableFuture<>();
+			poller.execute(() -> poll(id, discovery, INITIAL_DELAY_MS, null));
+			return discovery;
+		});
+	}
+
+	/**
+	 * Wait for a remote process group to be discovered (starts polling it if that hasn't happened yet).
+	 * Returns right away once the future from {@link #discover(String)} has completed, so callers on a
+	 * shared pool should wait for that future first rather than blocking here.
+	 *
+	 * @see #discover(String)
+	 */
+	public RemoteProcessGroupEntity await(String remoteProcessGroupId) throws ApiException {
+		CompletableFuture<RemoteProcessGroupEntity> discovery = discover(remoteProcessGroupId);
+		long remaining = TimeUnit.NANOSECONDS.toMillis(deadlines.get(remoteProcessGroupId) - System.nanoTime());
+		try {
+			return discovery.get(Math.max(0, remaining) + AWAIT_GRACE_MS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for remote ports", e);
+		} catch (TimeoutException e) {
+			discovery.cancel(false);
+			throw new IllegalStateException("Timed out waiting for the remote ports of remote process group " + remoteProcessGroupId, e);
+		} catch (ExecutionException e) {
+			throw ConcurrentUtils.rethrowApiException(e);
+		}
+	}
+
+	private void poll(String id, CompletableFuture<RemoteProcessGroupEntity> discovery, long delay, RemoteProcessGroupEntity last) {
+		// Anything escaping a scheduled task is only kept in its own (ignored) future, so it has to end up in the discovery
+		try {
+			onResponse(id, discovery, delay, last, remoteProcessGroupAPI.getRemoteProcessGroup(id));
+		} catch (Throwable t) {
+			discovery.completeExceptionally(t);
+		}
+	}
+
+	private void onResponse(String id, CompletableFuture<RemoteProcessGroupEntity> discovery, long delay, RemoteProcessGroupEntity last,
+			RemoteProcessGroupEntity response) {
+		if (discovery.isDone()) {
+			return;
+		}
+		if (response == null) {
+			response = last;
+		}
+
+		// If the flowrefreshed value has been set, all remote port info should be populated
+		if (response != null && response.getComponent() != null && response.getComponent().getFlowRefreshed() != null) {
+			discovery.complete(response);
+			return;
+		}
+
+		long remaining = TimeUnit.NANOSECONDS.toMillis(deadlines.get(id) - System.nanoTime());
+		if (remaining <= 0) {
+			discovery.complete(response);
+			return;
+		}
+
+		// Wait between half and all of the current delay, but never past the deadline
+		long wait = Math.min(remaining, delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+		long nextDelay = Math.min(MAXIMUM_DELAY_MS, delay * 2);
+		RemoteProcessGroupEntity polled = response;
+		poller.schedule(() -> poll(id, discovery, nextDelay, polled), wait, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void close() {
+		poller.shutdownNow();
+
+		// Nobody should be left waiting on a poll that will never happen
+		for (CompletableFuture<RemoteProcessGroupEntity> discovery : discoveries.values()) {
+			discovery.cancel(false);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package dev.nifi.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.api.toolkit.ApiException;
+import org.apache.nifi.api.toolkit.JSON;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupEntity;
+
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Detailed remote process group entities (port contents included) keyed by
+ * remote process group id and revision.
+ *
+ * Fetches of details are limited to a bounded number in flight at once so that
+ * workspaces with hundreds of remote process groups don't flood NiFi.
+ *
+ * The revision of a remote process group only changes when the group itself is modified, not when
+ * ports are added/removed on the remote instance. Cached details therefore expire after a while
+ * (see DEFAULT_TTL) and are fetched again even if the revision is unchanged. Details of remote
+ * process groups that weren't looked up during an export are dropped when the cache is saved.
+ */
+public class RemoteProcessGroupCache {
+
+	public static final String CACHE_FILE = ".remote-process-groups.json";
+
+	public static final int DEFAULT_WINDOW = 8;
+	
+	public static final long DEFAULT_TTL = TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+
+	// Remote Process Group ID -> Revision + Details
+	private final Map<String, CachedRemoteProcessGroup> cache = new ConcurrentHashMap<>();
+
+	// Remote Process Group IDs looked up since the cache was created/loaded
+	private final Set<String> used = ConcurrentHashMap.newKeySet();
+
+	private final Semaphore window;
+	
+	// Milliseconds cached details are used for
+	private final long ttl;
+
+	public RemoteProcessGroupCache(int window) {
+		this(window, DEFAULT_TTL);
+	}
+
+	/**
+	 * @param window Maximum number of detail requests in flight at once
+	 * @param ttl    Milliseconds cached details are used for (0 to always fetch them)
+	 */
+	public RemoteProcessGroupCache(int window, long ttl) {
+		this.window = new Semaphore(Math.max(1, window));
+		this.ttl = Math.max(0, ttl);
+	}
+
+	/**
+	 * Lookup the detailed version of a remote process group, only calling NiFi if there
+	 * isn't a cached copy for the same revision that is younger than the TTL.
+	 *
+	 * @param listed Remote process group as listed in its parent process group (needs id + revision)
+	 * @param fetch  Call used to pull the details if they aren't cached
+	 * @return detailed remote process group
+	 */
+	public RemoteProcessGroupEntity get(RemoteProcessGroupEntity listed, ApiCall<RemoteProcessGroupEntity> fetch) throws ApiException {
+		Long version = listed.getRevision() != null ? listed.getRevision().getVersion() : null;
+		used.add(listed.getId());
+
+		CachedRemoteProcessGroup cached = cache.get(listed.getId());
+		if (cached != null && version != null && version.equals(cached.version) 
+				&& System.currentTimeMillis() - cached.fetched < ttl) {
+			return cached.entity;
+		}
+
+		RemoteProcessGroupEntity details;
+		window.acquireUninterruptibly();
+		try {
+			details = fetch.call();
+		} finally {
+			window.release();
+		}
+
+		cache.put(listed.getId(), new CachedRemoteProcessGroup(version, details, System.currentTimeMillis()));
+
+		return details;
+	}
+
+	/**
+	 * Forget the cached details of a remote process group, the next lookup fetches them again
+	 */
+	public void invalidate(String remoteProcessGroupId) {
+		cache.remove(remoteProcessGroupId);
+	}
+
+	/**
+	 * Load previously cached details (if any exist) from the directory
+	 */
+	public void load(String directory, JSON json) throws IOException {
+		File file = new File(directory, CACHE_FILE);
+		if (!file.isFile()) {
+			return;
+		}
+
+		Type type = new TypeToken<Map<String, CachedRemoteProcessGroup>>() {}.getType();
+		Map<String, CachedRemoteProcessGroup> loaded = json.deserialize(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), type);
+		if (loaded != null) {
+			cache.putAll(loaded);
+		}
+	}
+
+	/**
+	 * Persist the details of all remote process groups looked up since the cache was loaded
+	 * (the others no longer exist) to the directory so the next export can reuse them
+	 */
+	public void save(String directory, JSON json) throws IOException {
+		Map<String, CachedRemoteProcessGroup> retained = new HashMap<>(cache);
+		retained.keySet().retainAll(used);
+		
+		File file = new File(directory, CACHE_FILE);
+		Files.write(file.toPath(), json.serialize(retained).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static class CachedRemoteProcessGroup {
+		public Long version;
+		public RemoteProcessGroupEntity entity;
+		
+		// Epoch milliseconds the details were fetched at (0 in caches written before the TTL existed)
+		public long fetched;
+
+		public CachedRemoteProcessGroup(Long version, RemoteProcessGroupEntity entity, long fetched) {
+			this.version = version;
+			this.entity = entity;
+			this.fetched = fetched;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package dev.nifi.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps retries to a fraction of the requests made (plus a few to start with), so a struggling NiFi
+ * gets a bounded amount of extra load instead of every request being retried several times.
+ */
+public class RetryBudget {
+
+	private final double ratio;
+	private final int reserve;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+
+	/**
+	 * @param ratio   Retries allowed per request made (0.2: one retry for every 5 requests)
+	 * @param reserve Retries allowed before any requests were made
+	 */
+	public RetryBudget(double ratio, int reserve) {
+		this.ratio = ratio;
+		this.reserve = reserve;
+	}
+
+	public void recordRequest() {
+		requests.incrementAndGet();
+	}
+
+	/**
+	 * @return whether a retry fits the budget (and takes it out if so)
+	 */
+	public boolean tryRetry() {
+		while (true) {
+			long used = retries.get();
+			if (used >= reserve + ratio * requests.get()) {
+				return false;
+			}
+			if (retries.compareAndSet(used, used + 1)) {
+				return true;
+			}
+		}
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d retries for %d requests", retries.get(), requests.get());
+	}
+}
@@ -0,0 +1,220 @@
+package dev.nifi.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.squareup.okhttp.HttpUrl;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import okio.Buffer;
+
+/**
+ * Retries requests that failed for reasons that may go away on their own, within a {@link RetryBudget}:
+ *  - Idempotent requests (GET/PUT/DELETE) on 5xx/429 responses and timeouts/connection failures, with
+ *    exponential backoff and jitter (honoring Retry-After)
+ *  - Updates/deletes rejected with 409 because the revision moved on: the component is read again and
+ *    the request is retried once with its current revision (last writer wins)
+ *
+ * Creates (POST) are never retried, a lost response could otherwise create a component twice.
+ */
+public class RetryInterceptor implements Interceptor {
+
+	private static final Set<String> IDEMPOTENT = new HashSet<>(Arrays.asList("GET", "HEAD", "PUT", "DELETE"));
+
+	private static final long INITIAL_DELAY_MS = 200;
+	private static final long MAXIMUM_DELAY_MS = 5000;
+	private static final long MAXIMUM_RETRY_AFTER_MS = 30000;
+
+	// Message of the IOException okhttp throws for a cancelled call
+	private static final String CANCELED = "Canceled";
+
+	private final int maxRetries;
+	private final RetryBudget budget;
+
+	/**
+	 * @param maxRetries Most retries of a single request
+	 * @param budget     Retries allowed across all requests
+	 */
+	public RetryInterceptor(int maxRetries, RetryBudget budget) {
+		this.maxRetries = Math.max(0, maxRetries);
+		this.budget = budget;
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		boolean idempotent = IDEMPOTENT.contains(request.method());
+		boolean refreshed = false;
+
+		budget.recordRequest();
+		for (int attempt = 0; ; attempt++) {
+			Response response;
+			try {
+				response = chain.proceed(request);
+			} catch (IOException e) {
+				// Cancelled calls (see AsyncApi) fail every attempt the same way
+				if (!idempotent || CANCELED.equals(e.getMessage()) || attempt >= maxRetries || !budget.tryRetry()) {
+					throw e;
+				}
+				backoff(attempt, null);
+				continue;
+			}
+
+			int code = response.code();
+			if (code == 409 && !refreshed && ("PUT".equals(request.method()) || "DELETE".equals(request.method()))) {
+				// The 409 is returned as-is if the revision wasn't the problem, so keep it readable
+				response = buffer(response);
+
+				Request retry = withCurrentRevision(chain, request);
+				if (retry != null && budget.tryRetry()) {
+					request = retry;
+					refreshed = true;
+					continue;
+				}
+				return response;
+			}
+
+			if (idempotent && (code >= 500 || code == 429) && attempt < maxRetries && budget.tryRetry()) {
+				String retryAfter = response.header("Retry-After");
+				response.body().close();
+				backoff(attempt, retryAfter);
+				continue;
+			}
+
+			return response;
+		}
+	}
+
+	public RetryBudget getBudget() {
+		return budget;
+	}
+
+	/*
+	 * Same request with the current revision of the component, null if the request has no revision, the
+	 * revision didn't change (the conflict is about something else, like a running component) or can't be found
+	 */
+	private Request withCurrentRevision(Chain chain, Request request) throws IOException {
+		HttpUrl url = request.httpUrl();
+
+		// Only requests that send a revision can be fixed by reading the component again
+		Long sent;
+		JsonObject body = null;
+		if ("DELETE".equals(request.method())) {
+			String version = url.queryParameter("version");
+			try {
+				sent = version != null ? Long.valueOf(version) : null;
+			} catch (NumberFormatException e) {
+				sent = null;
+			}
+		} else {
+			if (request.body() == null) {
+				return null;
+			}
+			Buffer sink = new Buffer();
+			request.body().writeTo(sink);
+			try {
+				JsonElement parsed = new JsonParser().parse(sink.readUtf8());
+				body = parsed.isJsonObject() ? parsed.getAsJsonObject() : null;
+			} catch (JsonParseException e) {
+				body = null;
+			}
+			sent = readVersion(body);
+		}
+		if (sent == null) {
+			return null;
+		}
+
+		Response current = chain.proceed(request.newBuilder().url(componentUrl(url)).get().build());
+		Long version;
+		try {
+			version = current.isSuccessful() ? readVersion(new JsonParser().parse(current.body().string())) : null;
+		} catch (JsonParseException | IllegalStateException e) {
+			version = null;
+		} finally {
+			current.body().close();
+		}
+		if (version == null || version.equals(sent)) {
+			return null;
+		}
+
+		if (body == null) {
+			return request.newBuilder().url(url.newBuilder().setQueryParameter("version", version.toString()).build()).build();
+		}
+		body.getAsJsonObject("revision").addProperty("version", version);
+		return request.newBuilder().method(request.method(), RequestBody.create(request.body().contentType(), body.toString())).build();
+	}
+
+	/*
+	 * Revisions belong to the component (/nifi-api/processors/{id}), not its sub resources (run-status, ports of remote groups, etc)
+	 */
+	private static HttpUrl componentUrl(HttpUrl url) {
+		List<String> segments = url.pathSegments();
+		int api = segments.indexOf("nifi-api");
+		if (api < 0 || segments.size() <= api + 3) {
+			return url.newBuilder().query(null).build();
+		}
+
+		HttpUrl.Builder builder = url.newBuilder().query(null);
+		for (int i = segments.size() - 1; i > api + 2; i--) {
+			builder.removePathSegment(i);
+		}
+		return builder.build();
+	}
+
+	private static Long readVersion(JsonElement entity) {
+		if (entity == null || !entity.isJsonObject()) {
+			return null;
+		}
+		JsonElement revision = entity.getAsJsonObject().get("revision");
+		if (revision == null || !revision.isJsonObject()) {
+			return null;
+		}
+		JsonElement version = revision.getAsJsonObject().get("version");
+		return version != null && !version.isJsonNull() ? version.getAsLong() : null;
+	}
+
+	private static Response buffer(Response response) throws IOException {
+		ResponseBody body = response.body();
+		try {
+			return response.newBuilder().body(ResponseBody.create(body.contentType(), body.bytes())).build();
+		} finally {
+			body.close();
+		}
+	}
+
+	/*
+	 * Full jitter: anywhere between no wait and the exponential delay of the attempt
+	 */
+	private static void backoff(int attempt, String retryAfter) throws InterruptedIOException {
+		long delay = Math.min(MAXIMUM_DELAY_MS, INITIAL_DELAY_MS << Math.min(attempt, 20));
+		long wait = ThreadLocalRandom.current().nextLong(delay + 1);
+
+		if (retryAfter != null) {
+			try {
+				wait = Math.max(wait, Math.min(MAXIMUM_RETRY_AFTER_MS, Long.parseLong(retryAfter.trim()) * 1000));
+			} catch (NumberFormatException e) {
+				// HTTP dates aren't worth parsing for this
+			}
+		}
+
+		try {
+			Thread.sleep(wait);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry");
+		}
+	}
+}
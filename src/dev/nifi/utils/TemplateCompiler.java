@@ -0,0 +1,548 @@
+package dev.nifi.utils;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.nifi.api.toolkit.model.BundleDTO;
+import org.apache.nifi.api.toolkit.model.PositionDTO;
+
+import dev.nifi.yml.ControllerYML;
+import dev.nifi.yml.ElementYML;
+import dev.nifi.yml.HelperYML;
+import dev.nifi.yml.HelperYML.ReservedComponents;
+import dev.nifi.yml.InputConnectionYML;
+import dev.nifi.yml.TemplateYML;
+
+/**
+ * Compiles a tree of templates (root.yaml and every template it references) into a single NiFi
+ * template (the XML format NiFi uses for uploading templates). Uploading and instantiating it
+ * creates the whole canvas with a couple of requests instead of one or more per component.
+ *
+ * Every component gets a new id derived from its position in the tree, so templates shared by
+ * several process groups end up with distinct ids. NiFi assigns fresh ids again on instantiation.
+ *
+ * Not everything can be expressed up front, see {@link #findUnsupported(TemplateYML)}.
+ */
+public class TemplateCompiler {
+
+	public static final String ENCODING_VERSION = "1.2";
+
+	private static final double DEFAULT_LABEL_SIZE = 150.0;
+
+	private final Map<String, TemplateYML> templateDB;
+	private final TypeDefinitionCache typeCache;
+	private final boolean metadataLabels;
+
+	// Top left corner of the root template's components
+	private PositionDTO origin;
+
+	/**
+	 * @param templateDB     Template file name -> Template
+	 * @param typeCache      Relationships of the processor types (needed to auto terminate unused relationships)
+	 * @param metadataLabels Add the NiFi Templatizer metadata label to every process group
+	 */
+	public TemplateCompiler(Map<String, TemplateYML> templateDB, TypeDefinitionCache typeCache, boolean metadataLabels) {
+		this.templateDB = templateDB;
+		this.typeCache = typeCache;
+		this.metadataLabels = metadataLabels;
+	}
+
+	/**
+	 * Check if the tree of templates can be compiled
+	 *
+	 * @return why the templates can't be compiled, null if they can
+	 */
+	public String findUnsupported(TemplateYML template) {
+		Map<String, Pair<String, BundleDTO>> dependencies = DependencyBuilder.createDependencyLookup(template.dependencies);
+
+		for (ElementYML ele : template.components) {
+			if (ReservedComponents.REMOTE_PROCESS_GROUP.isType(ele.type)) {
+				return "remote process group " + ele.name + " needs its remote ports detected";
+			} else if (ReservedComponents.PROCESS_GROUP.isType(ele.type)) {
+				TemplateYML child = templateDB.get(ele.template);
+				if (child == null) {
+					return "template " + ele.template + " is missing";
+				}
+				String reason = findUnsupported(child);
+				if (reason != null) {
+					return reason;
+				}
+			} else if (HelperYML.isProcessor(ele.type)) {
+				Pair<String, BundleDTO> dep = dependencies.get(ele.getType());
+				if (dep == null) {
+					return "type of processor " + ele.name + " is missing from the dependencies";
+				}
+				if (typeCache.getRelationships(dep.t1, dep.t2) == null) {
+					return "relationships of " + dep.t1 + " aren't known";
+				}
+			}
+		}
+		for (ControllerYML controller : template.controllers) {
+			if (dependencies.get(controller.getType()) == null) {
+				return "type of controller service " + controller.name + " is missing from the dependencies";
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Write the NiFi template for the tree of templates
+	 *
+	 * @param template Root of the tree
+	 * @param name     Name of the NiFi template (must be unique within NiFi)
+	 * @param out      Stream to write the template XML to (left open)
+	 */
+	public void compile(TemplateYML template, String name, OutputStream out) throws XMLStreamException {
+		XMLStreamWriter w = XMLOutputFactory.newInstance().createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+
+		origin = origin(template);
+
+		Scope root = new Scope(null, template.name);
+
+		w.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+		w.writeStartElement("template");
+		w.writeAttribute("encoding-version", ENCODING_VERSION);
+		text(w, "description", "");
+		text(w, "groupId", root.groupId);
+		text(w, "name", name);
+
+		w.writeStartElement("snippet");
+		writeContents(w, template, root);
+		w.writeEndElement();
+
+		w.writeEndElement();
+		w.writeEndDocument();
+		w.flush();
+	}
+
+	/**
+	 * Position to instantiate the compiled template at so every component keeps its position
+	 * (NiFi moves the top left corner of the top level components to the requested position)
+	 */
+	public PositionDTO getOrigin() {
+		return origin;
+	}
+
+	/*
+	 * Ids of everything written for one instance of a template
+	 */
+	private static final class Scope {
+		final Scope parent;
+		final String path;
+		final String groupId;
+
+		// Old ID -> New ID
+		final Map<String, String> ids = new HashMap<>();
+
+		// Old ID of controller service -> New ID
+		final Map<String, String> controllers = new HashMap<>();
+
+		// Port type + name -> New ID
+		final Map<String, String> ports = new HashMap<>();
+
+		// Old ID of process group -> Scope of its contents
+		final Map<String, Scope> children = new HashMap<>();
+
+		Scope(Scope parent, String path) {
+			this.parent = parent;
+			this.path = path;
+			this.groupId = newId(path, "");
+		}
+
+		String id(String oldId) {
+			if (!ids.containsKey(oldId)) {
+				ids.put(oldId, newId(path, oldId));
+			}
+			return ids.get(oldId);
+		}
+
+		String findController(Object oldId) {
+			for (Scope scope = this; scope != null; scope = scope.parent) {
+				if (scope.controllers.containsKey(oldId)) {
+					return scope.controllers.get(oldId);
+				}
+			}
+			return null;
+		}
+
+		static String portKey(String type, String name) {
+			return type.toUpperCase() + "/" + name;
+		}
+
+		static String newId(String path, String oldId) {
+			return UUID.nameUUIDFromBytes((path + "#" + oldId).getBytes(StandardCharsets.UTF_8)).toString();
+		}
+	}
+
+	private void writeContents(XMLStreamWriter w, TemplateYML template, Scope scope) throws XMLStreamException {
+		Map<String, Pair<String, BundleDTO>> dependencies = DependencyBuilder.createDependencyLookup(template.dependencies);
+
+		// Controller services first, processors of this group and all groups below may reference them
+		for (ControllerYML controller : template.controllers) {
+			scope.controllers.put(controller.id, scope.id(controller.id));
+		}
+		for (ControllerYML controller : template.controllers) {
+			writeControllerService(w, controller, dependencies.get(controller.getType()), scope);
+		}
+
+		// Process groups next, connections need the ids of their ports
+		for (ElementYML ele : template.components) {
+			if (ReservedComponents.PROCESS_GROUP.isType(ele.type)) {
+				writeProcessGroup(w, ele, scope);
+			}
+		}
+
+		Map<String, Set<String>> usedRelationships = HelperYML.usedRelationships(template);
+
+		for (ElementYML ele : template.components) {
+			if (HelperYML.isProcessGroup(ele.type)) {
+				continue;
+			} else if (dependencies.get(ele.getType()) != null) {
+				Set<String> used = usedRelationships.containsKey(ele.id) ? usedRelationships.get(ele.id) : new TreeSet<String>();
+				writeProcessor(w, ele, dependencies.get(ele.getType()), used, scope);
+			} else {
+				ReservedComponents type = ReservedComponents.valueOf(ele.getType().toUpperCase());
+				switch (type) {
+				case FUNNEL:
+					writeFunnel(w, ele, scope);
+					break;
+				case INPUT_PORT:
+					writePort(w, "inputPorts", ele, scope);
+					break;
+				case OUTPUT_PORT:
+					writePort(w, "outputPorts", ele, scope);
+					break;
+				case LABEL:
+					writeLabel(w, ele, scope);
+					break;
+				default:
+					// Ignore the process group stuff that were already handled
+				}
+			}
+		}
+
+		if (metadataLabels) {
+			writeLabel(w, HelperYML.createMetadataLabel(template), scope);
+		}
+
+		Map<String, ElementYML> lookup = new HashMap<>();
+		for (ElementYML element : template.components) {
+			lookup.put(element.id, element);
+		}
+		for (ElementYML destination : template.components) {
+			for (InputConnectionYML input : destination.inputs) {
+				ElementYML source = lookup.get(input.source);
+				if (source == null) {
+					// Same as the component by component import, a template with a dangling connection isn't imported at all
+					throw new IllegalArgumentException(String.format("Template %s connects unknown element %s to %s", 
+							template.name, input.source, destination.id));
+				}
+				writeConnection(w, source, destination, input, scope);
+			}
+		}
+	}
+
+	private void writeProcessGroup(XMLStreamWriter w, ElementYML ele, Scope scope) throws XMLStreamException {
+		TemplateYML contents = HelperYML.instantiate(ele, templateDB);
+		Scope child = new Scope(scope, scope.path + "/" + ele.id);
+		scope.ids.put(ele.id, child.groupId);
+		scope.children.put(ele.id, child);
+
+		w.writeStartElement("processGroups");
+		text(w, "id", child.groupId);
+		text(w, "parentGroupId", scope.groupId);
+		position(w, "position", ele.position);
+		text(w, "comments", ele.comment);
+		w.writeStartElement("contents");
+		writeContents(w, contents, child);
+		w.writeEndElement();
+		text(w, "name", ele.name);
+		w.writeEndElement();
+	}
+
+	private void writeControllerService(XMLStreamWriter w, ControllerYML controller, Pair<String, BundleDTO> dep, Scope scope) throws XMLStreamException {
+		Map<String, String> properties = new HashMap<>();
+		for (Map.Entry<String, Object> property : controller.properties.entrySet()) {
+			properties.put(property.getKey(), property.getValue() != null ? property.getValue().toString() : null);
+		}
+
+		w.writeStartElement("controllerServices");
+		text(w, "id", scope.id(controller.id));
+		text(w, "parentGroupId", scope.groupId);
+		bundle(w, dep.t2);
+		text(w, "comments", controller.comment);
+		writePropertiesAndDescriptors(w, properties, scope);
+		text(w, "name", controller.name);
+		text(w, "state", "DISABLED");
+		text(w, "type", dep.t1);
+		w.writeEndElement();
+	}
+
+	private void writeProcessor(XMLStreamWriter w, ElementYML ele, Pair<String, BundleDTO> dep, Set<String> usedRelationships, Scope scope) throws XMLStreamException {
+		w.writeStartElement("processors");
+		text(w, "id", scope.id(ele.id));
+		text(w, "parentGroupId", scope.groupId);
+		position(w, "position", ele.position);
+		bundle(w, dep.t2);
+
+		w.writeStartElement("config");
+		text(w, "bulletinLevel", scheduling(ele, HelperYML.BULLETIN_LEVEL, HelperYML.DEFAULT_BULLETIN_LEVEL));
+		text(w, "comments", ele.comment);
+		text(w, "concurrentlySchedulableTaskCount", scheduling(ele, HelperYML.SCHEDULABLE_TASK_COUNT, Integer.toString(HelperYML.DEFAULT_SCHEDULABLE_TASK_COUNT)));
+		writePropertiesAndDescriptors(w, ele.properties, scope);
+		text(w, "executionNode", scheduling(ele, HelperYML.EXECUTION_NODE, HelperYML.DEFAULT_EXECUTION_NODE));
+		text(w, "penaltyDuration", scheduling(ele, HelperYML.PENALTY_DURATION, HelperYML.DEFAULT_PENALTY_DURATION));
+		text(w, "runDurationMillis", scheduling(ele, HelperYML.RUN_DURATION, Long.toString(HelperYML.DEFAULT_RUN_DURATION)));
+		text(w, "schedulingPeriod", scheduling(ele, HelperYML.SCHEDULING_PERIOD, HelperYML.DEFAULT_SCHEDULING_PERIOD));
+		text(w, "schedulingStrategy", scheduling(ele, HelperYML.SCHEDULING_STRATEGY, HelperYML.DEFAULT_SCHEDULING_STRATEGY));
+		text(w, "yieldDuration", scheduling(ele, HelperYML.YIELD_DURATION, HelperYML.DEFAULT_YIELD_DURATION));
+		if (ele.advanced != null) {
+			text(w, "annotationData", ObjectBuilder.makeAnnotationData(ele.advanced));
+		}
+		w.writeEndElement();
+
+		text(w, "name", ele.name);
+
+		// NiFi auto terminates the relationships flagged in the template when instantiating it
+		for (String relationship : typeCache.getRelationships(dep.t1, dep.t2)) {
+			w.writeStartElement("relationships");
+			text(w, "autoTerminate", Boolean.toString(!usedRelationships.contains(relationship)));
+			text(w, "name", relationship);
+			w.writeEndElement();
+		}
+
+		text(w, "state", "STOPPED");
+		entries(w, "style", ele.styles);
+		text(w, "type", dep.t1);
+		w.writeEndElement();
+	}
+
+	/*
+	 * Properties referencing controller services are rewritten by NiFi when the template is instantiated,
+	 * but only if the descriptor says the property identifies a controller service.
+	 */
+	private void writePropertiesAndDescriptors(XMLStreamWriter w, Map<String, String> properties, Scope scope) throws XMLStreamException {
+		Map<String, String> values = new HashMap<>();
+		List<String> references = new ArrayList<>();
+		for (Map.Entry<String, String> property : properties.entrySet()) {
+			String controller = scope.findController(property.getValue());
+			if (controller != null) {
+				values.put(property.getKey(), controller);
+				references.add(property.getKey());
+			} else {
+				values.put(property.getKey(), property.getValue());
+			}
+		}
+
+		w.writeStartElement("descriptors");
+		for (String property : values.keySet()) {
+			w.writeStartElement("entry");
+			text(w, "key", property);
+			w.writeStartElement("value");
+			text(w, "name", property);
+			if (references.contains(property)) {
+				// Only checked for presence, the actual service API isn't known here
+				text(w, "identifiesControllerService", "org.apache.nifi.controller.ControllerService");
+			}
+			w.writeEndElement();
+			w.writeEndElement();
+		}
+		w.writeEndElement();
+
+		entries(w, "properties", values);
+	}
+
+	private void writePort(XMLStreamWriter w, String element, ElementYML ele, Scope scope) throws XMLStreamException {
+		String id = scope.id(ele.id);
+		scope.ports.put(Scope.portKey(ele.type, ele.name), id);
+
+		w.writeStartElement(element);
+		text(w, "id", id);
+		text(w, "parentGroupId", scope.groupId);
+		position(w, "position", ele.position);
+		text(w, "comments", ele.comment);
+		text(w, "concurrentlySchedulableTaskCount", "1");
+		text(w, "name", ele.name);
+		text(w, "state", "STOPPED");
+		text(w, "type", ele.type.toUpperCase());
+		w.writeEndElement();
+	}
+
+	private void writeFunnel(XMLStreamWriter w, ElementYML ele, Scope scope) throws XMLStreamException {
+		w.writeStartElement("funnels");
+		text(w, "id", scope.id(ele.id));
+		text(w, "parentGroupId", scope.groupId);
+		position(w, "position", ele.position);
+		w.writeEndElement();
+	}
+
+	private void writeLabel(XMLStreamWriter w, ElementYML ele, Scope scope) throws XMLStreamException {
+		// The metadata label doesn't have an id of its own
+		String id = ele.id != null ? scope.id(ele.id) : Scope.newId(scope.path, "metadata-label");
+
+		w.writeStartElement("labels");
+		text(w, "id", id);
+		text(w, "parentGroupId", scope.groupId);
+		position(w, "position", ele.position);
+		text(w, "height", ele.styles.containsKey(HelperYML.HEIGHT) ? ele.styles.get(HelperYML.HEIGHT) : Double.toString(DEFAULT_LABEL_SIZE));
+		text(w, "label", ele.comment);
+		entries(w, "style", ele.styles);
+		text(w, "width", ele.styles.containsKey(HelperYML.WIDTH) ? ele.styles.get(HelperYML.WIDTH) : Double.toString(DEFAULT_LABEL_SIZE));
+		w.writeEndElement();
+	}
+
+	private void writeConnection(XMLStreamWriter w, ElementYML source, ElementYML destination, InputConnectionYML input, Scope scope) throws XMLStreamException {
+		Map<String, Object> properties = input.properties;
+		String sourcePort = input.from.isEmpty() ? null : input.from.get(0);
+
+		w.writeStartElement("connections");
+		text(w, "id", Scope.newId(scope.path, "connection#" + source.id + "#" + destination.id + "#" + input.from + "#" + input.to));
+		text(w, "parentGroupId", scope.groupId);
+		text(w, "backPressureDataSizeThreshold", property(properties, HelperYML.BACK_PRESSURE_DATA_SIZE_THRESHOLD, HelperYML.DEFAULT_BACK_PRESSURE_DATA_SIZE_THRESHOLD));
+		text(w, "backPressureObjectThreshold", property(properties, HelperYML.BACK_PRESSURE_OBJECT_THRESHOLD, Integer.toString(HelperYML.DEFAULT_BACK_PRESSURE_OBJECT_THRESHOLD)));
+		for (String bend : input.position) {
+			position(w, "bends", bend);
+		}
+		connectable(w, "destination", destination, input.to, ReservedComponents.INPUT_PORT, scope);
+		text(w, "flowFileExpiration", property(properties, HelperYML.FLOW_FILE_EXPIRATION, HelperYML.DEFAULT_FLOW_FILE_EXPIRATION_SEC));
+		text(w, "labelIndex", property(properties, HelperYML.LABEL_INDEX, null));
+		text(w, "loadBalanceCompression", property(properties, HelperYML.LOAD_BALANCE_COMPRESSION, HelperYML.DEFAULT_LOAD_BALANCE_COMPRESSION.name()));
+		text(w, "loadBalancePartitionAttribute", property(properties, HelperYML.LOAD_BALANCE_PARTITION_ATTRIBUTE, ""));
+		text(w, "loadBalanceStrategy", property(properties, HelperYML.LOAD_BALANCE_STRATEGY, HelperYML.DEFAULT_LOAD_BALANCE_STRATEGY.name()));
+		text(w, "name", property(properties, HelperYML.NAME, ""));
+		if (properties.get(HelperYML.PRIORITIZERS) instanceof List) {
+			for (Object prioritizer : (List<?>) properties.get(HelperYML.PRIORITIZERS)) {
+				text(w, "prioritizers", prioritizer.toString());
+			}
+		}
+		// Relationships only apply to things that aren't process groups or funnels (same as the component by component import)
+		if (!HelperYML.isProcessGroup(source.type) && !ReservedComponents.FUNNEL.isType(source.type)) {
+			for (String relationship : input.from) {
+				text(w, "selectedRelationships", relationship);
+			}
+		}
+		connectable(w, "source", source, sourcePort, ReservedComponents.OUTPUT_PORT, scope);
+		text(w, "zIndex", property(properties, HelperYML.Z_INDEX, "0"));
+		w.writeEndElement();
+	}
+
+	private void connectable(XMLStreamWriter w, String element, ElementYML ele, String portName, ReservedComponents portType, Scope scope) throws XMLStreamException {
+		String groupId;
+		String id;
+		String type;
+
+		if (ReservedComponents.PROCESS_GROUP.isType(ele.type)) {
+			// Connections to a process group are really connections to one of its ports
+			Scope child = scope.children.get(ele.id);
+			groupId = child.groupId;
+			id = child.ports.get(Scope.portKey(portType.name(), portName));
+			type = portType.name();
+		} else {
+			groupId = scope.groupId;
+			id = scope.id(ele.id);
+			if (HelperYML.isPort(ele.type) || ReservedComponents.FUNNEL.isType(ele.type)) {
+				type = ele.type.toUpperCase();
+			} else {
+				type = "PROCESSOR";
+			}
+		}
+
+		w.writeStartElement(element);
+		text(w, "groupId", groupId);
+		text(w, "id", id);
+		text(w, "type", type);
+		w.writeEndElement();
+	}
+
+	private static PositionDTO origin(TemplateYML template) {
+		// NiFi includes the bends of connections when finding the top left corner of a snippet
+		List<String> positions = new ArrayList<>();
+		for (ElementYML ele : template.components) {
+			if (ele.position != null) {
+				positions.add(ele.position);
+			}
+			for (InputConnectionYML input : ele.inputs) {
+				positions.addAll(input.position);
+			}
+		}
+
+		PositionDTO origin = null;
+		for (String position : positions) {
+			PositionDTO pos = HelperYML.createPosition(position);
+			if (origin == null) {
+				origin = pos;
+			} else {
+				origin.setX(Math.min(origin.getX(), pos.getX()));
+				origin.setY(Math.min(origin.getY(), pos.getY()));
+			}
+		}
+
+		if (origin == null) {
+			origin = new PositionDTO();
+			origin.setX(0.0);
+			origin.setY(0.0);
+		}
+		return origin;
+	}
+
+	private static String scheduling(ElementYML ele, String key, String defaultValue) {
+		String value = ele.scheduling.get(key);
+		return value != null && !value.isEmpty() ? value : defaultValue;
+	}
+
+	private static String property(Map<String, Object> properties, String key, String defaultValue) {
+		Object value = properties.get(key);
+		return value != null ? value.toString() : defaultValue;
+	}
+
+	private static void bundle(XMLStreamWriter w, BundleDTO bundle) throws XMLStreamException {
+		if (bundle == null) {
+			return;
+		}
+		w.writeStartElement("bundle");
+		text(w, "artifact", bundle.getArtifact());
+		text(w, "group", bundle.getGroup());
+		text(w, "version", bundle.getVersion());
+		w.writeEndElement();
+	}
+
+	private static void position(XMLStreamWriter w, String element, String position) throws XMLStreamException {
+		PositionDTO pos = HelperYML.createPosition(position != null ? position : "0,0");
+		w.writeStartElement(element);
+		text(w, "x", pos.getX().toString());
+		text(w, "y", pos.getY().toString());
+		w.writeEndElement();
+	}
+
+	private static void entries(XMLStreamWriter w, String element, Map<String, String> entries) throws XMLStreamException {
+		w.writeStartElement(element);
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			w.writeStartElement("entry");
+			text(w, "key", entry.getKey());
+			text(w, "value", entry.getValue());
+			w.writeEndElement();
+		}
+		w.writeEndElement();
+	}
+
+	private static void text(XMLStreamWriter w, String element, String value) throws XMLStreamException {
+		if (value == null) {
+			return;
+		}
+		w.writeStartElement(element);
+		w.writeCharacters(value);
+		w.writeEndElement();
+	}
+}
@@ -0,0 +1,367 @@
+package dev.nifi.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import dev.nifi.yml.ControllerYML;
+import dev.nifi.yml.ElementYML;
+import dev.nifi.yml.HelperYML;
+import dev.nifi.yml.HelperYML.ReservedComponents;
+import dev.nifi.yml.InputConnectionYML;
+import dev.nifi.yml.RemotePortYML;
+import dev.nifi.yml.RuleYML;
+import dev.nifi.yml.TemplateYML;
+
+/**
+ * Finds process group templates that are structurally identical (same components, connections,
+ * settings, etc) and only differ in the values of processor/controller properties.
+ *
+ * Every set of duplicates is collapsed into the first template of the set. All process group
+ * elements that referenced one of the other templates are pointed at the shared template and
+ * carry the property values that differ as parameters.
+ */
+public class TemplateDeduplicator {
+
+	private static final String ROOT = "root";
+
+	// Template name -> Template (in export order)
+	private final Map<String, TemplateYML> templates = new LinkedHashMap<>();
+
+	// Template name -> Canonical form of the template
+	private final Map<String, CanonicalTemplate> canonical = new HashMap<>();
+
+	private int duplicates = 0;
+
+	public TemplateDeduplicator(List<TemplateYML> templates) {
+		for (TemplateYML template : templates) {
+			this.templates.put(template.name, template);
+		}
+	}
+
+	/**
+	 * @return Number of templates that were replaced by a shared template during the last deduplicate()
+	 */
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Collapse all structural duplicates into shared templates.
+	 *
+	 * NOTE: Process group elements in the templates are modified in place to reference the shared templates.
+	 *
+	 * @return all templates that are still needed (in the original order)
+	 */
+	public List<TemplateYML> deduplicate() {
+
+		// Bucket every template by its structure, the root template can never be shared
+		Map<String, List<CanonicalTemplate>> byStructure = new LinkedHashMap<>();
+		for (TemplateYML template : templates.values()) {
+			if (ROOT.equals(template.name)) {
+				continue;
+			}
+			CanonicalTemplate c = canonicalize(template.name);
+			if (!byStructure.containsKey(c.structure)) {
+				byStructure.put(c.structure, new ArrayList<>());
+			}
+			byStructure.get(c.structure).add(c);
+		}
+
+		// Template name -> (Shared template name, parameters)
+		Map<String, Pair<String, Map<String, Map<String, String>>>> replacements = new HashMap<>();
+		for (List<CanonicalTemplate> group : byStructure.values()) {
+			CanonicalTemplate shared = group.get(0);
+			for (int i = 1; i < group.size(); i++) {
+				CanonicalTemplate instance = group.get(i);
+				replacements.put(instance.template.name, new Pair<>(shared.template.name, parameterize(shared, instance)));
+			}
+		}
+		duplicates = replacements.size();
+
+		// Point every process group at its shared template
+		for (TemplateYML template : templates.values()) {
+			for (ElementYML ele : template.components) {
+				if (!isProcessGroupReference(ele)) {
+					continue;
+				}
+
+				Pair<String, Map<String, Map<String, String>>> replacement = replacements.get(templateName(ele));
+				if (replacement != null) {
+					ele.template = replacement.t1 + HelperYML.YAML_EXT;
+					ele.parameters.clear();
+					ele.parameters.putAll(replacement.t2);
+				}
+			}
+		}
+
+		return reachableTemplates(replacements.keySet());
+	}
+
+	/*
+	 * Only keep templates that can still be reached from the root (replaced templates and anything only they referenced is dropped)
+	 */
+	private List<TemplateYML> reachableTemplates(Set<String> replaced) {
+		if (!templates.containsKey(ROOT)) {
+			// Partial export, nothing to walk from so only remove the replaced templates
+			List<TemplateYML> remaining = new ArrayList<>();
+			for (TemplateYML template : templates.values()) {
+				if (!replaced.contains(template.name)) {
+					remaining.add(template);
+				}
+			}
+			return remaining;
+		}
+
+		Set<String> reachable = new HashSet<>();
+		Deque<String> toVisit = new ArrayDeque<>();
+		toVisit.add(ROOT);
+		while (!toVisit.isEmpty()) {
+			String name = toVisit.pop();
+			TemplateYML template = templates.get(name);
+			if (template == null || !reachable.add(name)) {
+				continue;
+			}
+			for (ElementYML ele : template.components) {
+				if (isProcessGroupReference(ele)) {
+					toVisit.add(templateName(ele));
+				}
+			}
+		}
+
+		List<TemplateYML> remaining = new ArrayList<>();
+		for (TemplateYML template : templates.values()) {
+			if (reachable.contains(template.name)) {
+				remaining.add(template);
+			}
+		}
+		return remaining;
+	}
+
+	/*
+	 * Find all property values of the instance that differ from the shared template (keyed by the shared template's ids)
+	 */
+	private Map<String, Map<String, String>> parameterize(CanonicalTemplate shared, CanonicalTemplate instance) {
+		Map<String, Map<String, String>> parameters = new TreeMap<>();
+
+		for (int i = 0; i < shared.controllers.size(); i++) {
+			addParameters(parameters, shared.controllers.get(i).id, shared.controllers.get(i).properties,
+					instance.controllers.get(i).properties, shared, instance);
+		}
+		for (int i = 0; i < shared.components.size(); i++) {
+			ElementYML sharedElement = shared.components.get(i);
+			if (HelperYML.isProcessor(sharedElement.getType())) {
+				addParameters(parameters, sharedElement.id, sharedElement.properties,
+						instance.components.get(i).properties, shared, instance);
+			}
+		}
+
+		return parameters;
+	}
+
+	private void addParameters(Map<String, Map<String, String>> parameters, String sharedId, Map<String, ?> sharedProperties,
+			Map<String, ?> instanceProperties, CanonicalTemplate shared, CanonicalTemplate instance) {
+
+		for (String key : instanceProperties.keySet()) {
+			String sharedValue = shared.normalize(sharedProperties.get(key));
+			String instanceValue = instance.normalize(instanceProperties.get(key));
+			if (Objects.equals(sharedValue, instanceValue)) {
+				continue;
+			}
+
+			// References to other components in the instance must be translated into the equivalent shared ids
+			Object value = instanceProperties.get(key);
+			String sharedReference = shared.ids.get(instanceValue);
+			String override = sharedReference != null ? sharedReference : (value != null ? value.toString() : null);
+
+			if (!parameters.containsKey(sharedId)) {
+				parameters.put(sharedId, new TreeMap<>());
+			}
+			parameters.get(sharedId).put(key, override);
+		}
+	}
+
+	private CanonicalTemplate canonicalize(String name) {
+		CanonicalTemplate c = canonical.get(name);
+		if (c == null) {
+			c = new CanonicalTemplate(templates.get(name));
+			canonical.put(name, c);
+		}
+		return c;
+	}
+
+	/*
+	 * Full content hash of a referenced template, two process groups are only considered the same if their
+	 * children are exactly the same (parameters are only extracted for one level)
+	 */
+	private String contentHash(String name) {
+		if (!templates.containsKey(name)) {
+			return name;
+		}
+		return HelperYML.toHex(HelperYML.sha256().digest(canonicalize(name).content.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static boolean isProcessGroupReference(ElementYML ele) {
+		return ReservedComponents.PROCESS_GROUP.isType(ele.getType()) && ele.template != null;
+	}
+
+	private static String templateName(ElementYML ele) {
+		return ele.template.endsWith(HelperYML.YAML_EXT)
+				? ele.template.substring(0, ele.template.length() - HelperYML.YAML_EXT.length())
+				: ele.template;
+	}
+
+	private static String sortKey(ElementYML ele) {
+		return ele.getType() + "\u0000" + ele.name + "\u0000" + ele.position + "\u0000" + ele.comment;
+	}
+
+	private static String sortKey(ControllerYML controller) {
+		return controller.getType() + "\u0000" + controller.name + "\u0000" + controller.comment;
+	}
+
+	/*
+	 * Id independent representation of a template. Components are put in a stable order so that ids of
+	 * equivalent components in two duplicates can be matched up by their index.
+	 */
+	private class CanonicalTemplate {
+		final TemplateYML template;
+		final List<ControllerYML> controllers;
+		final List<ElementYML> components;
+
+		// Original id -> index based token (and back)
+		final Map<String, String> tokens = new HashMap<>();
+		final Map<String, String> ids = new HashMap<>();
+
+		// Everything except processor/controller property values
+		final String structure;
+
+		// Structure + all property values
+		final String content;
+
+		CanonicalTemplate(TemplateYML template) {
+			this.template = template;
+
+			// Ties (same type, name, position and comment) are broken by id so every run picks the same order
+			this.controllers = new ArrayList<>(template.controllers);
+			this.controllers.sort(Comparator.comparing((ControllerYML c) -> sortKey(c))
+					.thenComparing(c -> c.id, Comparator.nullsFirst(Comparator.naturalOrder())));
+			this.components = new ArrayList<>(template.components);
+			this.components.sort(Comparator.comparing((ElementYML e) -> sortKey(e))
+					.thenComparing(e -> e.id, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+			for (int i = 0; i < controllers.size(); i++) {
+				addToken(controllers.get(i).id, "controller#" + i);
+			}
+			for (int i = 0; i < components.size(); i++) {
+				addToken(components.get(i).id, "component#" + i);
+			}
+
+			StringBuilder structure = new StringBuilder();
+			StringBuilder values = new StringBuilder();
+
+			structure.append(template.dependencies).append('\n');
+
+			for (int i = 0; i < controllers.size(); i++) {
+				ControllerYML c = controllers.get(i);
+				structure.append("C|").append(c.getType()).append('|').append(c.name).append('|').append(c.comment)
+					.append('|').append(c.properties.keySet()).append('\n');
+				appendValues(values, i, c.properties);
+			}
+
+			for (int i = 0; i < components.size(); i++) {
+				ElementYML e = components.get(i);
+				structure.append("E|").append(e.getType()).append('|').append(e.name).append('|').append(e.position)
+					.append('|').append(e.comment).append('|').append(e.styles).append('|').append(e.scheduling)
+					.append('|').append(formatRules(e)).append('|').append(formatRemotePorts(e.remotePorts))
+					.append('|').append(formatInputs(e.inputs));
+
+				if (isProcessGroupReference(e)) {
+					structure.append('|').append(contentHash(templateName(e))).append('|').append(e.parameters);
+				}
+
+				// Only processor properties can be parameterized, all others are part of the structure
+				if (HelperYML.isProcessor(e.getType())) {
+					structure.append('|').append(e.properties.keySet());
+					appendValues(values, i, e.properties);
+				} else {
+					structure.append('|').append(normalize(e.properties));
+				}
+				structure.append('\n');
+			}
+
+			this.structure = structure.toString();
+			this.content = this.structure + values;
+		}
+
+		private void addToken(String id, String token) {
+			if (id != null) {
+				tokens.put(id, token);
+				ids.put(token, id);
+			}
+		}
+
+		/*
+		 * Replace any references to other components of this template with their tokens
+		 */
+		String normalize(Object value) {
+			if (value == null) {
+				return null;
+			}
+			String s = value.toString();
+			String token = tokens.get(s);
+			return token != null ? token : s;
+		}
+
+		private Map<String, String> normalize(Map<String, ?> properties) {
+			Map<String, String> normalized = new TreeMap<>();
+			for (String key : properties.keySet()) {
+				normalized.put(key, normalize(properties.get(key)));
+			}
+			return normalized;
+		}
+
+		private void appendValues(StringBuilder values, int index, Map<String, ?> properties) {
+			values.append("V|").append(index).append('|').append(normalize(properties)).append('\n');
+		}
+
+		private String formatInputs(List<InputConnectionYML> inputs) {
+			List<String> formatted = new ArrayList<>();
+			for (InputConnectionYML input : inputs) {
+				formatted.add(normalize(input.source) + "|" + input.from + "|" + input.to + "|" + input.properties + "|" + input.position);
+			}
+			formatted.sort(null);
+			return formatted.toString();
+		}
+
+		private String formatRules(ElementYML e) {
+			if (e.advanced == null) {
+				return "";
+			}
+			StringBuilder sb = new StringBuilder(String.valueOf(e.advanced.policy));
+			for (RuleYML rule : e.advanced.rules) {
+				sb.append(';').append(rule.name).append(rule.conditions).append(rule.actions);
+			}
+			return sb.toString();
+		}
+
+		private String formatRemotePorts(List<RemotePortYML> ports) {
+			StringBuilder sb = new StringBuilder();
+			for (RemotePortYML port : ports) {
+				sb.append(';').append(port.name).append(',').append(port.type).append(',').append(port.maxConcurrentTasks)
+					.append(',').append(port.useCompression).append(',').append(port.batchCount).append(',')
+					.append(port.batchSize).append(',').append(port.batchDuration);
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package dev.nifi.utils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Response;
+
+/**
+ * Settings of the HTTP client shared by all commands. The okhttp defaults (5 idle connections,
+ * 5 requests per host) are sized for a browser-like client, the defaults here keep enough
+ * connections alive for every request a parallel import/export has in flight.
+ */
+public class TransportOptions {
+
+	private static final int DEFAULT_CONNECTIONS = Runtime.getRuntime().availableProcessors() * 4;
+
+	// Idle connections kept open, as well as the most requests made to NiFi at once
+	private int maxConnections = DEFAULT_CONNECTIONS;
+
+	// Milliseconds an idle connection is kept open
+	private long keepAlive = TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES);
+
+	// Milliseconds to wait for a connection/response (0 for no timeout)
+	private long connectTimeout = TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+	private long readTimeout = TimeUnit.MILLISECONDS.convert(60, TimeUnit.SECONDS);
+	private long writeTimeout = TimeUnit.MILLISECONDS.convert(60, TimeUnit.SECONDS);
+
+	// Ask NiFi for gzip compressed responses
+	private boolean compression = true;
+	
+	// Adapt the requests in flight (up to maxConnections) to how NiFi copes
+	private boolean adaptiveConcurrency = true;
+	
+	// Most retries of a single failed request (0 to never retry)
+	private int maxRetries = 3;
+	
+	// Retries allowed per request made, plus the retries allowed before any request was made (see RetryBudget)
+	private double retryRatio = 0.2;
+	private int retryReserve = 10;
+	
+	// Installed by the last apply (if adaptive)
+	private ConcurrencyLimiter limiter;
+	
+	// Retries left for everything made through the client, installed by the last apply
+	private RetryBudget retryBudget;
+	
+	// Calls per endpoint made through the client, installed by the last apply
+	private EndpointMetrics metrics;
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = Math.max(1, maxConnections);
+	}
+
+	public long getKeepAlive() {
+		return keepAlive;
+	}
+
+	public void setKeepAlive(long keepAlive) {
+		this.keepAlive = Math.max(0, keepAlive);
+	}
+
+	public long getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(long connectTimeout) {
+		this.connectTimeout = Math.max(0, connectTimeout);
+	}
+
+	public long getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(long readTimeout) {
+		this.readTimeout = Math.max(0, readTimeout);
+	}
+
+	public long getWriteTimeout() {
+		return writeTimeout;
+	}
+
+	public void setWriteTimeout(long writeTimeout) {
+		this.writeTimeout = Math.max(0, writeTimeout);
+	}
+
+	public boolean isCompression() {
+		return compression;
+	}
+
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	public boolean isAdaptiveConcurrency() {
+		return adaptiveConcurrency;
+	}
+
+	public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+		this.adaptiveConcurrency = adaptiveConcurrency;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = Math.max(0, maxRetries);
+	}
+
+	public double getRetryRatio() {
+		return retryRatio;
+	}
+
+	public void setRetryRatio(double retryRatio) {
+		this.retryRatio = Math.max(0, retryRatio);
+	}
+
+	public int getRetryReserve() {
+		return retryReserve;
+	}
+
+	public void setRetryReserve(int retryReserve) {
+		this.retryReserve = Math.max(0, retryReserve);
+	}
+
+	public RetryBudget getRetryBudget() {
+		return retryBudget;
+	}
+
+	public EndpointMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return limiter of the requests in flight (null unless adaptive concurrency was applied)
+	 */
+	public ConcurrencyLimiter getLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Configure an okhttp client with these settings (replaces its connection pool and dispatcher)
+	 */
+	public void apply(OkHttpClient client) {
+		ConnectionPool previous = client.getConnectionPool();
+		client.setConnectionPool(new ConnectionPool(maxConnections, keepAlive, TimeUnit.MILLISECONDS));
+		if (previous != null && previous != ConnectionPool.getDefault()) {
+			previous.evictAll();
+		}
+
+		// Starts low and grows while NiFi keeps up
+		limiter = adaptiveConcurrency ? new ConcurrencyLimiter(Math.min(4, maxConnections), maxConnections) : null;
+
+		// Only limits asynchronous calls, synchronous ones are limited by the callers (parallelism) and the limiter
+		Dispatcher dispatcher;
+		if (limiter != null) {
+			dispatcher = limiter.newDispatcher();
+		} else {
+			dispatcher = new Dispatcher();
+			dispatcher.setMaxRequestsPerHost(maxConnections);
+		}
+		dispatcher.setMaxRequests(Math.max(64, maxConnections));
+		client.setDispatcher(dispatcher);
+
+		client.setConnectTimeout(connectTimeout, TimeUnit.MILLISECONDS);
+		client.setReadTimeout(readTimeout, TimeUnit.MILLISECONDS);
+		client.setWriteTimeout(writeTimeout, TimeUnit.MILLISECONDS);
+
+		// okhttp asks for gzip (and decompresses it) by itself as long as no Accept-Encoding is set,
+		// so compression is turned off by asking for the identity encoding instead
+		client.interceptors().removeIf(interceptor -> interceptor instanceof IdentityEncoding 
+				|| interceptor instanceof ConcurrencyLimiter || interceptor instanceof RetryInterceptor
+				|| interceptor instanceof EndpointMetrics);
+		if (!compression) {
+			client.interceptors().add(new IdentityEncoding());
+		}
+		
+		if (limiter != null) {
+			client.interceptors().add(0, limiter);
+		}
+		
+		// Outermost, so requests waiting to be retried don't hold on to a slot of the limiter
+		retryBudget = new RetryBudget(retryRatio, retryReserve);
+		client.interceptors().add(0, new RetryInterceptor(maxRetries, retryBudget));
+		
+		// Around everything else, so latencies are what the commands wait for
+		metrics = new EndpointMetrics();
+		client.interceptors().add(0, metrics);
+	}
+
+	private static final class IdentityEncoding implements Interceptor {
+		@Override
+		public Response intercept(Chain chain) throws IOException {
+			return chain.proceed(chain.request().newBuilder().header("Accept-Encoding", "identity").build());
+		}
+	}
+}
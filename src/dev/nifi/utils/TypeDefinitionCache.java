@@ -0,0 +1,164 @@
+package dev.nifi.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.nifi.api.toolkit.model.BundleDTO;
+import org.apache.nifi.api.toolkit.model.PropertyDescriptorDTO;
+import org.apache.nifi.api.toolkit.model.RelationshipDTO;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Default property values and relationships of every processor/controller type seen, keyed by type + bundle coordinates.
+ *
+ * Every component NiFi returns repeats the full descriptor table of its type. The table is only
+ * taken from the first component of a type, every other component of the type is compared against
+ * the cached defaults. The cache can be persisted so that later exports (including offline exports
+ * from flow definitions, which don't contain any descriptors) know the defaults up front, and imports
+ * of the exported templates know which relationships a processor will have before creating it.
+ */
+public class TypeDefinitionCache {
+
+	public static final String CACHE_FILE = ".type-definitions.json";
+
+	// Coordinates -> Property Name -> Default Value (null when there is no default)
+	private final Map<String, Map<String, String>> defaults = new ConcurrentHashMap<>();
+
+	// Coordinates -> Relationship Names
+	private final Map<String, List<String>> relationships = new ConcurrentHashMap<>();
+
+	// Coordinates of types whose relationships differ between instances (depend on the configuration)
+	private final Set<String> dynamicRelationships = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Default values for a type, learning them from the descriptors if the type hasn't been seen yet
+	 *
+	 * @param type        Fully qualified class of the processor/controller
+	 * @param bundle      Bundle the type comes from
+	 * @param descriptors Descriptors reported with the component (may be null if they aren't known)
+	 * @return Property Name -> Default Value, empty if nothing is known about the type
+	 */
+	public Map<String, String> getDefaults(String type, BundleDTO bundle, Map<String, PropertyDescriptorDTO> descriptors) {
+		String coordinates = DependencyBuilder.coordinates(type, bundle);
+
+		Map<String, String> known = defaults.get(coordinates);
+		if (known == null && descriptors != null) {
+			known = defaults.computeIfAbsent(coordinates, k -> toDefaults(descriptors));
+		}
+
+		return known != null ? known : Collections.emptyMap();
+	}
+
+	/**
+	 * @return true if the defaults of the type are known
+	 */
+	public boolean contains(String type, BundleDTO bundle) {
+		return defaults.containsKey(DependencyBuilder.coordinates(type, bundle));
+	}
+
+	public int size() {
+		return defaults.size();
+	}
+
+	/**
+	 * @return names of all relationships of the type (sorted), null if they aren't known or depend on the configuration
+	 */
+	public List<String> getRelationships(String type, BundleDTO bundle) {
+		String coordinates = DependencyBuilder.coordinates(type, bundle);
+		return dynamicRelationships.contains(coordinates) ? null : relationships.get(coordinates);
+	}
+
+	/**
+	 * @return true if instances of the type were seen with different relationships
+	 */
+	public boolean hasDynamicRelationships(String type, BundleDTO bundle) {
+		return dynamicRelationships.contains(DependencyBuilder.coordinates(type, bundle));
+	}
+
+	/**
+	 * Remember the relationships a processor of the type was reported with
+	 *
+	 * @param observed Relationships of a single processor (ignored if null)
+	 */
+	public void learnRelationships(String type, BundleDTO bundle, List<RelationshipDTO> observed) {
+		if (observed == null) {
+			return;
+		}
+		String coordinates = DependencyBuilder.coordinates(type, bundle);
+
+		List<String> names = new ArrayList<>();
+		for (RelationshipDTO relationship : observed) {
+			names.add(relationship.getName());
+		}
+		Collections.sort(names);
+
+		List<String> known = relationships.putIfAbsent(coordinates, Collections.unmodifiableList(names));
+		if (known != null && !known.equals(names)) {
+			dynamicRelationships.add(coordinates);
+		}
+	}
+
+	/**
+	 * Extract the default values out of a descriptor table. Dynamic properties belong to the
+	 * component they were added to, not the type, so they are left out.
+	 */
+	public static Map<String, String> toDefaults(Map<String, PropertyDescriptorDTO> descriptors) {
+		Map<String, String> values = new TreeMap<>();
+		if (descriptors == null) {
+			return values;
+		}
+		for (Map.Entry<String, PropertyDescriptorDTO> descriptor : descriptors.entrySet()) {
+			if (!Boolean.TRUE.equals(descriptor.getValue().getDynamic())) {
+				values.put(descriptor.getKey(), descriptor.getValue().getDefaultValue());
+			}
+		}
+		return Collections.unmodifiableMap(values);
+	}
+
+	/**
+	 * Load previously cached definitions (if any exist) from the directory
+	 */
+	public void load(String directory) throws IOException {
+		File file = new File(directory, CACHE_FILE);
+		if (!file.isFile()) {
+			return;
+		}
+
+		CacheFile loaded = new ObjectMapper().readValue(file, CacheFile.class);
+		for (Map.Entry<String, Map<String, String>> type : loaded.defaults.entrySet()) {
+			defaults.put(type.getKey(), Collections.unmodifiableMap(new TreeMap<>(type.getValue())));
+		}
+		for (Map.Entry<String, List<String>> type : loaded.relationships.entrySet()) {
+			relationships.put(type.getKey(), Collections.unmodifiableList(new ArrayList<>(type.getValue())));
+		}
+		dynamicRelationships.addAll(loaded.dynamicRelationships);
+	}
+
+	/**
+	 * Persist all cached definitions to the directory so the next export/import can reuse them
+	 */
+	public void save(String directory) throws IOException {
+		CacheFile file = new CacheFile();
+		file.defaults.putAll(defaults);
+		file.relationships.putAll(relationships);
+		file.dynamicRelationships.addAll(dynamicRelationships);
+
+		new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(directory, CACHE_FILE), file);
+	}
+
+	// Layout of the cache file
+	static class CacheFile {
+		public Map<String, Map<String, String>> defaults = new TreeMap<>();
+		public Map<String, List<String>> relationships = new TreeMap<>();
+		public Set<String> dynamicRelationships = new TreeSet<>();
+	}
+}
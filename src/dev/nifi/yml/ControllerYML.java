@@ -1,11 +1,12 @@
 package dev.nifi.yml;
 
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.nifi.api.toolkit.model.ControllerServiceDTO;
 import org.apache.nifi.api.toolkit.model.ControllerServiceEntity;
-import org.apache.nifi.api.toolkit.model.PropertyDescriptorDTO;
 
 public class ControllerYML {
 
@@ -24,7 +25,23 @@ public class ControllerYML {
 	 */
 	public ControllerYML() {}
 	
-	public ControllerYML(ControllerServiceEntity controller, String dependencyReference) {
+	/**
+	 * Creates a copy of another controller (properties are copied)
+	 */
+	public ControllerYML(ControllerYML other) {
+		this.name = other.name;
+		this.type = other.type;
+		this.id = other.id;
+		this.comment = other.comment;
+		this.properties.putAll(other.properties);
+	}
+	
+	/**
+	 * @param controller          Controller configuration data from NiFi's API
+	 * @param dependencyReference Canonicalized name for this type of Controller
+	 * @param defaults            Default property values for this type of Controller
+	 */
+	public ControllerYML(ControllerServiceEntity controller, String dependencyReference, Map<String, String> defaults) {
 		ControllerServiceDTO dto = controller.getComponent();
 		
 		this.id = dto.getId();
@@ -35,15 +52,18 @@ public class ControllerYML {
 		
 		this.comment = controller.getComponent().getComments();
 
-		Map<String, PropertyDescriptorDTO> defaultProperties = dto.getDescriptors();
+		// Properties the type defines plus any (dynamic) ones only this controller has
 		Map<String, String> configuredValues = dto.getProperties();
-		for (String propertyName : defaultProperties.keySet()) {
-			PropertyDescriptorDTO defaultProperty = defaultProperties.get(propertyName);
+		Set<String> propertyNames = new TreeSet<>(defaults.keySet());
+		propertyNames.addAll(configuredValues.keySet());
+		
+		for (String propertyName : propertyNames) {
+			String defaultValue = defaults.get(propertyName);
 			String configuredValue = configuredValues.get(propertyName);
 			
 			// Check if the configuredValue differs from the default value
-			if ((defaultProperty.getDefaultValue() == null && configuredValue != null) || 
-				(defaultProperty.getDefaultValue() != null && !defaultProperty.getDefaultValue().equals(configuredValue))) {
+			if ((defaultValue == null && configuredValue != null) || 
+				(defaultValue != null && !defaultValue.equals(configuredValue))) {
 				this.properties.put(propertyName, configuredValue);
 			}
 		}
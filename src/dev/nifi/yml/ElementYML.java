@@ -4,12 +4,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.nifi.api.toolkit.model.*;
 
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
-
+import dev.nifi.utils.Codecs;
 import dev.nifi.xml.Criteria;
 import dev.nifi.xml.Rules;
 import dev.nifi.yml.HelperYML.ReservedComponents;
@@ -78,6 +79,13 @@ public class ElementYML {
 	 */
 	public RulesYML advanced;
 
+	/**
+	 * Overrides for property values inside of the referenced template (ProcessGroups only)
+	 * 
+	 * Component/Controller ID (in the template) -> Property Name -> Value
+	 */
+	public final Map<String, Map<String, String>> parameters = new TreeMap<>();
+
 	/*
 	 * Private constructor that handles all of the common functionality any visible
 	 * element on a canvas will need
@@ -100,20 +108,42 @@ public class ElementYML {
 	 */
 	public ElementYML() {}
 
+	/**
+	 * Creates a copy of another element (collections are copied, their entries are shared)
+	 * 
+	 * @param other Element to copy
+	 */
+	public ElementYML(ElementYML other) {
+		this.name = other.name;
+		this.type = other.type;
+		this.id = other.id;
+		this.template = other.template;
+		this.position = other.position;
+		this.comment = other.comment;
+		this.properties.putAll(other.properties);
+		this.styles.putAll(other.styles);
+		this.scheduling.putAll(other.scheduling);
+		this.inputs.addAll(other.inputs);
+		this.remotePorts.addAll(other.remotePorts);
+		this.advanced = other.advanced;
+		this.parameters.putAll(other.parameters);
+	}
+
 	/**
 	 * Creates a YAML representation for a single ProcessorEntity
 	 * 
 	 * @param pg                  Processor configuration data from NiFi's API
 	 * @param dependencyReference Canonicalized name for this type of Processor
 	 * @param inputs              All input connections for this Processor
+	 * @param defaults            Default property values for this type of Processor
 	 */
-	public ElementYML(ProcessorEntity pg, String dependencyReference, List<ConnectionEntity> inputs) {
+	public ElementYML(ProcessorEntity pg, String dependencyReference, List<ConnectionEntity> inputs, Map<String, String> defaults) {
 		this(pg.getId(), pg.getComponent().getName(), dependencyReference, pg.getPosition(), inputs);
 
 		final ProcessorConfigDTO config = pg.getComponent().getConfig();
 
 		// Handle all of the configurable aspects of a Processor and store the deltas
-		handleProperties(config.getDescriptors(), config.getProperties());
+		handleProperties(defaults, config.getProperties());
 		handleStyles(pg.getComponent().getStyle());
 		handleAnnotations(config.getAnnotationData());
 
@@ -278,19 +308,21 @@ public class ElementYML {
 	 * Helper method that checks all properties and looks for any configures values
 	 * that differ from the default value.
 	 */
-	private void handleProperties(Map<String, PropertyDescriptorDTO> defaultProperties,
-			Map<String, String> configuredValues) {
+	private void handleProperties(Map<String, String> defaultValues, Map<String, String> configuredValues) {
+
+		// Properties the type defines plus any (dynamic) ones only this processor has
+		Set<String> propertyNames = new TreeSet<>(defaultValues.keySet());
+		propertyNames.addAll(configuredValues.keySet());
 
 		// Populate the list of properties that have changed (compare default value vs
 		// configured value)
-		for (String propertyName : defaultProperties.keySet()) {
-			PropertyDescriptorDTO defaultProperty = defaultProperties.get(propertyName);
+		for (String propertyName : propertyNames) {
+			String defaultValue = defaultValues.get(propertyName);
 			String configuredValue = configuredValues.get(propertyName);
 
 			// Check if the configuredValue differs from the default value
-			if ((defaultProperty.getDefaultValue() == null && configuredValue != null)
-					|| (defaultProperty.getDefaultValue() != null
-							&& !defaultProperty.getDefaultValue().equals(configuredValue))) {
+			if ((defaultValue == null && configuredValue != null)
+					|| (defaultValue != null && !defaultValue.equals(configuredValue))) {
 				this.properties.put(propertyName, configuredValue);
 			}
 		}
@@ -355,9 +387,8 @@ public class ElementYML {
 
 		List<RuleYML> rules = new ArrayList<RuleYML>();
 
-		XmlMapper xmlMapper = new XmlMapper();
 		try {
-			Criteria criteria = xmlMapper.readValue(xmlAnnotations, Criteria.class);
+			Criteria criteria = Codecs.CRITERIA_READER.readValue(xmlAnnotations);
 
 			for (Rules rule : criteria.rules) {
 				RuleYML r = new RuleYML(rule.name, rule.conditions, rule.actions);
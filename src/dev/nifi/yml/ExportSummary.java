@@ -0,0 +1,53 @@
+package dev.nifi.yml;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outcome of writing a set of templates to disk
+ */
+public class ExportSummary {
+
+	private final AtomicInteger written = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+
+	// Template name -> hash of its content on disk
+	private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+	void recordWritten(String templateName, String hash) {
+		written.incrementAndGet();
+		hashes.put(templateName, hash);
+	}
+
+	void recordSkipped(String templateName, String hash) {
+		skipped.incrementAndGet();
+		hashes.put(templateName, hash);
+	}
+
+	/**
+	 * @return number of template files that were created or replaced
+	 */
+	public int getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * @return number of template files left alone because their content was identical
+	 */
+	public int getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * @return SHA-256 (hex) of the content on disk for a template, or null if it wasn't part of the export
+	 */
+	public String getHash(String templateName) {
+		return hashes.get(templateName);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Wrote %d templates, skipped %d unchanged", getWritten(), getSkipped());
+	}
+}
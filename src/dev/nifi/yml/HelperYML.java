@@ -1,21 +1,40 @@
 package dev.nifi.yml;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import org.apache.nifi.api.toolkit.model.PositionDTO;
 import org.apache.nifi.api.toolkit.model.ConnectionDTO.LoadBalanceCompressionEnum;
 import org.apache.nifi.api.toolkit.model.ConnectionDTO.LoadBalanceStrategyEnum;
 
-import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
+
+import dev.nifi.utils.Codecs;
 
 public class HelperYML {
 	// Enumeration of statically available types for elements on the workspace
@@ -34,6 +53,9 @@ public class HelperYML {
 	
 	public static String YAML_EXT = ".yaml";
 	
+	// First line of the label NiFi Templatizer adds to imported process groups
+	public static final String METADATA_LABEL_TITLE = "Imported By NiFi Templatizer";
+	
 	// font-size
 	public static String DEFAULT_STYLE_FONT_SIZE = "12px";
 	
@@ -141,18 +163,114 @@ public class HelperYML {
 		return true;
 	}
 	
+	/**
+	 * Create a copy of a template with parameter overrides applied to its controllers/components.
+	 * The original template is left untouched so it can be shared by several process groups.
+	 * 
+	 * @param template   Template referenced by a process group
+	 * @param parameters Component/Controller ID -> Property Name -> Value
+	 */
+	public static TemplateYML applyParameters(TemplateYML template, Map<String, Map<String, String>> parameters) {
+		TemplateYML copy = new TemplateYML();
+		copy.name = template.name;
+		copy.dependencies = template.dependencies;
+		
+		for (ControllerYML controller : template.controllers) {
+			ControllerYML c = new ControllerYML(controller);
+			if (parameters.containsKey(c.id)) {
+				c.properties.putAll(parameters.get(c.id));
+			}
+			copy.controllers.add(c);
+		}
+		for (ElementYML component : template.components) {
+			ElementYML e = new ElementYML(component);
+			if (parameters.containsKey(e.id)) {
+				e.properties.putAll(parameters.get(e.id));
+			}
+			copy.components.add(e);
+		}
+		
+		return copy;
+	}
+	
+	/**
+	 * Contents of a process group: the template it references, with the process group's parameters applied.
+	 * Templates may be shared by several process groups, so each one gets its own copy.
+	 * 
+	 * @param processGroup Process group element referencing a template
+	 * @param templateDB   Template file name -> Template
+	 */
+	public static TemplateYML instantiate(ElementYML processGroup, Map<String, TemplateYML> templateDB) {
+		TemplateYML template = templateDB.get(processGroup.template);
+		if (template == null) {
+			throw new IllegalArgumentException(String.format("Process group %s references missing template %s", 
+					processGroup.id, processGroup.template));
+		}
+		return applyParameters(template, processGroup.parameters);
+	}
+	
+	public static boolean isMetadataLabel(ElementYML element) {
+		return ReservedComponents.LABEL.isType(element.getType()) && 
+			   element.comment != null && element.comment.startsWith(METADATA_LABEL_TITLE);
+	}
+	
+	/**
+	 * Element ID -> Relationships that connections are made from, every other relationship gets auto terminated
+	 */
+	public static Map<String, Set<String>> usedRelationships(TemplateYML template) {
+		Map<String, Set<String>> usedRelationships = new HashMap<>();
+		
+		for (ElementYML destination : template.components) {
+			for (InputConnectionYML input : destination.inputs) {
+				if (!usedRelationships.containsKey(input.source)) {
+					usedRelationships.put(input.source, new HashSet<String>());
+				}
+				usedRelationships.get(input.source).addAll(input.from);
+			}
+		}
+		
+		return usedRelationships;
+	}
+	
+	/**
+	 * Create the label NiFi Templatizer puts in every process group it imports (developer mode),
+	 * placed below and to the right of the template's components
+	 */
+	public static ElementYML createMetadataLabel(TemplateYML template) {
+		PositionDTO position = new PositionDTO();
+		position.setX(Double.MIN_VALUE);
+		position.setY(Double.MIN_VALUE);
+		
+		for (ElementYML element : template.components) {
+			if (element.position != null) {
+				PositionDTO pos = createPosition(element.position);
+				
+				position.setX(Math.max(position.getX(), pos.getX()));
+				position.setY(Math.max(position.getY(), pos.getY()));
+			}
+		}
+		position.setX(position.getX() + 500.0);
+		position.setY(position.getY() + 500.0);
+		
+		ElementYML metadataLabel = new ElementYML();
+		metadataLabel.comment = METADATA_LABEL_TITLE + "\n\nasdf\nsdfjkl\nwkerjl\nkewflkjwle\n";
+		metadataLabel.position = formatPosition(position.getX(), position.getY());
+		metadataLabel.styles.put(WIDTH, formatDoubleTruncated(175.0));
+		metadataLabel.styles.put(HEIGHT, formatDoubleTruncated(20.0));
+		metadataLabel.styles.put(BG_COLOR, "#465ff0");
+		
+		return metadataLabel;
+	}
+	
 	public static List<TemplateYML> load(final String importDir) throws JsonParseException, JsonMappingException, IOException {
 		List<TemplateYML> templates = new ArrayList<TemplateYML>();
 		
-		YAMLFactory f = new YAMLFactory();
-		ObjectMapper mapper = new ObjectMapper(f);
-		
 		File templateDir = new File(importDir);
 		
 		for (String templateName : templateDir.list()) {
 			if (templateName.endsWith(HelperYML.YAML_EXT)) {
 				File template = new File(templateDir.getAbsolutePath() + File.separator + templateName);
-				TemplateYML yml = mapper.readValue(template, TemplateYML.class);
+				TemplateYML yml = Codecs.TEMPLATE_READER.readValue(template);
 				templates.add(yml);
 			}
 		}
@@ -160,28 +278,97 @@ public class HelperYML {
 		return templates;
 	}
 	
-	public static void export(String outputDir, List<TemplateYML> templates) throws IOException {
-		YAMLFactory f = new YAMLFactory();
-		f.enable(YAMLGenerator.Feature.MINIMIZE_QUOTES);
-		f.disable(YAMLGenerator.Feature.WRITE_DOC_START_MARKER);
-		ObjectMapper mapper = new ObjectMapper(f);
+	/**
+	 * Write all templates into the output directory (in parallel). Each template is written to a temp file
+	 * first and only moved into place if its content differs from what is already on disk.
+	 * 
+	 * @return how many templates were written vs skipped
+	 */
+	public static ExportSummary export(String outputDir, List<TemplateYML> templates) throws IOException {
+		ExportSummary summary = new ExportSummary();
+		try {
+			templates.parallelStream().forEach(template -> {
+				try {
+					export(outputDir, template, summary);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
 		
-		mapper.setSerializationInclusion(Include.NON_EMPTY);
+		return summary;
+	}
+	
+	/**
+	 * Write a single template into the output directory, see {@link #export(String, List)}
+	 */
+	public static void export(String outputDir, TemplateYML template, ExportSummary summary) throws IOException {
+		Path path = Paths.get(outputDir, template.name + HelperYML.YAML_EXT);
+		// Temp file lives next to the target so the final move is a rename on the same file system
+		Path temp = path.resolveSibling("." + template.name + HelperYML.YAML_EXT + "." + UUID.randomUUID() + ".tmp");
 		
-		for (TemplateYML template : templates) {
-			String yaml = mapper.writer().writeValueAsString(template);
+		try {
+			// Stream straight to the file, formatting to make it easier to read the templates is applied as lines are written
+			MessageDigest digest = sha256();
+			OutputStream out = new DigestOutputStream(Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), digest);
+			try (Writer writer = new TemplateSpacingWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))) {
+				Codecs.TEMPLATE_WRITER.writeValue(writer, template);
+			}
+			String hash = toHex(digest.digest());
 			
-			// Formatting to make it easier to read the templates
-			yaml = yaml.replaceAll("\n-", "\n\n-");
-			yaml = yaml.replace("\ndependencies:", "\n\ndependencies:");
-			yaml = yaml.replace("\ncontrollers:", "\n\ncontrollers:");
-			yaml = yaml.replace("\ncontrollers:\n", "\ncontrollers:");
-			yaml = yaml.replace("\ncomponents:", "\n\ncomponents:");
-			yaml = yaml.replace("\ncomponents:\n", "\ncomponents:");
+			// Leave identical files untouched
+			if (Files.isRegularFile(path) && hash.equals(hash(path.toFile()))) {
+				summary.recordSkipped(template.name, hash);
+				return;
+			}
 			
-			try (FileWriter writer = new FileWriter(outputDir + File.separator + template.name + HelperYML.YAML_EXT)) {
-				writer.write(yaml);
+			// The data must be on disk before the rename is, or a crash could leave an empty/partial template behind
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				channel.force(true);
 			}
+			
+			try {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+			summary.recordWritten(template.name, hash);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * @return hex SHA-256 of a file's contents, as recorded for written templates
+	 */
+	public static String hash(File file) throws IOException {
+		MessageDigest digest = sha256();
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	public static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
 		}
+		return sb.toString();
 	}
 }
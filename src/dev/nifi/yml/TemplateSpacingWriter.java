@@ -0,0 +1,94 @@
+package dev.nifi.yml;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Adds blank lines to serialized templates as they are written to make them easier to read:
+ *  - Before every top level section (dependencies/controllers/components)
+ *  - Between every top level list item (each controller/component), but not directly after the section name
+ *
+ * Only the current line is ever held in memory.
+ */
+class TemplateSpacingWriter extends Writer {
+
+	private static final String DEPENDENCIES = "dependencies:";
+	private static final String CONTROLLERS = "controllers:";
+	private static final String COMPONENTS = "components:";
+
+	private final Writer out;
+
+	// Line currently being written (waiting for its newline)
+	private final StringBuilder line = new StringBuilder();
+
+	private boolean firstLine = true;
+	private boolean previousWasListSection = false;
+
+	public TemplateSpacingWriter(Writer out) {
+		this.out = out;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++) {
+			char c = cbuf[i];
+			if (c == '\n') {
+				writeLine(true);
+			} else {
+				line.append(c);
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		// Partial lines are held back until complete since their spacing isn't known yet
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (line.length() > 0) {
+				writeLine(false);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeLine(boolean newline) throws IOException {
+		if (!firstLine) {
+			if (startsWith(DEPENDENCIES) || startsWith(CONTROLLERS) || startsWith(COMPONENTS)) {
+				out.write('\n');
+			} else if (startsWith("-") && !previousWasListSection) {
+				out.write('\n');
+			}
+		}
+
+		out.append(line);
+		if (newline) {
+			out.write('\n');
+		}
+
+		previousWasListSection = equalsLine(CONTROLLERS) || equalsLine(COMPONENTS);
+		firstLine = false;
+		line.setLength(0);
+	}
+
+	private boolean startsWith(String prefix) {
+		if (line.length() < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (line.charAt(i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean equalsLine(String s) {
+		return line.length() == s.length() && startsWith(s);
+	}
+}
@@ -1,10 +1,27 @@
 package dev.nifi.yml;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.apache.nifi.api.toolkit.model.ConnectionEntity;
+import org.apache.nifi.api.toolkit.model.ConnectionEntity.DestinationTypeEnum;
+import org.apache.nifi.api.toolkit.model.ControllerServiceDTO;
+import org.apache.nifi.api.toolkit.model.ControllerServiceEntity;
+import org.apache.nifi.api.toolkit.model.FunnelEntity;
+import org.apache.nifi.api.toolkit.model.LabelEntity;
+import org.apache.nifi.api.toolkit.model.PortEntity;
+import org.apache.nifi.api.toolkit.model.ProcessGroupEntity;
+import org.apache.nifi.api.toolkit.model.ProcessorDTO;
+import org.apache.nifi.api.toolkit.model.ProcessorEntity;
+import org.apache.nifi.api.toolkit.model.RemoteProcessGroupEntity;
+
+import dev.nifi.utils.DependencyBuilder;
+import dev.nifi.utils.ProcessGroupContents;
+import dev.nifi.utils.TypeDefinitionCache;
+
 public class TemplateYML {
 
 	public String name;
@@ -17,4 +34,89 @@ public class TemplateYML {
 		
 	
 	public TemplateYML() {}
+
+	/**
+	 * Creates a YAML representation of a single process group. Child process groups are
+	 * referenced by their id, their own templates must be generated separately.
+	 *
+	 * @param contents Everything contained directly inside the process group
+	 */
+	public TemplateYML(ProcessGroupContents contents) {
+		this(contents, new TypeDefinitionCache());
+	}
+
+	/**
+	 * @param contents  Everything contained directly inside the process group
+	 * @param typeCache Default property values of processor/controller types (shared between templates)
+	 */
+	public TemplateYML(ProcessGroupContents contents, TypeDefinitionCache typeCache) {
+		this.name = contents.id;
+
+		Map<String, List<ConnectionEntity>> connectionLookup = new HashMap<>();
+		for (ConnectionEntity ce : contents.connections) {
+			// When dealing with a destination that is a remote process group,
+			// the group id is the correct id, not the regular id
+			String destination = ce.getDestinationType() == DestinationTypeEnum.REMOTE_INPUT_PORT ||
+					ce.getDestinationType() == DestinationTypeEnum.INPUT_PORT
+					? ce.getDestinationGroupId() : ce.getDestinationId();
+
+			if (!connectionLookup.containsKey(destination)) {
+				connectionLookup.put(destination, new ArrayList<>());
+			}
+
+			connectionLookup.get(destination).add(ce);
+		}
+
+		// Generate all of the dependencies needed
+		DependencyBuilder depBuilder = new DependencyBuilder();
+		this.dependencies = depBuilder
+				.addAllProcessorDependencies(contents.processors)
+				.addAllControllerDependencies(contents.controllerServices)
+				.build();
+
+		for (ControllerServiceEntity controller : contents.controllerServices) {
+			ControllerServiceDTO dto = controller.getComponent();
+			Map<String, String> defaults = typeCache.getDefaults(dto.getType(), dto.getBundle(), dto.getDescriptors());
+			ControllerYML c = new ControllerYML(controller, depBuilder.getCanonicalDependencyName(controller.getId()), defaults);
+			this.controllers.add(c);
+		}
+
+		for (PortEntity port : contents.inputPorts) {
+			ElementYML p = new ElementYML(port, connectionLookup.get(port.getId()));
+			this.components.add(p);
+		}
+		for (PortEntity port : contents.outputPorts) {
+			ElementYML p = new ElementYML(port, connectionLookup.get(port.getId()));
+			this.components.add(p);
+		}
+
+		for (ProcessorEntity pe : contents.processors) {
+			ProcessorDTO dto = pe.getComponent();
+			Map<String, String> defaults = typeCache.getDefaults(dto.getType(), dto.getBundle(), dto.getConfig().getDescriptors());
+			typeCache.learnRelationships(dto.getType(), dto.getBundle(), dto.getRelationships());
+			ElementYML p = new ElementYML(pe, depBuilder.getCanonicalDependencyName(pe.getId()), connectionLookup.get(pe.getId()), defaults);
+			this.components.add(p);
+		}
+
+		for (FunnelEntity f : contents.funnels) {
+			ElementYML p = new ElementYML(f, connectionLookup.get(f.getId()));
+			this.components.add(p);
+		}
+
+		for (LabelEntity l : contents.labels) {
+			ElementYML p = new ElementYML(l);
+			this.components.add(p);
+		}
+
+		for (ProcessGroupEntity pg : contents.processGroups) {
+			// Each process group is exported to its own template named after the group's id
+			ElementYML p = new ElementYML(pg, pg.getId(), connectionLookup.get(pg.getId()));
+			this.components.add(p);
+		}
+
+		for (RemoteProcessGroupEntity rpg : contents.remoteProcessGroups) {
+			ElementYML p = new ElementYML(rpg, connectionLookup.get(rpg.getId()));
+			this.components.add(p);
+		}
+	}
 }
@@ -0,0 +1,164 @@
+package dev.nifi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+
+import org.junit.Test;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+public class ConcurrencyLimiterTest {
+
+	private static final String FAST = "http://localhost:8080/nifi-api/flow/about";
+	private static final String SLOW = "http://localhost:8080/nifi-api/process-groups/2a1c7a5e-0171-1000-9bd4-8fd0d5fd1a3b/template-instance";
+
+	/*
+	 * Responds with a status code after a fixed delay, or fails with an exception
+	 */
+	private static final class FakeChain implements Interceptor.Chain {
+
+		private final Request request;
+		private final int code;
+		private final long delayMs;
+		private final IOException failure;
+
+		FakeChain(String url, int code, long delayMs) {
+			this(url, code, delayMs, null);
+		}
+
+		FakeChain(String url, IOException failure) {
+			this(url, 0, 0, failure);
+		}
+
+		private FakeChain(String url, int code, long delayMs, IOException failure) {
+			this.request = new Request.Builder().url(url).build();
+			this.code = code;
+			this.delayMs = delayMs;
+			this.failure = failure;
+		}
+
+		@Override
+		public Request request() {
+			return request;
+		}
+
+		@Override
+		public Response proceed(Request request) throws IOException {
+			if (failure != null) {
+				throw failure;
+			}
+			try {
+				Thread.sleep(delayMs);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(code)
+					.body(ResponseBody.create(MediaType.parse("application/json"), "{}")).build();
+		}
+
+		@Override
+		public Connection connection() {
+			return null;
+		}
+	}
+
+	@Test
+	public void limitGrowsWhileItHoldsRequestsBack() throws IOException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 16);
+
+		// One request at a time stops the growth once less than half of the limit is in use
+		for (int i = 0; i < 10; i++) {
+			limiter.intercept(new FakeChain(FAST, 200, 5));
+		}
+
+		assertEquals(3, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void limitNeverGrowsPastTheMaximum() throws IOException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 2);
+		for (int i = 0; i < 10; i++) {
+			limiter.intercept(new FakeChain(FAST, 200, 5));
+		}
+
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void overloadedResponsesShrinkTheLimit() throws IOException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 16);
+
+		limiter.intercept(new FakeChain(FAST, 503, 0));
+		assertEquals(9, limiter.getLimit());
+
+		limiter.intercept(new FakeChain(FAST, 429, 0));
+		assertEquals(8, limiter.getLimit());
+	}
+
+	@Test
+	public void limitNeverShrinksBelowOne() throws IOException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 16);
+		for (int i = 0; i < 20; i++) {
+			limiter.intercept(new FakeChain(FAST, 503, 0));
+		}
+
+		assertEquals(1, limiter.getLimit());
+	}
+
+	@Test
+	public void timeoutsShrinkTheLimitOtherFailuresDont() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 16);
+
+		try {
+			limiter.intercept(new FakeChain(FAST, new ConnectException("Connection refused")));
+			fail("The failure should have been rethrown");
+		} catch (IOException e) {
+			assertEquals(10, limiter.getLimit());
+		}
+
+		try {
+			limiter.intercept(new FakeChain(FAST, new InterruptedIOException("timeout")));
+			fail("The failure should have been rethrown");
+		} catch (IOException e) {
+			assertEquals(9, limiter.getLimit());
+		}
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void slowEndpointsAreComparedToThemselves() throws IOException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 16);
+
+		// A template instance is always much slower than reading the flow, that isn't NiFi struggling
+		for (int i = 0; i < 3; i++) {
+			limiter.intercept(new FakeChain(FAST, 200, 1));
+		}
+		for (int i = 0; i < 3; i++) {
+			limiter.intercept(new FakeChain(SLOW, 200, 30));
+		}
+
+		assertEquals(4, limiter.getLimit());
+	}
+
+	@Test
+	public void dispatcherFollowsTheLimit() throws IOException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 16);
+		Dispatcher dispatcher = limiter.newDispatcher();
+		assertEquals(10, dispatcher.getMaxRequestsPerHost());
+
+		limiter.intercept(new FakeChain(FAST, 503, 0));
+		assertEquals(9, dispatcher.getMaxRequestsPerHost());
+	}
+}
@@ -0,0 +1,134 @@
+package dev.nifi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+public class EndpointMetricsTest {
+
+	private static final String NIFI = "http://localhost:8080/nifi-api";
+	private static final String ID = "2a1c7a5e-0171-1000-9bd4-8fd0d5fd1a3b";
+	private static final MediaType JSON = MediaType.parse("application/json");
+
+	/*
+	 * Responds to every request with a fixed status code and body
+	 */
+	private static final class FakeChain implements Interceptor.Chain {
+
+		private final Request request;
+		private final int code;
+		private final String body;
+
+		FakeChain(Request request, int code, String body) {
+			this.request = request;
+			this.code = code;
+			this.body = body;
+		}
+
+		@Override
+		public Request request() {
+			return request;
+		}
+
+		@Override
+		public Response proceed(Request request) throws IOException {
+			return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(code)
+					.body(ResponseBody.create(JSON, body)).build();
+		}
+
+		@Override
+		public Connection connection() {
+			return null;
+		}
+	}
+
+	private static Request get(String path) {
+		return new Request.Builder().url(NIFI + path).build();
+	}
+
+	@Test
+	public void idsAreReplacedInEndpoints() {
+		assertEquals("GET /processors/{id}", EndpointMetrics.endpoint(get("/processors/" + ID)));
+		assertEquals("GET /flow/process-groups/{id}/controller-services",
+				EndpointMetrics.endpoint(get("/flow/process-groups/" + ID + "/controller-services")));
+		assertEquals("DELETE /processors/{id}", EndpointMetrics.endpoint(
+				new Request.Builder().url(NIFI + "/processors/" + ID + "?version=3&clientId=x").delete().build()));
+	}
+
+	@Test
+	public void pathsThatArentIdsAreKept() {
+		// 'root' is an alias of the top process group, not an id
+		assertEquals("GET /process-groups/root", EndpointMetrics.endpoint(get("/process-groups/root")));
+		assertEquals("GET /flow/about", EndpointMetrics.endpoint(get("/flow/about")));
+	}
+
+	@Test
+	public void callsFailuresAndBytesAreCountedPerEndpoint() throws IOException {
+		EndpointMetrics metrics = new EndpointMetrics();
+
+		Response response = metrics.intercept(new FakeChain(get("/processors/" + ID), 200, "{\"id\":1}"));
+		response.body().string();
+		metrics.intercept(new FakeChain(get("/processors/" + ID.replace('a', 'b')), 409, "")).body().close();
+
+		Request put = new Request.Builder().url(NIFI + "/processors/" + ID).put(RequestBody.create(JSON, "{}")).build();
+		metrics.intercept(new FakeChain(put, 200, "")).body().close();
+
+		assertEquals(2, metrics.getEndpoints().size());
+
+		EndpointMetrics.Endpoint get = metrics.getEndpoints().get("GET /processors/{id}");
+		assertEquals(2, get.getCalls());
+		assertEquals(1, get.getFailures());
+		assertEquals(8, get.getBytesReceived());
+		assertEquals(2, get.getLatency().getTotalCount());
+
+		EndpointMetrics.Endpoint update = metrics.getEndpoints().get("PUT /processors/{id}");
+		assertEquals(1, update.getCalls());
+		assertEquals(2, update.getBytesSent());
+	}
+
+	@Test
+	public void prometheusOutputHasOneSeriesPerEndpoint() throws IOException {
+		EndpointMetrics metrics = new EndpointMetrics();
+		metrics.intercept(new FakeChain(get("/processors/" + ID), 200, "")).body().close();
+
+		StringWriter text = new StringWriter();
+		try (PrintWriter out = new PrintWriter(text)) {
+			metrics.writePrometheus(out);
+		}
+
+		String prometheus = text.toString();
+		assertTrue(prometheus.contains("templatizer_nifi_requests_total{method=\"GET\",endpoint=\"/processors/{id}\"} 1"));
+		assertTrue(prometheus.contains("templatizer_nifi_request_duration_seconds{method=\"GET\",endpoint=\"/processors/{id}\",quantile=\"0.99\"}"));
+		assertTrue(prometheus.contains("templatizer_nifi_request_duration_seconds_count{method=\"GET\",endpoint=\"/processors/{id}\"} 1"));
+	}
+
+	@Test
+	public void jsonOutputListsEveryEndpoint() throws IOException {
+		EndpointMetrics metrics = new EndpointMetrics();
+		metrics.intercept(new FakeChain(get("/processors/" + ID), 200, "")).body().close();
+		metrics.intercept(new FakeChain(get("/flow/about"), 200, "")).body().close();
+
+		StringWriter text = new StringWriter();
+		try (PrintWriter out = new PrintWriter(text)) {
+			metrics.writeJson(out);
+		}
+
+		String json = text.toString();
+		assertTrue(json.contains("\"endpoint\": \"GET /processors/{id}\""));
+		assertTrue(json.contains("\"endpoint\": \"GET /flow/about\""));
+	}
+}
@@ -0,0 +1,126 @@
+package dev.nifi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dev.nifi.yml.HelperYML.ReservedComponents;
+
+public class ImportJournalTest {
+
+	private Path dir;
+	private Path file;
+
+	@Before
+	public void createJournal() throws IOException {
+		dir = Files.createTempDirectory("import-journal");
+		file = dir.resolve(ImportJournal.DEFAULT_FILE_NAME);
+	}
+
+	@After
+	public void deleteJournal() throws IOException {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(dir);
+	}
+
+	@Test
+	public void replayRestoresIdsAndNames() throws IOException {
+		try (ImportJournal journal = ImportJournal.open(file, false)) {
+			journal.recordId("g1", "old1", "new1", 3L);
+			journal.recordId("g2", "old1", "new2", null);
+			journal.recordName("g1", "in", ReservedComponents.INPUT_PORT.name(), "port1");
+		}
+
+		ObjectTracker tracker = new ObjectTracker();
+		assertEquals(2, ImportJournal.replay(file, tracker));
+		assertEquals("new1", tracker.lookupByOldId("g1", "old1"));
+		assertEquals("new2", tracker.lookupByOldId("g2", "old1"));
+		assertEquals("port1", tracker.getIdForObject("g1", "in", ReservedComponents.INPUT_PORT));
+	}
+
+	@Test
+	public void closeWritesTheLastBatch() throws IOException {
+		// Fewer records than a batch, nothing is synced until the journal is closed
+		ImportJournal journal = ImportJournal.open(file, false);
+		for (int i = 0; i < 10; i++) {
+			journal.recordId("g", "old" + i, "new" + i, (long) i);
+		}
+		journal.close();
+
+		assertEquals(10, ImportJournal.replay(file, new ObjectTracker()));
+	}
+
+	@Test
+	public void tabsAndNewlinesInNamesSurvive() throws IOException {
+		String name = "a\tport\nwith \\ odd\r characters";
+		try (ImportJournal journal = ImportJournal.open(file, false)) {
+			journal.recordName("g", name, ReservedComponents.OUTPUT_PORT.name(), "port1");
+		}
+
+		ObjectTracker tracker = new ObjectTracker();
+		ImportJournal.replay(file, tracker);
+		assertEquals("port1", tracker.getIdForObject("g", name, ReservedComponents.OUTPUT_PORT));
+	}
+
+	@Test
+	public void tornRecordIsDroppedOnResume() throws IOException {
+		try (ImportJournal journal = ImportJournal.open(file, false)) {
+			journal.recordId("g", "old1", "new1", 1L);
+		}
+		Files.write(file, "ID\tg\told2\tne".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		try (ImportJournal journal = ImportJournal.open(file, true)) {
+			journal.recordId("g", "old3", "new3", 1L);
+		}
+
+		ObjectTracker tracker = new ObjectTracker();
+		assertEquals(2, ImportJournal.replay(file, tracker));
+		assertEquals("new1", tracker.lookupByOldId("g", "old1"));
+		assertNull(tracker.lookupByOldId("g", "old2"));
+		assertEquals("new3", tracker.lookupByOldId("g", "old3"));
+	}
+
+	@Test
+	public void openWithoutAppendStartsOver() throws IOException {
+		try (ImportJournal journal = ImportJournal.open(file, false)) {
+			journal.recordId("g", "old1", "new1", 1L);
+		}
+		try (ImportJournal journal = ImportJournal.open(file, false)) {
+			journal.recordId("g", "old2", "new2", 1L);
+		}
+
+		ObjectTracker tracker = new ObjectTracker();
+		assertEquals(1, ImportJournal.replay(file, tracker));
+		assertNull(tracker.lookupByOldId("g", "old1"));
+	}
+
+	@Test
+	public void missingJournalReplaysNothing() throws IOException {
+		assertEquals(0, ImportJournal.replay(file, new ObjectTracker()));
+	}
+
+	@Test
+	public void trackerRecordsIntoTheJournal() throws IOException {
+		ObjectTracker tracker = new ObjectTracker();
+		try (ImportJournal journal = ImportJournal.open(file, false)) {
+			tracker.setJournal(journal);
+			tracker.track("g", "old1", "new1", 2L);
+			tracker.track("g", "in", ReservedComponents.INPUT_PORT.name(), "port1");
+			tracker.setJournal(null);
+		}
+
+		ObjectTracker resumed = new ObjectTracker();
+		assertEquals(1, ImportJournal.replay(file, resumed));
+		assertEquals("new1", resumed.lookupByOldId("g", "old1"));
+		assertEquals("port1", resumed.getIdForObject("g", "in", ReservedComponents.INPUT_PORT));
+	}
+}
@@ -0,0 +1,203 @@
+package dev.nifi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.nifi.api.toolkit.ApiException;
+import org.junit.Test;
+
+import dev.nifi.utils.ImportPlan.Operation;
+
+public class ImportPlanTest {
+
+	private final List<String> ran = Collections.synchronizedList(new ArrayList<>());
+
+	private ApiCall<Void> record(String name) {
+		return () -> {
+			ran.add(name);
+			return null;
+		};
+	}
+
+	@Test
+	public void criticalPathIsCostOfLongestChainBelow() {
+		ImportPlan plan = new ImportPlan();
+		Operation group = plan.add("group", 1, record("group"));
+		Operation a = plan.add("a", 2, record("a"), group);
+		Operation b = plan.add("b", 5, record("b"), group);
+		Operation connect = plan.add("connect", 1, record("connect"), a, b);
+
+		plan.computeCriticalPaths();
+
+		assertEquals(1, connect.getCriticalPath());
+		assertEquals(3, a.getCriticalPath());
+		assertEquals(6, b.getCriticalPath());
+		assertEquals(7, group.getCriticalPath());
+		assertEquals(7, plan.getCriticalPathLength());
+		assertEquals(9, plan.getTotalCost());
+	}
+
+	@Test
+	public void longestChainIsCountedInCalls() {
+		ImportPlan plan = new ImportPlan();
+		Operation group = plan.add("group", 1, record("group")).calls("POST /process-groups/{id}/process-groups", 1);
+		Operation cheap = plan.add("cheap", 10, record("cheap"), group).calls("PUT /processors/{id}", 1);
+		Operation busy = plan.add("busy", 1, record("busy"), group)
+				.calls("POST /process-groups/{id}/processors", 1)
+				.calls("PUT /processors/{id}", 3);
+
+		plan.computeCriticalPaths();
+
+		// The most expensive chain isn't the one with the most calls
+		assertEquals(11, plan.getCriticalPathLength());
+		assertEquals(5, plan.getLongestChainCalls());
+		assertEquals(4, busy.getCallCount());
+		assertEquals(1, cheap.getCallCount());
+		assertEquals(Integer.valueOf(4), plan.getCallsPerEndpoint().get("PUT /processors/{id}"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void cycleIsRejected() {
+		ImportPlan plan = new ImportPlan();
+		Operation a = plan.add("a", 1, record("a"));
+		Operation b = plan.add("b", 1, record("b"), a);
+		a.dependOn(b);
+
+		plan.computeCriticalPaths();
+	}
+
+	@Test
+	public void nullAndSelfDependenciesAreIgnored() {
+		ImportPlan plan = new ImportPlan();
+		Operation a = plan.add("a", 1, record("a"), (Operation) null);
+		a.dependOn(a);
+
+		assertTrue(a.getDependencies().isEmpty());
+		assertTrue(a.getDependents().isEmpty());
+	}
+
+	@Test
+	public void longestChainRunsFirst() throws ApiException {
+		ImportPlan plan = new ImportPlan();
+		plan.add("short", 1, record("short"));
+		Operation first = plan.add("long1", 1, record("long1"));
+		Operation second = plan.add("long2", 1, record("long2"), first);
+		plan.add("long3", 1, record("long3"), second);
+
+		ImportScheduler scheduler = new ImportScheduler(1);
+		scheduler.run(plan);
+
+		assertEquals(4, scheduler.getCompleted());
+		assertEquals(1, scheduler.getPeakInFlight());
+		assertEquals("long1", ran.get(0));
+		assertTrue(ran.indexOf("long2") < ran.indexOf("long3"));
+	}
+
+	@Test
+	public void dependenciesCompleteBeforeDependents() throws ApiException {
+		ImportPlan plan = new ImportPlan();
+		List<Operation> groups = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Operation group = plan.add("group" + i, 1, record("group" + i));
+			plan.add("child" + i, 1, record("child" + i), group);
+			groups.add(group);
+		}
+		plan.add("connect", 1, record("connect"), groups.toArray(new Operation[0]));
+
+		new ImportScheduler(4).run(plan);
+
+		assertEquals(17, ran.size());
+		for (int i = 0; i < 8; i++) {
+			assertTrue(ran.indexOf("group" + i) < ran.indexOf("child" + i));
+			assertTrue(ran.indexOf("group" + i) < ran.indexOf("connect"));
+		}
+	}
+
+	@Test
+	public void failureStopsNewOperations() {
+		ImportPlan plan = new ImportPlan();
+		Operation failing = plan.add("failing", 1, () -> {
+			throw new ApiException(409, "conflict");
+		});
+		plan.add("after", 1, record("after"), failing);
+
+		try {
+			new ImportScheduler(2).run(plan);
+			fail("The failed operation should have been rethrown");
+		} catch (ApiException e) {
+			assertEquals("failing failed: conflict", e.getMessage());
+		}
+		assertTrue(ran.isEmpty());
+	}
+
+	@Test
+	public void failureNamesTheOperation() throws ApiException {
+		ImportPlan plan = new ImportPlan();
+		plan.add("Create processor LogAttribute", 1, () -> {
+			throw new IllegalStateException("no bundle");
+		});
+
+		try {
+			new ImportScheduler(1).run(plan);
+			fail("The failed operation should have been rethrown");
+		} catch (IllegalStateException e) {
+			assertEquals("Create processor LogAttribute failed: no bundle", e.getMessage());
+			assertEquals("no bundle", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void waitingOperationDoesntTakeAWorker() throws ApiException {
+		CompletableFuture<Void> discovered = new CompletableFuture<>();
+		ImportPlan plan = new ImportPlan();
+		Operation create = plan.add("create", 1, record("create"));
+		plan.add("configure", 1, record("configure"), create).readyWhen(() -> discovered);
+		plan.add("other", 1, () -> {
+			ran.add("other");
+			discovered.complete(null);
+			return null;
+		});
+
+		// A single worker would never get to 'other' if 'configure' waited on it
+		ImportScheduler scheduler = new ImportScheduler(1);
+		scheduler.run(plan);
+
+		assertEquals(3, scheduler.getCompleted());
+		assertTrue(ran.indexOf("other") < ran.indexOf("configure"));
+	}
+
+	@Test
+	public void failedConditionFailsItsOperation() {
+		CompletableFuture<Void> discovered = new CompletableFuture<>();
+		discovered.completeExceptionally(new ApiException(404, "not found"));
+		ImportPlan plan = new ImportPlan();
+		Operation configure = plan.add("configure", 1, record("configure")).readyWhen(() -> discovered);
+		plan.add("connect", 1, record("connect"), configure);
+
+		try {
+			new ImportScheduler(2).run(plan);
+			fail("The failed condition should have been rethrown");
+		} catch (ApiException e) {
+			assertEquals("configure failed: not found", e.getMessage());
+		}
+		assertTrue(ran.isEmpty());
+	}
+
+	@Test
+	public void estimateFollowsTheLongestChain() {
+		ImportPlan plan = new ImportPlan();
+		Operation first = plan.add("first", 2, record("first"));
+		plan.add("second", 3, record("second"), first);
+		plan.add("independent", 4, record("independent"));
+
+		assertEquals(5, new ImportScheduler(2).estimate(plan, 1));
+		assertEquals(9, new ImportScheduler(1).estimate(plan, 1));
+		assertTrue(ran.isEmpty());
+	}
+}
@@ -0,0 +1,78 @@
+package dev.nifi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import dev.nifi.yml.HelperYML.ReservedComponents;
+
+public class ObjectTrackerTest {
+
+	private final ObjectTracker tracker = new ObjectTracker();
+
+	@Test
+	public void namesAreLookedUpByGroupAndType() {
+		tracker.track("g1", "data", ReservedComponents.INPUT_PORT.name(), "in1");
+		tracker.track("g1", "data", ReservedComponents.OUTPUT_PORT.name(), "out1");
+		tracker.track("g2", "data", ReservedComponents.INPUT_PORT.name(), "in2");
+
+		assertEquals("in1", tracker.getIdForObject("g1", "data", ReservedComponents.INPUT_PORT));
+		assertEquals("out1", tracker.getIdForObject("g1", "data", ReservedComponents.OUTPUT_PORT));
+		assertEquals("in2", tracker.getIdForObject("g2", "data", ReservedComponents.INPUT_PORT));
+	}
+
+	@Test
+	public void unknownNamesAreNull() {
+		tracker.track("g1", "data", ReservedComponents.INPUT_PORT.name(), "in1");
+
+		assertNull(tracker.getIdForObject("g1", "other", ReservedComponents.INPUT_PORT));
+		assertNull(tracker.getIdForObject("g1", "data", ReservedComponents.OUTPUT_PORT));
+		assertNull(tracker.getIdForObject("g3", "data", ReservedComponents.INPUT_PORT));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void sameNameWithTwoIdsIsAmbiguous() {
+		tracker.track("g1", "data", ReservedComponents.INPUT_PORT.name(), "in1");
+		tracker.track("g1", "data", ReservedComponents.INPUT_PORT.name(), "in2");
+
+		tracker.getIdForObject("g1", "data", ReservedComponents.INPUT_PORT);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void ambiguityIsNotUndoneByTrackingAgain() {
+		tracker.track("g1", "data", ReservedComponents.INPUT_PORT.name(), "in1");
+		tracker.track("g1", "data", ReservedComponents.INPUT_PORT.name(), "in2");
+		tracker.track("g1", "data", ReservedComponents.INPUT_PORT.name(), "in1");
+
+		tracker.getIdForObject("g1", "data", ReservedComponents.INPUT_PORT);
+	}
+
+	@Test
+	public void trackingTheSameIdTwiceIsNotAmbiguous() {
+		// A resumed import tracks what its journal restored again
+		tracker.track("g1", "data", ReservedComponents.INPUT_PORT.name(), "in1");
+		tracker.track("g1", "data", ReservedComponents.INPUT_PORT.name(), "in1");
+
+		assertEquals("in1", tracker.getIdForObject("g1", "data", ReservedComponents.INPUT_PORT));
+	}
+
+	@Test
+	public void nameLiterallyMatchingTheMarkerIsNotAmbiguous() {
+		tracker.track("g1", "data", ReservedComponents.INPUT_PORT.name(), "(ambiguous)");
+
+		assertEquals("(ambiguous)", tracker.getIdForObject("g1", "data", ReservedComponents.INPUT_PORT));
+	}
+
+	@Test
+	public void oldIdsAreScopedToTheirGroup() {
+		tracker.track("g1", "old", "new1");
+		tracker.track("g2", "old", "new2");
+		tracker.track("g1", null, "label");
+
+		assertEquals("new1", tracker.lookupByOldId("g1", "old"));
+		assertEquals("new2", tracker.lookupByOldId("g2", "old"));
+		assertNull(tracker.lookupByOldId("g3", "old"));
+		assertNull(tracker.lookupByOldId("g1", null));
+	}
+}
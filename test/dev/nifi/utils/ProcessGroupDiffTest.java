@@ -0,0 +1,223 @@
+package dev.nifi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.apache.nifi.api.toolkit.model.ConnectableDTO;
+import org.apache.nifi.api.toolkit.model.ConnectionDTO;
+import org.apache.nifi.api.toolkit.model.ConnectionEntity;
+import org.apache.nifi.api.toolkit.model.FunnelDTO;
+import org.apache.nifi.api.toolkit.model.FunnelEntity;
+import org.apache.nifi.api.toolkit.model.LabelDTO;
+import org.apache.nifi.api.toolkit.model.LabelEntity;
+import org.apache.nifi.api.toolkit.model.PositionDTO;
+import org.apache.nifi.api.toolkit.model.RevisionDTO;
+import org.junit.Test;
+
+import dev.nifi.yml.ElementYML;
+import dev.nifi.yml.HelperYML;
+import dev.nifi.yml.TemplateYML;
+
+public class ProcessGroupDiffTest {
+
+	private static final String GROUP = "group";
+
+	private final TypeDefinitionCache typeCache = new TypeDefinitionCache();
+
+	/*
+	 * Two funnels connected to each other and a label
+	 */
+	private static ProcessGroupContents canvas() {
+		ProcessGroupContents contents = new ProcessGroupContents(GROUP);
+		contents.funnels.add(funnel("f1", 0, 0));
+		contents.funnels.add(funnel("f2", 200, 0));
+		contents.labels.add(label("l1", "Notes"));
+		contents.connections.add(connection("c1", "f1", "f2"));
+		return contents;
+	}
+
+	@Test
+	public void unchangedCanvasIsEmpty() {
+		ProcessGroupContents live = canvas();
+		ProcessGroupDiff diff = new ProcessGroupDiff(null, GROUP, new TemplateYML(live, typeCache), live, typeCache);
+
+		assertTrue(diff.isEmpty());
+		assertEquals("f1", diff.matches.get("f1"));
+		assertEquals("l1", diff.matches.get("l1"));
+	}
+
+	@Test
+	public void componentsWithNewIdsAreMatchedByIdentity() {
+		ProcessGroupContents live = canvas();
+		TemplateYML desired = new TemplateYML(live, typeCache);
+		for (ElementYML element : desired.components) {
+			for (int i = 0; i < element.inputs.size(); i++) {
+				element.inputs.get(i).source = "template-" + element.inputs.get(i).source;
+			}
+			element.id = "template-" + element.id;
+		}
+
+		ProcessGroupDiff diff = new ProcessGroupDiff(null, GROUP, desired, live, typeCache);
+
+		// Funnels are recognized by position, labels by their text
+		assertTrue(diff.isEmpty());
+		assertEquals("f1", diff.matches.get("template-f1"));
+		assertEquals("f2", diff.matches.get("template-f2"));
+		assertEquals("l1", diff.matches.get("template-l1"));
+	}
+
+	@Test
+	public void changedLabelIsUpdated() {
+		ProcessGroupContents live = canvas();
+		TemplateYML desired = new TemplateYML(live, typeCache);
+		element(desired, "l1").comment = "Other notes";
+
+		ProcessGroupDiff diff = new ProcessGroupDiff(null, GROUP, desired, live, typeCache);
+
+		assertEquals(0, diff.getCreates());
+		assertEquals(1, diff.getUpdates());
+		assertEquals(0, diff.getDeletes());
+		assertEquals("l1", diff.updated.get(0).t2.id);
+	}
+
+	@Test
+	public void removedElementIsDeletedWithItsConnections() {
+		ProcessGroupContents live = canvas();
+		TemplateYML desired = new TemplateYML(live, typeCache);
+		desired.components.remove(element(desired, "f2"));
+
+		ProcessGroupDiff diff = new ProcessGroupDiff(null, GROUP, desired, live, typeCache);
+
+		assertEquals(1, diff.deleted.size());
+		assertEquals("f2", diff.deleted.get(0).id);
+		assertEquals(1, diff.deletedConnections.size());
+		assertSame(live.connections.get(0), diff.deletedConnections.get(0));
+		assertSame(live.funnels.get(1), diff.getEntity("f2"));
+	}
+
+	@Test
+	public void newElementsAreCreated() {
+		ProcessGroupContents live = canvas();
+		TemplateYML desired = new TemplateYML(live, typeCache);
+
+		ProcessGroupContents extra = new ProcessGroupContents(GROUP);
+		extra.labels.add(label("l2", "More notes"));
+		desired.components.addAll(new TemplateYML(extra, typeCache).components);
+
+		ProcessGroupDiff diff = new ProcessGroupDiff(null, GROUP, desired, live, typeCache);
+
+		assertEquals(1, diff.getCreates());
+		assertEquals("l2", diff.created.get(0).id);
+		assertEquals(0, diff.getUpdates() + diff.getDeletes());
+	}
+
+	@Test
+	public void sameNamedElementsAreOnlyMatchedOnce() {
+		ProcessGroupContents live = canvas();
+		TemplateYML desired = new TemplateYML(live, typeCache);
+
+		// A second label with the same text: one matches the canvas, the other one is new
+		ProcessGroupContents extra = new ProcessGroupContents(GROUP);
+		extra.labels.add(label("l2", "Notes"));
+		desired.components.addAll(new TemplateYML(extra, typeCache).components);
+
+		ProcessGroupDiff diff = new ProcessGroupDiff(null, GROUP, desired, live, typeCache);
+
+		assertEquals("l1", diff.matches.get("l1"));
+		assertEquals(1, diff.created.size());
+		assertEquals("l2", diff.created.get(0).id);
+	}
+
+	@Test
+	public void missingProcessGroupCreatesEverything() {
+		TemplateYML desired = new TemplateYML(canvas(), typeCache);
+		ProcessGroupDiff diff = new ProcessGroupDiff(null, null, desired, new ProcessGroupContents(null), typeCache);
+
+		assertEquals(3, diff.created.size());
+		assertEquals(1, diff.createdConnections.size());
+		assertEquals(0, diff.getUpdates() + diff.getDeletes());
+	}
+
+	private static ElementYML element(TemplateYML template, String id) {
+		for (ElementYML element : template.components) {
+			if (id.equals(element.id)) {
+				return element;
+			}
+		}
+		throw new IllegalArgumentException(id);
+	}
+
+	private static FunnelEntity funnel(String id, double x, double y) {
+		FunnelEntity funnel = new FunnelEntity();
+		funnel.setId(id);
+		funnel.setRevision(revision());
+		funnel.setPosition(position(x, y));
+		funnel.setComponent(new FunnelDTO());
+		return funnel;
+	}
+
+	private static LabelEntity label(String id, String text) {
+		LabelDTO dto = new LabelDTO();
+		dto.setLabel(text);
+		dto.setWidth(150.0);
+		dto.setHeight(150.0);
+		dto.setStyle(new HashMap<>());
+
+		LabelEntity label = new LabelEntity();
+		label.setId(id);
+		label.setRevision(revision());
+		label.setPosition(position(0, 300));
+		label.setComponent(dto);
+		return label;
+	}
+
+	private static ConnectionEntity connection(String id, String source, String destination) {
+		ConnectionDTO dto = new ConnectionDTO();
+		dto.setSource(connectable(source));
+		dto.setDestination(connectable(destination));
+		dto.setBends(new ArrayList<>());
+		dto.setPrioritizers(new ArrayList<>());
+		dto.setBackPressureObjectThreshold((long) HelperYML.DEFAULT_BACK_PRESSURE_OBJECT_THRESHOLD);
+		dto.setBackPressureDataSizeThreshold(HelperYML.DEFAULT_BACK_PRESSURE_DATA_SIZE_THRESHOLD);
+		dto.setFlowFileExpiration(HelperYML.DEFAULT_FLOW_FILE_EXPIRATION_SEC);
+		dto.setLoadBalanceStrategy(HelperYML.DEFAULT_LOAD_BALANCE_STRATEGY);
+		dto.setLoadBalanceCompression(HelperYML.DEFAULT_LOAD_BALANCE_COMPRESSION);
+
+		ConnectionEntity connection = new ConnectionEntity();
+		connection.setId(id);
+		connection.setRevision(revision());
+		connection.setComponent(dto);
+		connection.setSourceId(source);
+		connection.setSourceGroupId(GROUP);
+		connection.setSourceType(ConnectionEntity.SourceTypeEnum.FUNNEL);
+		connection.setDestinationId(destination);
+		connection.setDestinationGroupId(GROUP);
+		connection.setDestinationType(ConnectionEntity.DestinationTypeEnum.FUNNEL);
+		return connection;
+	}
+
+	private static ConnectableDTO connectable(String id) {
+		ConnectableDTO connectable = new ConnectableDTO();
+		connectable.setId(id);
+		connectable.setGroupId(GROUP);
+		connectable.setType(ConnectableDTO.TypeEnum.FUNNEL);
+		return connectable;
+	}
+
+	private static PositionDTO position(double x, double y) {
+		PositionDTO position = new PositionDTO();
+		position.setX(x);
+		position.setY(y);
+		return position;
+	}
+
+	private static RevisionDTO revision() {
+		RevisionDTO revision = new RevisionDTO();
+		revision.setVersion(1L);
+		return revision;
+	}
+}
@@ -0,0 +1,81 @@
+package dev.nifi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RetryBudgetTest {
+
+	@Test
+	public void reserveIsAvailableBeforeAnyRequest() {
+		RetryBudget budget = new RetryBudget(0.2, 3);
+
+		assertTrue(budget.tryRetry());
+		assertTrue(budget.tryRetry());
+		assertTrue(budget.tryRetry());
+		assertFalse(budget.tryRetry());
+		assertEquals(3, budget.getRetries());
+	}
+
+	@Test
+	public void requestsEarnRetries() {
+		RetryBudget budget = new RetryBudget(0.2, 0);
+		assertFalse(budget.tryRetry());
+
+		for (int i = 0; i < 10; i++) {
+			budget.recordRequest();
+		}
+
+		// One retry for every 5 requests
+		assertTrue(budget.tryRetry());
+		assertTrue(budget.tryRetry());
+		assertFalse(budget.tryRetry());
+		assertEquals(10, budget.getRequests());
+		assertEquals(2, budget.getRetries());
+	}
+
+	@Test
+	public void refusedRetriesAreNotCounted() {
+		RetryBudget budget = new RetryBudget(0, 1);
+		budget.tryRetry();
+		budget.tryRetry();
+		budget.tryRetry();
+
+		assertEquals(1, budget.getRetries());
+		assertEquals("1 retries for 0 requests", budget.toString());
+	}
+
+	@Test
+	public void concurrentRetriesNeverOverdrawTheBudget() throws InterruptedException {
+		RetryBudget budget = new RetryBudget(0.5, 10);
+		for (int i = 0; i < 1000; i++) {
+			budget.recordRequest();
+		}
+
+		AtomicInteger granted = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 200; i++) {
+					if (budget.tryRetry()) {
+						granted.incrementAndGet();
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(510, granted.get());
+		assertEquals(510, budget.getRetries());
+	}
+}
@@ -0,0 +1,231 @@
+package dev.nifi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import okio.Buffer;
+
+public class RetryInterceptorTest {
+
+	private static final String PROCESSOR = "http://localhost:8080/nifi-api/processors/2a1c7a5e-0171-1000-9bd4-8fd0d5fd1a3b";
+	private static final MediaType JSON = MediaType.parse("application/json");
+
+	/*
+	 * Answers each request with the next scripted response and remembers what was sent
+	 */
+	private static final class ScriptedChain implements Interceptor.Chain {
+
+		private final Request request;
+
+		// Response bodies, or failures to throw
+		private final List<Object> script = new ArrayList<>();
+		private final List<Integer> codes = new ArrayList<>();
+		private final List<Request> sent = new ArrayList<>();
+
+		ScriptedChain(Request request) {
+			this.request = request;
+		}
+
+		ScriptedChain respond(int code, String body) {
+			codes.add(code);
+			script.add(body);
+			return this;
+		}
+
+		ScriptedChain fail(IOException failure) {
+			codes.add(0);
+			script.add(failure);
+			return this;
+		}
+
+		@Override
+		public Request request() {
+			return request;
+		}
+
+		@Override
+		public Response proceed(Request request) throws IOException {
+			sent.add(request);
+			if (script.isEmpty()) {
+				throw new AssertionError("Unexpected request " + request.method() + " " + request.urlString());
+			}
+			int code = codes.remove(0);
+			Object next = script.remove(0);
+			if (next instanceof IOException) {
+				throw (IOException) next;
+			}
+			return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(code)
+					.body(ResponseBody.create(JSON, (String) next)).build();
+		}
+
+		@Override
+		public Connection connection() {
+			return null;
+		}
+	}
+
+	private static Request put(String url, String body) {
+		return new Request.Builder().url(url).put(RequestBody.create(JSON, body)).build();
+	}
+
+	private static String body(Request request) throws IOException {
+		Buffer sink = new Buffer();
+		request.body().writeTo(sink);
+		return sink.readUtf8();
+	}
+
+	@Test
+	public void conflictIsRetriedWithTheCurrentRevision() throws IOException {
+		RetryInterceptor retries = new RetryInterceptor(3, new RetryBudget(0.2, 10));
+		ScriptedChain chain = new ScriptedChain(put(PROCESSOR + "/run-status", "{\"revision\":{\"version\":3},\"state\":\"RUNNING\"}"))
+				.respond(409, "revision mismatch")
+				.respond(200, "{\"revision\":{\"version\":5},\"id\":\"p\"}")
+				.respond(200, "{}");
+
+		Response response = retries.intercept(chain);
+
+		assertEquals(200, response.code());
+		assertEquals(3, chain.sent.size());
+
+		// The revision belongs to the processor, not its run status
+		Request read = chain.sent.get(1);
+		assertEquals("GET", read.method());
+		assertEquals(PROCESSOR, read.urlString());
+
+		Request retry = chain.sent.get(2);
+		assertEquals("PUT", retry.method());
+		assertEquals(PROCESSOR + "/run-status", retry.urlString());
+		assertEquals("{\"revision\":{\"version\":5},\"state\":\"RUNNING\"}", body(retry));
+		assertEquals(1, retries.getBudget().getRetries());
+	}
+
+	@Test
+	public void deleteConflictIsRetriedWithTheCurrentVersion() throws IOException {
+		RetryInterceptor retries = new RetryInterceptor(3, new RetryBudget(0.2, 10));
+		ScriptedChain chain = new ScriptedChain(new Request.Builder().url(PROCESSOR + "?version=3&clientId=me").delete().build())
+				.respond(409, "revision mismatch")
+				.respond(200, "{\"revision\":{\"version\":4}}")
+				.respond(200, "{}");
+
+		assertEquals(200, retries.intercept(chain).code());
+
+		Request retry = chain.sent.get(2);
+		assertEquals("DELETE", retry.method());
+		assertEquals("4", retry.httpUrl().queryParameter("version"));
+		assertEquals("me", retry.httpUrl().queryParameter("clientId"));
+	}
+
+	@Test
+	public void conflictWithTheCurrentRevisionIsReturned() throws IOException {
+		// Still the same revision, so the conflict is about something else (like the processor running)
+		RetryInterceptor retries = new RetryInterceptor(3, new RetryBudget(0.2, 10));
+		ScriptedChain chain = new ScriptedChain(put(PROCESSOR, "{\"revision\":{\"version\":3}}"))
+				.respond(409, "processor is running")
+				.respond(200, "{\"revision\":{\"version\":3}}");
+
+		Response response = retries.intercept(chain);
+
+		assertEquals(409, response.code());
+		assertEquals("processor is running", response.body().string());
+		assertEquals(2, chain.sent.size());
+		assertEquals(0, retries.getBudget().getRetries());
+	}
+
+	@Test
+	public void conflictIsRetriedOnlyOnce() throws IOException {
+		RetryInterceptor retries = new RetryInterceptor(3, new RetryBudget(0.2, 10));
+		ScriptedChain chain = new ScriptedChain(put(PROCESSOR, "{\"revision\":{\"version\":3}}"))
+				.respond(409, "revision mismatch")
+				.respond(200, "{\"revision\":{\"version\":4}}")
+				.respond(409, "revision mismatch again");
+
+		Response response = retries.intercept(chain);
+
+		assertEquals(409, response.code());
+		assertEquals("revision mismatch again", response.body().string());
+		assertEquals(3, chain.sent.size());
+	}
+
+	@Test
+	public void postIsNeverRetried() throws IOException {
+		RetryInterceptor retries = new RetryInterceptor(3, new RetryBudget(0.2, 10));
+		Request create = new Request.Builder().url(PROCESSOR.replace("/processors/", "/process-groups/") + "/processors")
+				.post(RequestBody.create(JSON, "{\"revision\":{\"version\":0}}")).build();
+
+		ScriptedChain unavailable = new ScriptedChain(create).respond(503, "");
+		assertEquals(503, retries.intercept(unavailable).code());
+		assertEquals(1, unavailable.sent.size());
+
+		ScriptedChain conflict = new ScriptedChain(create).respond(409, "");
+		assertEquals(409, retries.intercept(conflict).code());
+		assertEquals(1, conflict.sent.size());
+
+		// The component may have been created even though the response was lost
+		ScriptedChain lost = new ScriptedChain(create).fail(new ConnectException("Connection reset"));
+		try {
+			retries.intercept(lost);
+			fail("The failure should have been rethrown");
+		} catch (ConnectException e) {
+			assertEquals(1, lost.sent.size());
+		}
+		assertEquals(0, retries.getBudget().getRetries());
+	}
+
+	@Test
+	public void exhaustedBudgetReturnsTheOriginalResponse() throws IOException {
+		RetryInterceptor retries = new RetryInterceptor(3, new RetryBudget(0, 0));
+
+		ScriptedChain conflict = new ScriptedChain(put(PROCESSOR, "{\"revision\":{\"version\":3}}"))
+				.respond(409, "revision mismatch")
+				.respond(200, "{\"revision\":{\"version\":4}}");
+		Response response = retries.intercept(conflict);
+		assertEquals(409, response.code());
+		assertEquals("revision mismatch", response.body().string());
+		assertEquals(2, conflict.sent.size());
+
+		ScriptedChain unavailable = new ScriptedChain(new Request.Builder().url(PROCESSOR).build()).respond(503, "busy");
+		response = retries.intercept(unavailable);
+		assertEquals(503, response.code());
+		assertEquals("busy", response.body().string());
+		assertEquals(1, unavailable.sent.size());
+	}
+
+	@Test
+	public void requestWithoutRevisionIsNotRefreshed() throws IOException {
+		RetryInterceptor retries = new RetryInterceptor(3, new RetryBudget(0.2, 10));
+		ScriptedChain chain = new ScriptedChain(put(PROCESSOR, "{\"component\":{}}")).respond(409, "conflict");
+
+		assertEquals(409, retries.intercept(chain).code());
+		assertEquals(1, chain.sent.size());
+		assertEquals(0, retries.getBudget().getRetries());
+	}
+
+	@Test
+	public void unavailableIdempotentRequestIsRetried() throws IOException {
+		RetryInterceptor retries = new RetryInterceptor(3, new RetryBudget(0.2, 10));
+		ScriptedChain chain = new ScriptedChain(new Request.Builder().url(PROCESSOR).build())
+				.respond(503, "")
+				.fail(new ConnectException("Connection refused"))
+				.respond(200, "{}");
+
+		assertEquals(200, retries.intercept(chain).code());
+		assertEquals(3, chain.sent.size());
+		assertEquals(2, retries.getBudget().getRetries());
+	}
+}